@@ -0,0 +1,144 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.Artist;
+import net.sourceforge.subsonic.domain.MediaFile;
+
+/**
+ * Measures indexing throughput: The time to index a complete library, as done by the first
+ * media scan, and the number of changed songs per second indexed between scans.
+ *
+ * @author Sindre Mehus
+ */
+@Fork(1)
+public class IndexingBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * A library with an empty index at the start of each iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class EmptyIndex {
+
+        @Param({"10000", "100000", "1000000"})
+        public int songs;
+
+        private SearchFixture fixture;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            fixture = new SearchFixture(songs, 1);
+        }
+
+        @Setup(Level.Iteration)
+        public void deleteIndex() throws Exception {
+            fixture.deleteIndex();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            fixture.close();
+        }
+    }
+
+    /**
+     * A library which is completely indexed.
+     */
+    @State(Scope.Benchmark)
+    public static class FullIndex {
+
+        @Param({"10000", "100000", "1000000"})
+        public int songs;
+
+        private SearchFixture fixture;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            fixture = new SearchFixture(songs, 1);
+            fixture.indexLibrary();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            fixture.close();
+        }
+
+        /**
+         * Returns the next batch of songs, wrapping around at the end of the library.
+         */
+        private List<MediaFile> nextBatch() {
+            List<MediaFile> batch = new ArrayList<MediaFile>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batch.add(fixture.getLibrary().getSong(next));
+                next = (next + 1) % songs;
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Indexes the complete library.  Songs per second is the number of songs divided by the score.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void indexLibrary(EmptyIndex index) {
+        index.fixture.indexLibrary();
+    }
+
+    /**
+     * Reindexes changed songs between media scans, in batches.  The score is songs per second.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    public void updateIndex(FullIndex index) {
+        index.fixture.getSearchService().updateIndex(index.nextBatch(), Collections.<Integer>emptyList(),
+                Collections.<Album>emptyList(), Collections.<Artist>emptyList());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sourceforge.subsonic.domain.MediaFile;
+import net.sourceforge.subsonic.domain.RandomSearchCriteria;
+import net.sourceforge.subsonic.domain.SearchCriteria;
+import net.sourceforge.subsonic.domain.SearchResult;
+import net.sourceforge.subsonic.service.SearchService;
+
+/**
+ * Measures the latency of searches and random selections in an indexed library.  The sample
+ * time mode reports percentiles of the latency.
+ * <p/>
+ * Searches cycle through more distinct queries than the search result cache holds, so that
+ * they are never served from the cache, except for {@link #searchRepeated}.
+ *
+ * @author Sindre Mehus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final int QUERY_COUNT = 1000;
+    private static final int RESULT_CACHE_SIZE = 100;
+    private static final int[][] YEAR_RANGES = {{1990, 1999}, {2000, 2013}, {1950, 2013}};
+
+    @Param({"10000", "100000", "1000000"})
+    public int songs;
+
+    private SearchFixture fixture;
+    private SearchService searchService;
+    private String[] queries;
+    private RandomSearchCriteria[] randomCriteria;
+
+    /**
+     * The next query or criteria used by each thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        private int next(int count) {
+            next = (next + 1) % count;
+            return next;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new SearchFixture(songs, RESULT_CACHE_SIZE);
+        fixture.indexLibrary();
+        searchService = fixture.getSearchService();
+
+        // Queries of one or two words as typed by users, sometimes incomplete.
+        SyntheticLibrary library = fixture.getLibrary();
+        Random random = new Random(7L);
+        queries = new String[QUERY_COUNT];
+        for (int i = 0; i < queries.length; i++) {
+            String query = library.getRandomWord(random);
+            if (random.nextBoolean()) {
+                query += " " + library.getRandomWord(random);
+            }
+            if (random.nextInt(3) == 0) {
+                query = query.substring(0, Math.max(2, query.length() - 2)) + "*";
+            }
+            queries[i] = query;
+        }
+
+        // The most common genres in each year range.
+        randomCriteria = new RandomSearchCriteria[10 * YEAR_RANGES.length];
+        for (int i = 0; i < randomCriteria.length; i++) {
+            int[] years = YEAR_RANGES[i % YEAR_RANGES.length];
+            randomCriteria[i] = new RandomSearchCriteria(20, library.getGenreByRank(i / YEAR_RANGES.length), years[0], years[1], null);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public SearchResult searchSongs(Cursor cursor) {
+        return searchService.search(createCriteria(queries[cursor.next(QUERY_COUNT)]), SearchService.IndexType.SONG);
+    }
+
+    @Benchmark
+    public SearchResult searchAlbums(Cursor cursor) {
+        return searchService.search(createCriteria(queries[cursor.next(QUERY_COUNT)]), SearchService.IndexType.ALBUM);
+    }
+
+    @Benchmark
+    public SearchResult searchArtists(Cursor cursor) {
+        return searchService.search(createCriteria(queries[cursor.next(QUERY_COUNT)]), SearchService.IndexType.ARTIST);
+    }
+
+    /**
+     * Repeats the same few searches, which are served from the search result cache.
+     */
+    @Benchmark
+    public SearchResult searchRepeated(Cursor cursor) {
+        return searchService.search(createCriteria(queries[cursor.next(RESULT_CACHE_SIZE / 2)]), SearchService.IndexType.SONG);
+    }
+
+    @Benchmark
+    public List<MediaFile> getRandomSongs(Cursor cursor) {
+        return searchService.getRandomSongs(randomCriteria[cursor.next(randomCriteria.length)]);
+    }
+
+    @Benchmark
+    public List<MediaFile> getRandomAlbums() {
+        return searchService.getRandomAlbums(10);
+    }
+
+    private static SearchCriteria createCriteria(String query) {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.setQuery(query);
+        criteria.setOffset(0);
+        criteria.setCount(20);
+        return criteria;
+    }
+}
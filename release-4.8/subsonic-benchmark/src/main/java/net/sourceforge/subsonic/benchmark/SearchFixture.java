@@ -0,0 +1,150 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sourceforge.subsonic.domain.MediaFile;
+import net.sourceforge.subsonic.service.MediaFileService;
+import net.sourceforge.subsonic.service.SearchService;
+import net.sourceforge.subsonic.service.SettingsService;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A {@link SearchService} indexing a {@link SyntheticLibrary}, in a Subsonic home directory of
+ * its own.  Media files are looked up in the synthetic library rather than in the database.
+ *
+ * @author Sindre Mehus
+ */
+public class SearchFixture {
+
+    private final SyntheticLibrary library;
+    private final CacheManager cacheManager;
+    private final SearchService searchService;
+    private final File home;
+
+    /**
+     * Creates a fixture.  The library is not indexed until {@link #indexLibrary} is called.
+     *
+     * @param songCount       The number of songs in the library.
+     * @param resultCacheSize The maximum number of search result pages to cache.
+     */
+    public SearchFixture(int songCount, int resultCacheSize) throws IOException {
+        if (System.getProperty("subsonic.home") == null) {
+            home = Files.createTempDirectory("subsonic-benchmark").toFile();
+            System.setProperty("subsonic.home", home.getPath());
+        } else {
+            home = null;
+        }
+        deleteIndex();
+
+        library = new SyntheticLibrary(songCount, 42L);
+
+        cacheManager = new CacheManager(new Configuration());
+        Cache resultCache = new Cache(new CacheConfiguration("searchResultCache", resultCacheSize).eternal(true).statistics(true));
+        cacheManager.addCache(resultCache);
+
+        searchService = new SearchService();
+        searchService.setSettingsService(new SettingsService());
+        searchService.setMediaFileService(new SyntheticMediaFileService(library));
+        searchService.setSearchResultCache(resultCache);
+    }
+
+    /**
+     * Indexes the complete library, as done by a media scan.
+     */
+    public void indexLibrary() {
+        searchService.startIndexing();
+        for (int i = 0; i < library.getSongCount(); i++) {
+            searchService.index(library.getSong(i));
+        }
+        for (int i = 0; i < library.getAlbumCount(); i++) {
+            searchService.index(library.getAlbumDirectory(i));
+            searchService.index(library.getAlbum(i));
+        }
+        for (int i = 0; i < library.getArtistCount(); i++) {
+            searchService.index(library.getArtistDirectory(i));
+            searchService.index(library.getArtist(i));
+        }
+        searchService.stopIndexing();
+    }
+
+    /**
+     * Deletes the search index of the Subsonic home directory.
+     */
+    public void deleteIndex() throws IOException {
+        File[] files = SettingsService.getSubsonicHome().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && file.getName().startsWith("lucene")) {
+                    FileUtils.deleteDirectory(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the caches, and deletes the Subsonic home directory if created by this fixture.
+     */
+    public void close() throws IOException {
+        cacheManager.shutdown();
+        if (home != null) {
+            FileUtils.deleteDirectory(home);
+        }
+    }
+
+    public SyntheticLibrary getLibrary() {
+        return library;
+    }
+
+    public SearchService getSearchService() {
+        return searchService;
+    }
+
+    /**
+     * Looks up media files in the synthetic library instead of the database.
+     */
+    private static class SyntheticMediaFileService extends MediaFileService {
+        private final SyntheticLibrary library;
+
+        private SyntheticMediaFileService(SyntheticLibrary library) {
+            this.library = library;
+        }
+
+        @Override
+        public List<MediaFile> getMediaFiles(List<Integer> ids) {
+            List<MediaFile> result = new ArrayList<MediaFile>(ids.size());
+            for (Integer id : ids) {
+                MediaFile mediaFile = library.getMediaFile(id);
+                if (mediaFile != null) {
+                    result.add(mediaFile);
+                }
+            }
+            return result;
+        }
+    }
+}
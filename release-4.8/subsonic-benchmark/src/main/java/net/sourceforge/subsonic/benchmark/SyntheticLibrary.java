@@ -0,0 +1,340 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.benchmark;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.Artist;
+import net.sourceforge.subsonic.domain.MediaFile;
+
+/**
+ * A generated music library of a given size, with tags distributed roughly like in real
+ * libraries: A few artists have many albums, a few genres and words are very common, most
+ * albums are recent, and most songs are MP3s.
+ * <p/>
+ * Only the structure of the library (album sizes, and the artist of each album) is kept in
+ * memory.  Songs, albums and artists are generated on demand from their number, so that the
+ * same seed always gives the same library, and even the largest libraries fit in memory.
+ *
+ * @author Sindre Mehus
+ */
+public class SyntheticLibrary {
+
+    public static final String MUSIC_FOLDER = "/music";
+
+    private static final String[] GENRES = {
+            "Rock", "Pop", "Alternative", "Electronic", "Jazz", "Classical", "Hip-Hop", "Metal",
+            "Indie", "Folk", "Blues", "Country", "Soundtrack", "R&B", "Reggae", "Punk", "Soul",
+            "Ambient", "Dance", "World", "Latin", "Funk", "Singer-Songwriter", "Techno", "House",
+            "Gospel", "New Age", "Ska", "Disco", "Trance", "Grunge", "Bossa Nova"
+    };
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ra", "to", "ne", "sa", "vi", "du", "be", "ro", "li", "ma", "te",
+            "no", "si", "ga", "fu", "re", "da", "po", "ki", "la", "mo", "ve", "zu", "sha", "tri",
+            "bel", "dor", "ran", "win", "mar", "sol", "ter", "lin", "ven", "gar"
+    };
+    private static final int VOCABULARY_SIZE = 5000;
+    private static final int FIRST_YEAR = 1950;
+    private static final int LAST_YEAR = 2013;
+    private static final long CREATED = 1356998400000L;
+
+    private final int songCount;
+    private final long seed;
+    private final String[] vocabulary;
+    private final Zipf words;
+    private final Zipf genres;
+
+    // For each album, the number of its first song.  The last element is the number of songs.
+    private final int[] albumStart;
+    private final int[] albumArtist;
+
+    /**
+     * Creates a library.
+     *
+     * @param songCount The number of songs.
+     * @param seed      The seed of the random generator.
+     */
+    public SyntheticLibrary(int songCount, long seed) {
+        this.songCount = songCount;
+        this.seed = seed;
+        Random random = new Random(seed);
+
+        vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 1 + random.nextInt(3);
+            for (int j = 0; j < syllables; j++) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            vocabulary[i] = word.toString();
+        }
+        words = new Zipf(VOCABULARY_SIZE, 1.0);
+        genres = new Zipf(GENRES.length, 1.2);
+
+        // Albums have 8 to 14 songs, except for the occasional compilation.
+        int[] starts = new int[songCount / 6 + 2];
+        int albums = 0;
+        for (int song = 0; song < songCount; albums++) {
+            starts[albums] = song;
+            int size = random.nextInt(20) == 0 ? 20 + random.nextInt(20) : 8 + random.nextInt(7);
+            song += size;
+        }
+        albumStart = Arrays.copyOf(starts, albums + 1);
+        albumStart[albums] = songCount;
+
+        // About three albums per artist, with a few prolific artists.
+        int artists = Math.max(1, albums / 3);
+        Zipf artistPopularity = new Zipf(artists, 0.8);
+        albumArtist = new int[albums];
+        for (int album = 0; album < albums; album++) {
+            albumArtist[album] = artistPopularity.sample(random);
+        }
+    }
+
+    public int getSongCount() {
+        return songCount;
+    }
+
+    public int getAlbumCount() {
+        return albumArtist.length;
+    }
+
+    public int getArtistCount() {
+        return Math.max(1, albumArtist.length / 3);
+    }
+
+    /**
+     * Returns the given song, which has the ID <code>index + 1</code>.
+     */
+    public MediaFile getSong(int index) {
+        int album = findAlbum(index);
+        int artist = albumArtist[album];
+        Random random = random(1, index);
+
+        MediaFile song = new MediaFile();
+        song.setId(index + 1);
+        song.setMediaType(MediaFile.MediaType.MUSIC);
+        song.setFolder(MUSIC_FOLDER);
+        song.setTitle(getWords(random, 1 + random.nextInt(4)));
+        song.setArtist(getArtistName(artist));
+        song.setAlbumArtist(getArtistName(artist));
+        song.setAlbumName(getAlbumName(album));
+        song.setGenre(getGenre(artist));
+        song.setYear(getYear(album));
+        song.setDiscNumber(1);
+        song.setTrackNumber(index - albumStart[album] + 1);
+
+        int format = random.nextInt(100);
+        song.setFormat(format < 80 ? "mp3" : format < 92 ? "flac" : format < 97 ? "m4a" : "ogg");
+        song.setBitRate("flac".equals(song.getFormat()) ? 900 + random.nextInt(300) : 128 + 32 * random.nextInt(7));
+        song.setVariableBitRate(random.nextBoolean());
+        song.setDurationSeconds(120 + random.nextInt(300));
+        song.setFileSize(song.getDurationSeconds() * song.getBitRate() * 125L);
+
+        String albumPath = getAlbumPath(album);
+        song.setParentPath(albumPath);
+        song.setPath(albumPath + "/" + song.getTrackNumber() + " - " + song.getTitle() + "." + song.getFormat());
+        song.setCreated(new Date(CREATED + index * 1000L));
+        song.setChanged(song.getCreated());
+        song.setPresent(true);
+        return song;
+    }
+
+    /**
+     * Returns the directory of the given album, which has the ID
+     * <code>songCount + index + 1</code>.
+     */
+    public MediaFile getAlbumDirectory(int index) {
+        MediaFile dir = new MediaFile();
+        dir.setId(songCount + index + 1);
+        dir.setMediaType(MediaFile.MediaType.ALBUM);
+        dir.setFolder(MUSIC_FOLDER);
+        dir.setPath(getAlbumPath(index));
+        dir.setParentPath(getArtistPath(albumArtist[index]));
+        dir.setTitle(getAlbumName(index));
+        dir.setAlbumName(getAlbumName(index));
+        dir.setArtist(getArtistName(albumArtist[index]));
+        dir.setYear(getYear(index));
+        dir.setCreated(new Date(CREATED + albumStart[index] * 1000L));
+        dir.setChanged(dir.getCreated());
+        dir.setPresent(true);
+        return dir;
+    }
+
+    /**
+     * Returns the directory of the given artist, which has the ID
+     * <code>songCount + albumCount + index + 1</code>.
+     */
+    public MediaFile getArtistDirectory(int index) {
+        MediaFile dir = new MediaFile();
+        dir.setId(songCount + getAlbumCount() + index + 1);
+        dir.setMediaType(MediaFile.MediaType.DIRECTORY);
+        dir.setFolder(MUSIC_FOLDER);
+        dir.setPath(getArtistPath(index));
+        dir.setParentPath(MUSIC_FOLDER);
+        dir.setTitle(getArtistName(index));
+        dir.setArtist(getArtistName(index));
+        dir.setCreated(new Date(CREATED));
+        dir.setChanged(dir.getCreated());
+        dir.setPresent(true);
+        return dir;
+    }
+
+    /**
+     * Returns the song, album directory or artist directory with the given ID, or
+     * <code>null</code> if not found.
+     */
+    public MediaFile getMediaFile(int id) {
+        int index = id - 1;
+        if (index < 0) {
+            return null;
+        }
+        if (index < songCount) {
+            return getSong(index);
+        }
+        index -= songCount;
+        if (index < getAlbumCount()) {
+            return getAlbumDirectory(index);
+        }
+        index -= getAlbumCount();
+        return index < getArtistCount() ? getArtistDirectory(index) : null;
+    }
+
+    /**
+     * Returns the given album, as found in ID3 tags.  The album has the ID <code>index + 1</code>.
+     */
+    public Album getAlbum(int index) {
+        Album album = new Album();
+        album.setId(index + 1);
+        album.setPath(getAlbumPath(index));
+        album.setName(getAlbumName(index));
+        album.setArtist(getArtistName(albumArtist[index]));
+        album.setSongCount(albumStart[index + 1] - albumStart[index]);
+        album.setDurationSeconds(album.getSongCount() * 270);
+        album.setCreated(new Date(CREATED + albumStart[index] * 1000L));
+        album.setPresent(true);
+        return album;
+    }
+
+    /**
+     * Returns the given artist, as found in ID3 tags.  The artist has the ID <code>index + 1</code>.
+     */
+    public Artist getArtist(int index) {
+        Artist artist = new Artist();
+        artist.setId(index + 1);
+        artist.setName(getArtistName(index));
+        artist.setPresent(true);
+        return artist;
+    }
+
+    /**
+     * Returns the genre of the given popularity rank, starting with the most common at zero.
+     */
+    public String getGenreByRank(int rank) {
+        return GENRES[rank % GENRES.length];
+    }
+
+    /**
+     * Returns a word picked with the same frequency as in song titles, for use in queries.
+     */
+    public String getRandomWord(Random random) {
+        return vocabulary[words.sample(random)];
+    }
+
+    private int findAlbum(int song) {
+        int i = Arrays.binarySearch(albumStart, song);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private String getArtistName(int artist) {
+        Random random = random(2, artist);
+        String name = capitalize(getWords(random, 1 + random.nextInt(2)));
+        return random.nextInt(10) == 0 ? "The " + name : name;
+    }
+
+    private String getAlbumName(int album) {
+        Random random = random(3, album);
+        return capitalize(getWords(random, 1 + random.nextInt(3)));
+    }
+
+    private String getGenre(int artist) {
+        return GENRES[genres.sample(random(4, artist))];
+    }
+
+    /**
+     * Most albums are recent, with fewer and fewer of each decade back to 1950.
+     */
+    private int getYear(int album) {
+        double years = Math.abs(random(5, album).nextGaussian()) * 15.0;
+        return Math.max(FIRST_YEAR, LAST_YEAR - (int) years);
+    }
+
+    private String getArtistPath(int artist) {
+        return MUSIC_FOLDER + "/" + getArtistName(artist);
+    }
+
+    private String getAlbumPath(int album) {
+        return getArtistPath(albumArtist[album]) + "/" + getAlbumName(album);
+    }
+
+    private String getWords(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(vocabulary[words.sample(random)]);
+        }
+        return capitalize(builder.toString());
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+    private Random random(int kind, int index) {
+        return new Random(seed * 31L + kind * 1000003L + index * 7919L);
+    }
+
+    /**
+     * Picks integers from <code>0</code> to <code>n - 1</code>, where <code>i</code> is picked
+     * with a probability proportional to <code>1 / (i + 1)^s</code>.
+     */
+    private static class Zipf {
+        private final double[] cumulative;
+
+        private Zipf(int n, double s) {
+            cumulative = new double[n];
+            double sum = 0.0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, s);
+                cumulative[i] = sum;
+            }
+        }
+
+        private int sample(Random random) {
+            double x = random.nextDouble() * cumulative[cumulative.length - 1];
+            int i = Arrays.binarySearch(cumulative, x);
+            return Math.min(i >= 0 ? i : -i - 1, cumulative.length - 1);
+        }
+    }
+}
@@ -79,7 +79,8 @@ public class NowPlayingService {
      * Returns media folder scanning status.
      */
     public ScanInfo getScanningStatus() {
-        return new ScanInfo(mediaScannerService.isScanning(), mediaScannerService.getScanCount());
+        return new ScanInfo(mediaScannerService.isScanning(), mediaScannerService.getScanCount(),
+                mediaScannerService.getThrottleState().name());
     }
 
     private List<NowPlayingInfo> convert(List<TransferStatus> statuses) throws Exception {
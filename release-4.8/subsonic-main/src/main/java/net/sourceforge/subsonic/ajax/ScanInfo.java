@@ -27,10 +27,12 @@ public class ScanInfo {
 
     private final boolean scanning;
     private final int count;
+    private final String throttle;
 
-    public ScanInfo(boolean scanning, int count) {
+    public ScanInfo(boolean scanning, int count, String throttle) {
         this.scanning = scanning;
         this.count = count;
+        this.throttle = throttle;
     }
 
     public boolean isScanning() {
@@ -40,4 +42,11 @@ public class ScanInfo {
     public int getCount() {
         return count;
     }
+
+    /**
+     * Returns the throttle state of the scan, i.e., "FULL_SPEED", "THROTTLED" or "PAUSED".
+     */
+    public String getThrottle() {
+        return throttle;
+    }
 }
@@ -21,6 +21,7 @@ package net.sourceforge.subsonic.cache;
 
 import java.io.File;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
 import net.sf.ehcache.Cache;
@@ -37,7 +38,7 @@ import net.sourceforge.subsonic.service.SettingsService;
  * @author Sindre Mehus
  * @version $Id: CacheFactory.java 2633 2011-12-21 12:32:07Z sindre_mehus $
  */
-public class CacheFactory implements InitializingBean {
+public class CacheFactory implements InitializingBean, DisposableBean {
 
     private static final Logger LOG = Logger.getLogger(CacheFactory.class);
     private CacheManager cacheManager;
@@ -52,6 +53,13 @@ public class CacheFactory implements InitializingBean {
         cacheManager = CacheManager.create(configuration);
     }
 
+    /**
+     * Shuts down Ehcache.  This is required for persistent caches to be written to disk.
+     */
+    public void destroy() throws Exception {
+        cacheManager.shutdown();
+    }
+
     public Ehcache getCache(String name) {
         return cacheManager.getCache(name);
     }
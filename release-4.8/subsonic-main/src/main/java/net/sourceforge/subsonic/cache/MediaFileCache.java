@@ -0,0 +1,390 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.domain.MediaFile;
+
+/**
+ * In-memory cache of media files, looked up by ID or by path, and of the sorted children of
+ * directories.  Least recently used entries are evicted when the estimated memory size of the
+ * cache exceeds its limit.
+ * <p/>
+ * Entries never expire.  Instead, {@link net.sourceforge.subsonic.dao.MediaFileDao} removes the
+ * entries of the media files it updates (including the children of their parent directory), and
+ * clears the cache on bulk updates (such as marking files non-present after a media scan).  The
+ * children of a directory are in addition only returned as long as the timestamps of the
+ * directory are unchanged.
+ * <p/>
+ * A media file read from the database may be stale by the time it is added, if it was updated
+ * (and removed from the cache) in the meantime.  Callers therefore get a stamp with
+ * {@link #getStamp()} before reading from the database, and files are only added if nothing has
+ * been removed since.
+ * <p/>
+ * The cache holds copies of the media files, and returns new copies, so that callers may modify
+ * the media files they get (for instance by setting the starred date of the current user).
+ *
+ * @author Sindre Mehus
+ */
+public class MediaFileCache {
+
+    private static final Logger LOG = Logger.getLogger(MediaFileCache.class);
+
+    // Approximate size of a media file, its dates and boxed numbers, and the cache entries,
+    // not including the characters of its strings.
+    private static final int ENTRY_OVERHEAD_BYTES = 480;
+
+    // Media files keyed by path, and children keyed by ChildrenKey, in least recently used order.
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(1024, 0.75f, true);
+    private final Map<Integer, FileEntry> byId = new HashMap<Integer, FileEntry>(1024);
+    private long maxBytes = 32L * 1024L * 1024L;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long childrenHits;
+    private long childrenMisses;
+
+    // Incremented whenever media files are removed.
+    private long removals;
+
+    /**
+     * Returns the media file with the given ID, or <code>null</code> if not cached.
+     */
+    public synchronized MediaFile get(int id) {
+        FileEntry entry = byId.get(id);
+        if (entry != null) {
+            entries.get(entry.key);  // Mark as recently used.
+        }
+        return copyOf(count(entry == null ? null : entry.mediaFile));
+    }
+
+    /**
+     * Returns the media file with the given path, or <code>null</code> if not cached.
+     */
+    public synchronized MediaFile get(String path) {
+        Entry entry = entries.get(path);
+        return copyOf(count(entry == null ? null : ((FileEntry) entry).mediaFile));
+    }
+
+    /**
+     * Returns the children of the given directory, sorted as given, or <code>null</code> if not
+     * cached or if the directory has changed since the children were added.
+     *
+     * @param parent           The directory.
+     * @param sortAlbumsByYear Whether albums are sorted by year.
+     * @return Copies of the children, or <code>null</code>.
+     */
+    public synchronized List<MediaFile> getChildren(MediaFile parent, boolean sortAlbumsByYear) {
+        ChildrenEntry entry = (ChildrenEntry) entries.get(new ChildrenKey(parent.getPath()));
+        if (entry != null && !entry.isValid(parent, sortAlbumsByYear)) {
+            removeEntry(entry.key);
+            entry = null;
+        }
+        if (entry == null) {
+            childrenMisses++;
+            return null;
+        }
+        childrenHits++;
+        List<MediaFile> children = new ArrayList<MediaFile>(entry.children.size());
+        for (MediaFile child : entry.children) {
+            children.add(copyOf(child));
+        }
+        return children;
+    }
+
+    /**
+     * Adds the sorted children of the given directory, unless any media file has been removed
+     * since the given stamp was taken.
+     *
+     * @param parent           The directory.
+     * @param children         The children, as returned by the database and sorted.
+     * @param sortAlbumsByYear Whether albums are sorted by year.
+     * @param stamp            The stamp taken before reading the children from the database.
+     */
+    public synchronized void putChildren(MediaFile parent, List<MediaFile> children, boolean sortAlbumsByYear, long stamp) {
+        if (stamp == removals) {
+            add(new ChildrenEntry(parent, children, sortAlbumsByYear));
+        }
+    }
+
+    /**
+     * Adds the given media file, replacing any cached file with the same path, unless any media
+     * file has been removed since the given stamp was taken.  Files which are not yet stored in
+     * the database (and thus have no ID) are not cached.
+     *
+     * @param mediaFile The media file.
+     * @param stamp     The stamp taken before reading the media file from the database.
+     */
+    public synchronized void put(MediaFile mediaFile, long stamp) {
+        if (mediaFile.getId() == 0 || stamp != removals) {
+            return;
+        }
+        FileEntry previous = byId.get(mediaFile.getId());
+        if (previous != null) {
+            removeEntry(previous.key);
+        }
+        add(new FileEntry(mediaFile));
+    }
+
+    /**
+     * Returns a stamp to pass to {@link #put} and {@link #putChildren}, which must be taken
+     * before reading the media files from the database.
+     */
+    public synchronized long getStamp() {
+        return removals;
+    }
+
+    /**
+     * Removes the media file with the given path, if cached, along with the children of the
+     * file (if it is a directory) and the children of its parent directory.
+     */
+    public synchronized void remove(String path) {
+        removals++;
+        removeEntry(path);
+        removeEntry(new ChildrenKey(path));
+        String parentPath = new File(path).getParent();
+        if (parentPath != null) {
+            removeEntry(new ChildrenKey(parentPath));
+        }
+    }
+
+    /**
+     * Removes all media files.
+     */
+    public synchronized void clear() {
+        if (!entries.isEmpty()) {
+            LOG.info("Clearing media file cache: " + this);
+        }
+        removals++;
+        entries.clear();
+        byId.clear();
+        bytes = 0L;
+    }
+
+    /**
+     * Returns the number of cached media files, not including children of directories.
+     */
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * Returns the estimated memory size of the cached media files, in bytes.
+     */
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of lookups of the children of directories which found the children in
+     * the cache, or zero if there have been no lookups.
+     */
+    public synchronized double getChildrenHitRatio() {
+        long lookups = childrenHits + childrenMisses;
+        return lookups == 0L ? 0.0 : (double) childrenHits / lookups;
+    }
+
+    /**
+     * Returns the fraction of lookups which found the media file in the cache, or zero if there
+     * have been no lookups.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0L ? 0.0 : (double) hits / lookups;
+    }
+
+    /**
+     * Sets the maximum estimated memory size of the cache.
+     */
+    public synchronized void setMaxSizeMB(int mb) {
+        maxBytes = mb * 1024L * 1024L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return byId.size() + " media files, " + (entries.size() - byId.size()) + " directories, " + bytes / 1024L + " KB, " +
+                "hit ratio " + Math.round(getHitRatio() * 100.0) + "% (" + hits + " hits, " + misses + " misses), " +
+                "directory hit ratio " + Math.round(getChildrenHitRatio() * 100.0) + "% (" + childrenHits + " hits, " + childrenMisses + " misses)";
+    }
+
+    private MediaFile count(MediaFile mediaFile) {
+        if (mediaFile == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return mediaFile;
+    }
+
+    private void add(Entry entry) {
+        removeEntry(entry.key);
+        entries.put(entry.key, entry);
+        if (entry instanceof FileEntry) {
+            byId.put(((FileEntry) entry).id, (FileEntry) entry);
+        }
+        bytes += entry.bytes;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            evicted(eldest);
+        }
+    }
+
+    private void removeEntry(Object key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            evicted(entry);
+        }
+    }
+
+    private void evicted(Entry entry) {
+        if (entry instanceof FileEntry) {
+            byId.remove(((FileEntry) entry).id);
+        }
+        bytes -= entry.bytes;
+    }
+
+    /**
+     * Returns the estimated memory size of the given media file, in bytes.
+     */
+    static long sizeOf(MediaFile mediaFile) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (length(mediaFile.getPath()) + length(mediaFile.getFolder()) +
+                length(mediaFile.getFormat()) + length(mediaFile.getTitle()) + length(mediaFile.getAlbumName()) +
+                length(mediaFile.getArtist()) + length(mediaFile.getAlbumArtist()) + length(mediaFile.getGenre()) +
+                length(mediaFile.getCoverArtPath()) + length(mediaFile.getParentPath()) + length(mediaFile.getComment()));
+    }
+
+    /**
+     * Returns a copy of the given media file, without the starred date of any user.
+     */
+    private static MediaFile copyOf(MediaFile mediaFile) {
+        if (mediaFile == null) {
+            return null;
+        }
+        MediaFile copy = new MediaFile(mediaFile);
+        copy.setStarredDate(null);
+        return copy;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static long getTime(Date date) {
+        return date == null ? -1L : date.getTime();
+    }
+
+    private abstract static class Entry {
+        final Object key;
+        final long bytes;
+
+        Entry(Object key, long bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A cached media file.
+     */
+    private static class FileEntry extends Entry {
+        private final MediaFile mediaFile;
+        private final int id;
+
+        private FileEntry(MediaFile mediaFile) {
+            super(mediaFile.getPath(), sizeOf(mediaFile));
+            this.mediaFile = copyOf(mediaFile);
+            id = mediaFile.getId();
+        }
+    }
+
+    /**
+     * The cached children of a directory, with the timestamps the directory had when added.
+     */
+    private static class ChildrenEntry extends Entry {
+        private final List<MediaFile> children;
+        private final long changed;
+        private final long childrenLastUpdated;
+        private final boolean sortAlbumsByYear;
+
+        private ChildrenEntry(MediaFile parent, List<MediaFile> children, boolean sortAlbumsByYear) {
+            super(new ChildrenKey(parent.getPath()), sizeOf(children));
+            this.children = new ArrayList<MediaFile>(children.size());
+            for (MediaFile child : children) {
+                this.children.add(copyOf(child));
+            }
+            changed = getTime(parent.getChanged());
+            childrenLastUpdated = getTime(parent.getChildrenLastUpdated());
+            this.sortAlbumsByYear = sortAlbumsByYear;
+        }
+
+        private boolean isValid(MediaFile parent, boolean sortAlbumsByYear) {
+            return changed == getTime(parent.getChanged()) && childrenLastUpdated == getTime(parent.getChildrenLastUpdated()) &&
+                    this.sortAlbumsByYear == sortAlbumsByYear;
+        }
+
+        private static long sizeOf(List<MediaFile> children) {
+            long result = ENTRY_OVERHEAD_BYTES;
+            for (MediaFile child : children) {
+                result += MediaFileCache.sizeOf(child);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Key of the children of the directory with the given path.
+     */
+    private static class ChildrenKey {
+        private final String path;
+
+        private ChildrenKey(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ChildrenKey && path.equals(((ChildrenKey) o).path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+    }
+}
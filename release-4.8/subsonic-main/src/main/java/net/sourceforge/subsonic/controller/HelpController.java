@@ -28,8 +28,10 @@ import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.ParameterizableViewController;
 
 import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.cache.MediaFileCache;
 import net.sourceforge.subsonic.service.SettingsService;
 import net.sourceforge.subsonic.service.VersionService;
+import net.sourceforge.subsonic.util.FileUtil;
 
 /**
  * Controller for the help page.
@@ -40,6 +42,7 @@ public class HelpController extends ParameterizableViewController {
 
     private VersionService versionService;
     private SettingsService settingsService;
+    private MediaFileCache mediaFileCache;
 
     @Override
     protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
@@ -68,6 +71,8 @@ public class HelpController extends ParameterizableViewController {
         map.put("serverInfo", serverInfo);
         map.put("usedMemory", totalMemory - freeMemory);
         map.put("totalMemory", totalMemory);
+        map.put("fileStatCache", FileUtil.getStatCache());
+        map.put("mediaFileCache", mediaFileCache);
         map.put("logEntries", Logger.getLatestLogEntries());
         map.put("logFile", Logger.getLogFile());
 
@@ -83,4 +88,8 @@ public class HelpController extends ParameterizableViewController {
     public void setSettingsService(SettingsService settingsService) {
         this.settingsService = settingsService;
     }
+
+    public void setMediaFileCache(MediaFileCache mediaFileCache) {
+        this.mediaFileCache = mediaFileCache;
+    }
 }
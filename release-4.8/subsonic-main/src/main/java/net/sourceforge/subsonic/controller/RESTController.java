@@ -25,8 +25,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -67,12 +69,17 @@ import net.sourceforge.subsonic.domain.RandomSearchCriteria;
 import net.sourceforge.subsonic.domain.SearchCriteria;
 import net.sourceforge.subsonic.domain.SearchResult;
 import net.sourceforge.subsonic.domain.Share;
+import net.sourceforge.subsonic.domain.Suggestion;
 import net.sourceforge.subsonic.domain.TranscodeScheme;
 import net.sourceforge.subsonic.domain.TransferStatus;
 import net.sourceforge.subsonic.domain.User;
 import net.sourceforge.subsonic.domain.UserSettings;
+import net.sourceforge.subsonic.domain.Version;
+import net.sourceforge.subsonic.service.AlbumCatalog;
+import net.sourceforge.subsonic.service.AlbumCatalogService;
 import net.sourceforge.subsonic.service.AudioScrobblerService;
 import net.sourceforge.subsonic.service.IJukeboxService;
+import net.sourceforge.subsonic.service.Id3GraphService;
 import net.sourceforge.subsonic.service.MediaFileService;
 import net.sourceforge.subsonic.service.MusicIndexService;
 import net.sourceforge.subsonic.service.PlayerService;
@@ -84,6 +91,7 @@ import net.sourceforge.subsonic.service.SecurityService;
 import net.sourceforge.subsonic.service.SettingsService;
 import net.sourceforge.subsonic.service.ShareService;
 import net.sourceforge.subsonic.service.StatusService;
+import net.sourceforge.subsonic.service.SuggestionService;
 import net.sourceforge.subsonic.service.TranscodingService;
 import net.sourceforge.subsonic.util.StringUtil;
 import net.sourceforge.subsonic.util.XMLBuilder;
@@ -130,6 +138,9 @@ public class RESTController extends MultiActionController {
     private PodcastService podcastService;
     private RatingService ratingService;
     private SearchService searchService;
+    private SuggestionService suggestionService;
+    private AlbumCatalogService albumCatalogService;
+    private Id3GraphService id3GraphService;
     private MediaFileDao mediaFileDao;
     private ArtistDao artistDao;
     private AlbumDao albumDao;
@@ -247,8 +258,14 @@ public class RESTController extends MultiActionController {
 
         builder.add("genres", false);
 
-        for (String genre : mediaFileDao.getGenres()) {
-            builder.add("genre", (Iterable<Attribute>) null, genre, true);
+        // Song counts were added in 1.11.0.  Older JSON clients expect plain genre strings.
+        boolean includeCounts = isClientVersionAtLeast(request, "1.11.0");
+        for (Map.Entry<String, Integer> entry : mediaFileService.getGenres().entrySet()) {
+            AttributeSet attributes = new AttributeSet();
+            if (includeCounts) {
+                attributes.add("songCount", entry.getValue());
+            }
+            builder.add("genre", attributes, entry.getKey(), true);
         }
         builder.endAll();
         response.getWriter().print(builder);
@@ -322,7 +339,7 @@ public class RESTController extends MultiActionController {
         }
 
         builder.add("artist", createAttributesForArtist(artist, username), false);
-        for (Album album : albumDao.getAlbumsForArtist(artist.getName())) {
+        for (Album album : id3GraphService.getAlbumsForArtist(artist)) {
             builder.add("album", createAttributesForAlbum(album, username), true);
         }
 
@@ -337,9 +354,9 @@ public class RESTController extends MultiActionController {
         attributes.add("name", album.getName());
         attributes.add("artist", album.getArtist());
         if (album.getArtist() != null) {
-            Artist artist = artistDao.getArtist(album.getArtist());
-            if (artist != null) {
-                attributes.add("artistId", artist.getId());
+            Integer artistId = id3GraphService.getArtistId(album.getArtist());
+            if (artistId != null) {
+                attributes.add("artistId", artistId);
             }
         }
         if (album.getCoverArtPath() != null) {
@@ -381,7 +398,7 @@ public class RESTController extends MultiActionController {
         }
 
         builder.add("album", createAttributesForAlbum(album, username), false);
-        for (MediaFile mediaFile : mediaFileDao.getSongsForAlbum(album.getArtist(), album.getName())) {
+        for (MediaFile mediaFile : id3GraphService.getSongsForAlbum(album)) {
             builder.add("song", createAttributesForMediaFile(player, mediaFile, username), true);
         }
 
@@ -562,6 +579,29 @@ public class RESTController extends MultiActionController {
         response.getWriter().print(builder);
     }
 
+    /**
+     * Returns the most popular artist, album and song names starting with the given query, for
+     * search-as-you-type.  Much cheaper than {@link #search3}, since the database is not accessed.
+     */
+    public void getSuggestions(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        request = wrapRequest(request);
+        XMLBuilder builder = createXMLBuilder(request, response, true);
+
+        String query = ServletRequestUtils.getRequiredStringParameter(request, "query");
+        int count = Math.max(0, Math.min(ServletRequestUtils.getIntParameter(request, "count", 10), 100));
+
+        builder.add("suggestions", false);
+        for (Suggestion suggestion : suggestionService.getSuggestions(query, count)) {
+            AttributeSet attributes = new AttributeSet();
+            attributes.add("type", suggestion.getType().name().toLowerCase());
+            attributes.add("id", suggestion.getId());
+            attributes.add("value", suggestion.getText());
+            builder.add("suggestion", attributes, true);
+        }
+        builder.endAll();
+        response.getWriter().print(builder);
+    }
+
     public void getPlaylists(HttpServletRequest request, HttpServletResponse response) throws Exception {
         request = wrapRequest(request);
         XMLBuilder builder = createXMLBuilder(request, response, true);
@@ -711,6 +751,11 @@ public class RESTController extends MultiActionController {
             return;
         }
 
+        List<MediaFile> songs = getMediaFiles(request, response, ServletRequestUtils.getIntParameters(request, "songId"));
+        if (songs == null) {
+            return;
+        }
+
         Playlist playlist;
         if (playlistId != null) {
             playlist = playlistService.getPlaylist(playlistId);
@@ -732,13 +777,6 @@ public class RESTController extends MultiActionController {
             playlistService.createPlaylist(playlist);
         }
 
-        List<MediaFile> songs = new ArrayList<MediaFile>();
-        for (int id : ServletRequestUtils.getIntParameters(request, "songId")) {
-            MediaFile song = mediaFileService.getMediaFile(id);
-            if (song != null) {
-                songs.add(song);
-            }
-        }
         playlistService.setFilesInPlaylist(playlist.getId(), songs);
 
         XMLBuilder builder = createXMLBuilder(request, response, true);
@@ -760,6 +798,10 @@ public class RESTController extends MultiActionController {
             error(request, response, ErrorCode.NOT_AUTHORIZED, "Permission denied for playlist " + id);
             return;
         }
+        List<MediaFile> songsToAdd = getMediaFiles(request, response, ServletRequestUtils.getIntParameters(request, "songIdToAdd"));
+        if (songsToAdd == null) {
+            return;
+        }
 
         String name = request.getParameter("name");
         if (name != null) {
@@ -799,12 +841,9 @@ public class RESTController extends MultiActionController {
             songs.remove(songIndexToRemove.intValue());
             songsChanged = true;
         }
-        for (int songToAdd : ServletRequestUtils.getIntParameters(request, "songIdToAdd")) {
-            MediaFile song = mediaFileService.getMediaFile(songToAdd);
-            if (song != null) {
-                songs.add(song);
-                songsChanged = true;
-            }
+        if (!songsToAdd.isEmpty()) {
+            songs.addAll(songsToAdd);
+            songsChanged = true;
         }
         if (songsChanged) {
             playlistService.setFilesInPlaylist(id, songs);
@@ -870,8 +909,11 @@ public class RESTController extends MultiActionController {
             throw new Exception("Invalid list type: " + type);
         }
 
+        List<String> paths = new ArrayList<String>(albums.size());
         for (HomeController.Album album : albums) {
-            MediaFile mediaFile = mediaFileService.getMediaFile(album.getPath());
+            paths.add(album.getPath());
+        }
+        for (MediaFile mediaFile : mediaFileService.getMediaFilesByPath(paths)) {
             AttributeSet attributes = createAttributesForMediaFile(player, mediaFile, username);
             builder.add("album", attributes, true);
         }
@@ -893,15 +935,15 @@ public class RESTController extends MultiActionController {
 
         List<Album> albums;
         if ("frequent".equals(type)) {
-            albums = albumDao.getMostFrequentlyPlayedAlbums(offset, size);
+            albums = albumCatalogService.getAlbumsId3(AlbumCatalog.Order.FREQUENT, offset, size);
         } else if ("recent".equals(type)) {
-            albums = albumDao.getMostRecentlyPlayedAlbums(offset, size);
+            albums = albumCatalogService.getAlbumsId3(AlbumCatalog.Order.RECENT, offset, size);
         } else if ("newest".equals(type)) {
-            albums = albumDao.getNewestAlbums(offset, size);
+            albums = albumCatalogService.getAlbumsId3(AlbumCatalog.Order.NEWEST, offset, size);
         } else if ("alphabeticalByArtist".equals(type)) {
-            albums = albumDao.getAlphabetialAlbums(offset, size, true);
+            albums = albumCatalogService.getAlbumsId3(AlbumCatalog.Order.ALPHABETICAL_BY_ARTIST, offset, size);
         } else if ("alphabeticalByName".equals(type)) {
-            albums = albumDao.getAlphabetialAlbums(offset, size, false);
+            albums = albumCatalogService.getAlbumsId3(AlbumCatalog.Order.ALPHABETICAL_BY_NAME, offset, size);
         } else if ("starred".equals(type)) {
             albums = albumDao.getStarredAlbums(offset, size, securityService.getCurrentUser(request).getUsername());
         } else if ("random".equals(type)) {
@@ -992,6 +1034,47 @@ public class RESTController extends MultiActionController {
         response.getWriter().print(builder);
     }
 
+    /**
+     * Returns the media files with the given IDs.  If any of them is not found or may not be read
+     * by the current user, an error is returned to the client instead.
+     *
+     * @return The media files, in the same order as the IDs, or <code>null</code> on error.
+     */
+    private List<MediaFile> getMediaFiles(HttpServletRequest request, HttpServletResponse response, int[] ids) throws Exception {
+        List<MediaFile> result = mediaFileService.getMediaFiles(toList(ids));
+        if (result.size() == ids.length) {
+            return result;
+        }
+
+        Set<Integer> found = new HashSet<Integer>();
+        for (MediaFile mediaFile : result) {
+            found.add(mediaFile.getId());
+        }
+        for (int id : ids) {
+            if (!found.contains(id)) {
+                if (mediaFileDao.getMediaFile(id) == null) {
+                    error(request, response, ErrorCode.NOT_FOUND, "Media file not found: " + id);
+                } else {
+                    error(request, response, ErrorCode.NOT_AUTHORIZED, "Access denied to media file " + id);
+                }
+                break;
+            }
+        }
+        return null;
+    }
+
+    private boolean isClientVersionAtLeast(HttpServletRequest request, String version) {
+        return new Version(request.getParameter("v")).compareTo(new Version(version)) >= 0;
+    }
+
+    private static List<Integer> toList(int[] ids) {
+        List<Integer> result = new ArrayList<Integer>(ids.length);
+        for (int id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+
     private AttributeSet createAttributesForMediaFile(Player player, MediaFile mediaFile, String username) {
         MediaFile parent = mediaFileService.getParentOf(mediaFile);
         AttributeSet attributes = new AttributeSet();
@@ -1028,15 +1111,15 @@ public class RESTController extends MultiActionController {
             attributes.add("path", getRelativePath(mediaFile));
 
             if (mediaFile.getArtist() != null && mediaFile.getAlbumName() != null) {
-                Album album = albumDao.getAlbum(mediaFile.getAlbumArtist(), mediaFile.getAlbumName());
-                if (album != null) {
-                    attributes.add("albumId", album.getId());
+                Integer albumId = id3GraphService.getAlbumId(mediaFile.getAlbumArtist(), mediaFile.getAlbumName());
+                if (albumId != null) {
+                    attributes.add("albumId", albumId);
                 }
             }
             if (mediaFile.getArtist() != null) {
-                Artist artist = artistDao.getArtist(mediaFile.getArtist());
-                if (artist != null) {
-                    attributes.add("artistId", artist.getId());
+                Integer artistId = id3GraphService.getArtistId(mediaFile.getArtist());
+                if (artistId != null) {
+                    attributes.add("artistId", artistId);
                 }
             }
             switch (mediaFile.getMediaType()) {
@@ -1418,9 +1501,22 @@ public class RESTController extends MultiActionController {
         XMLBuilder builder = createXMLBuilder(request, response, true);
 
         builder.add("bookmarks", false);
-        for (Bookmark bookmark : bookmarkDao.getBookmarks(username)) {
+        List<Bookmark> bookmarks = bookmarkDao.getBookmarks(username);
+        List<Integer> mediaFileIds = new ArrayList<Integer>(bookmarks.size());
+        for (Bookmark bookmark : bookmarks) {
+            mediaFileIds.add(bookmark.getMediaFileId());
+        }
+        Map<Integer, MediaFile> mediaFiles = new HashMap<Integer, MediaFile>();
+        for (MediaFile mediaFile : mediaFileService.getMediaFiles(mediaFileIds)) {
+            mediaFiles.put(mediaFile.getId(), mediaFile);
+        }
+
+        for (Bookmark bookmark : bookmarks) {
+            MediaFile mediaFile = mediaFiles.get(bookmark.getMediaFileId());
+            if (mediaFile == null) {
+                continue;
+            }
             builder.add("bookmark", createAttributesForBookmark(bookmark), false);
-            MediaFile mediaFile = mediaFileService.getMediaFile(bookmark.getMediaFileId());
             AttributeSet attributes = createAttributesForMediaFile(player, mediaFile, username);
             builder.add("entry", attributes, true);
             builder.end();
@@ -1494,13 +1590,13 @@ public class RESTController extends MultiActionController {
             return;
         }
 
-        XMLBuilder builder = createXMLBuilder(request, response, true);
-
-        List<MediaFile> files = new ArrayList<MediaFile>();
-        for (int id : ServletRequestUtils.getRequiredIntParameters(request, "id")) {
-            files.add(mediaFileService.getMediaFile(id));
+        List<MediaFile> files = getMediaFiles(request, response, ServletRequestUtils.getRequiredIntParameters(request, "id"));
+        if (files == null) {
+            return;
         }
 
+        XMLBuilder builder = createXMLBuilder(request, response, true);
+
         // TODO: Update api.jsp
 
         Share share = shareService.createShare(request, files);
@@ -2016,6 +2112,18 @@ public class RESTController extends MultiActionController {
         this.searchService = searchService;
     }
 
+    public void setSuggestionService(SuggestionService suggestionService) {
+        this.suggestionService = suggestionService;
+    }
+
+    public void setAlbumCatalogService(AlbumCatalogService albumCatalogService) {
+        this.albumCatalogService = albumCatalogService;
+    }
+
+    public void setId3GraphService(Id3GraphService id3GraphService) {
+        this.id3GraphService = id3GraphService;
+    }
+
     public void setShareService(ShareService shareService) {
         this.shareService = shareService;
     }
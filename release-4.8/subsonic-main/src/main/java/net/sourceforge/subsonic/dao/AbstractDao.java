@@ -18,10 +18,18 @@
  */
 package net.sourceforge.subsonic.dao;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.jdbc.core.*;
+import org.springframework.jdbc.support.JdbcUtils;
 
 import net.sourceforge.subsonic.Logger;
 
@@ -32,8 +40,14 @@ import net.sourceforge.subsonic.Logger;
  */
 public class AbstractDao {
     private static final Logger LOG = Logger.getLogger(AbstractDao.class);
-    
+
+    /**
+     * Default number of statements per JDBC batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
     private DaoHelper daoHelper;
+    private int batchSize = DEFAULT_BATCH_SIZE;
 
     /**
      * Returns a JDBC template for performing database operations.
@@ -43,8 +57,11 @@ public class AbstractDao {
         return daoHelper.getJdbcTemplate();
     }
 
-    protected String questionMarks(String columns) {
-        int count = columns.split(", ").length;
+    protected static String questionMarks(String columns) {
+        return questionMarks(columns.split(", ").length);
+    }
+
+    protected static String questionMarks(int count) {
         StringBuilder builder = new StringBuilder();
         for (int i = 0; i < count; i++) {
             builder.append('?');
@@ -73,6 +90,94 @@ public class AbstractDao {
         return result;
     }
 
+    /**
+     * Executes the given statement once for each of the given parameter lists, using JDBC batching.
+     * The statements are split into batches of at most {@link #getBatchSize} statements, and each
+     * batch is executed in a transaction of its own.
+     *
+     * @param sql      The SQL statement.
+     * @param argsList List of parameters, one for each execution of the statement.
+     * @return The update counts, one for each execution of the statement.
+     */
+    protected int[] batchUpdate(final String sql, List<Object[]> argsList) {
+        int[] result = new int[argsList.size()];
+        for (int from = 0; from < argsList.size(); from += batchSize) {
+            final List<Object[]> batch = argsList.subList(from, Math.min(from + batchSize, argsList.size()));
+            long t = System.nanoTime();
+            int[] counts = (int[]) getJdbcTemplate().execute(new ConnectionCallback() {
+                public Object doInConnection(Connection connection) throws SQLException {
+                    return executeBatch(connection, sql, batch);
+                }
+            });
+            System.arraycopy(counts, 0, result, from, counts.length);
+            log(sql, t);
+        }
+        return result;
+    }
+
+    private int[] executeBatch(Connection connection, String sql, List<Object[]> batch) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        PreparedStatement statement = null;
+        try {
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement(sql);
+            for (Object[] args : batch) {
+                for (int i = 0; i < args.length; i++) {
+                    StatementCreatorUtils.setParameterValue(statement, i + 1, SqlTypeValue.TYPE_UNKNOWN, args[i]);
+                }
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            connection.commit();
+            return counts;
+        } catch (SQLException x) {
+            connection.rollback();
+            throw x;
+        } finally {
+            JdbcUtils.closeStatement(statement);
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Executes a query with an "in" clause for the given values.  The SQL must end with "in", and
+     * the parameter list is appended to it.  Large value collections are split into several
+     * queries of at most {@link #getBatchSize} values each.
+     *
+     * @param sql       The SQL query, ending with "in".
+     * @param rowMapper The row mapper.
+     * @param values    The values of the "in" clause.
+     * @return The concatenated query results.
+     */
+    protected <T> List<T> queryIn(String sql, RowMapper rowMapper, Collection<?> values) {
+        List<T> result = new ArrayList<T>();
+        Iterator<?> iterator = values.iterator();
+        while (iterator.hasNext()) {
+            List<Object> chunk = new ArrayList<Object>();
+            while (iterator.hasNext() && chunk.size() < batchSize) {
+                chunk.add(iterator.next());
+            }
+            List<T> list = query(sql + " (" + questionMarks(chunk.size()) + ")", rowMapper, chunk.toArray());
+            result.addAll(list);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the values for the given keys, in the order of the keys.  Keys without a value are
+     * skipped.  Used to restore the caller's order after a {@link #queryIn} query.
+     */
+    protected static <K, V> List<V> inOrder(List<K> keys, Map<K, V> values) {
+        List<V> result = new ArrayList<V>(keys.size());
+        for (K key : keys) {
+            V value = values.get(key);
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
     private void log(String sql, long startTimeNano) {
 //        long micros = (System.nanoTime() - startTimeNano) / 1000L;
 //        LOG.debug(micros + "  " + sql);
@@ -92,6 +197,13 @@ public class AbstractDao {
         return result;
     }
 
+    protected List<Integer> queryForInts(String sql, Object... args) {
+        long t = System.nanoTime();
+        List<Integer> result = getJdbcTemplate().queryForList(sql, args, Integer.class);
+        log(sql, t);
+        return result;
+    }
+
     protected Integer queryForInt(String sql, Integer defaultValue, Object... args) {
         long t = System.nanoTime();
         List<Integer> list = getJdbcTemplate().queryForList(sql, args, Integer.class);
@@ -124,4 +236,18 @@ public class AbstractDao {
     public void setDaoHelper(DaoHelper daoHelper) {
         this.daoHelper = daoHelper;
     }
+
+    /**
+     * Returns the maximum number of statements in a JDBC batch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of statements in a JDBC batch.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
 }
@@ -20,15 +20,23 @@ package net.sourceforge.subsonic.dao;
 
 import net.sourceforge.subsonic.Logger;
 import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.AlbumSummary;
+import net.sourceforge.subsonic.domain.Id3Node;
 import net.sourceforge.subsonic.domain.MediaFile;
+import net.sourceforge.subsonic.domain.Suggestion;
 import org.apache.commons.lang.ObjectUtils;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.ParameterizedRowMapper;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides database services for albums.
@@ -41,7 +49,21 @@ public class AlbumDao extends AbstractDao {
     private static final String COLUMNS = "id, path, name, artist, song_count, duration_seconds, cover_art_path, " +
             "play_count, last_played, comment, created, last_scanned, present";
 
+    private static final String UPDATE_SQL = "update album set " +
+            "song_count=?," +
+            "duration_seconds=?," +
+            "cover_art_path=?," +
+            "play_count=?," +
+            "last_played=?," +
+            "comment=?," +
+            "created=?," +
+            "last_scanned=?," +
+            "present=? " +
+            "where artist=? and name=?";
+    private static final String INSERT_SQL = "insert into album (" + COLUMNS + ") values (" + questionMarks(COLUMNS) + ")";
+
     private final RowMapper rowMapper = new AlbumMapper();
+    private final RowMapper albumSummaryRowMapper = new MediaFileDao.AlbumSummaryMapper();
 
     /**
      * Returns the album with the given artist and album name.
@@ -63,7 +85,18 @@ public class AlbumDao extends AbstractDao {
     public Album getAlbumForFile(MediaFile file) {
 
         // First, get all albums with the correct album name (irrespective of artist).
-        List<Album> candidates = query("select " + COLUMNS + " from album where name=?", rowMapper, file.getAlbumName());
+        return getAlbumForFile(file, getAlbumsByName(file.getAlbumName()));
+    }
+
+    /**
+     * Returns the album that the given file (most likely) is part of, choosing among the given
+     * albums with the same name as the file's album.
+     *
+     * @param file       The media file.
+     * @param candidates All albums with the correct album name, see {@link #getAlbumsByName}.
+     * @return The album or null.
+     */
+    public Album getAlbumForFile(MediaFile file, List<Album> candidates) {
         if (candidates.isEmpty()) {
             return null;
         }
@@ -86,10 +119,35 @@ public class AlbumDao extends AbstractDao {
         return null;
     }
 
+    /**
+     * Returns all albums with the given name, irrespective of artist.
+     *
+     * @param albumName The album name.
+     * @return All albums with the given name.
+     */
+    public List<Album> getAlbumsByName(String albumName) {
+        return query("select " + COLUMNS + " from album where name=?", rowMapper, albumName);
+    }
+
     public Album getAlbum(int id) {
         return queryOne("select " + COLUMNS + " from album where id=?", rowMapper, id);
     }
 
+    /**
+     * Returns the albums with the given IDs, using a single query per batch.
+     *
+     * @param ids The album IDs.
+     * @return The albums, in the same order as the IDs.  IDs that are not found are skipped.
+     */
+    public List<Album> getAlbums(List<Integer> ids) {
+        List<Album> albums = queryIn("select " + COLUMNS + " from album where id in", rowMapper, new LinkedHashSet<Integer>(ids));
+        Map<Integer, Album> byId = new HashMap<Integer, Album>();
+        for (Album album : albums) {
+            byId.put(album.getId(), album);
+        }
+        return inOrder(ids, byId);
+    }
+
     public List<Album> getAlbumsForArtist(String artist) {
         return query("select " + COLUMNS + " from album where artist=? and present order by name", rowMapper, artist);
     }
@@ -100,32 +158,78 @@ public class AlbumDao extends AbstractDao {
      * @param album The album to create/update.
      */
     public synchronized void createOrUpdateAlbum(Album album) {
-        String sql = "update album set " +
-                "song_count=?," +
-                "duration_seconds=?," +
-                "cover_art_path=?," +
-                "play_count=?," +
-                "last_played=?," +
-                "comment=?," +
-                "created=?," +
-                "last_scanned=?," +
-                "present=? " +
-                "where artist=? and name=?";
-
-        int n = update(sql, album.getSongCount(), album.getDurationSeconds(), album.getCoverArtPath(), album.getPlayCount(), album.getLastPlayed(),
-                album.getComment(), album.getCreated(), album.getLastScanned(), album.isPresent(), album.getArtist(), album.getName());
+        int n = update(UPDATE_SQL, getUpdateArgs(album));
 
         if (n == 0) {
-
-            update("insert into album (" + COLUMNS + ") values (" + questionMarks(COLUMNS) + ")", null, album.getPath(), album.getName(), album.getArtist(),
-                    album.getSongCount(), album.getDurationSeconds(), album.getCoverArtPath(), album.getPlayCount(), album.getLastPlayed(),
-                    album.getComment(), album.getCreated(), album.getLastScanned(), album.isPresent());
+            update(INSERT_SQL, getInsertArgs(album));
         }
 
         int id = queryForInt("select id from album where artist=? and name=?", null, album.getArtist(), album.getName());
         album.setId(id);
     }
 
+    /**
+     * Creates or updates the given albums, using JDBC batching.  This is equivalent to, but much
+     * faster than, calling {@link #createOrUpdateAlbum} for each album.  The albums must be distinct
+     * with respect to artist and name.
+     *
+     * @param albums The albums to create/update.
+     */
+    public synchronized void createOrUpdateAlbums(Collection<Album> albums) {
+        List<String> names = new ArrayList<String>();
+        for (Album album : albums) {
+            names.add(album.getName());
+        }
+        Map<String, Integer> ids = getIds(names);
+
+        List<Object[]> updates = new ArrayList<Object[]>();
+        List<Object[]> inserts = new ArrayList<Object[]>();
+        for (Album album : albums) {
+            if (ids.containsKey(getKey(album))) {
+                updates.add(getUpdateArgs(album));
+            } else {
+                inserts.add(getInsertArgs(album));
+            }
+        }
+
+        batchUpdate(UPDATE_SQL, updates);
+        if (!inserts.isEmpty()) {
+            batchUpdate(INSERT_SQL, inserts);
+            ids = getIds(names);
+        }
+
+        for (Album album : albums) {
+            Integer id = ids.get(getKey(album));
+            if (id != null) {
+                album.setId(id);
+            }
+        }
+    }
+
+    private Map<String, Integer> getIds(Collection<String> names) {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        List<Album> albums = queryIn("select " + COLUMNS + " from album where name in", rowMapper, names);
+        for (Album album : albums) {
+            result.put(getKey(album), album.getId());
+        }
+        return result;
+    }
+
+    private String getKey(Album album) {
+        return album.getArtist() + '\0' + album.getName();
+    }
+
+    private Object[] getUpdateArgs(Album album) {
+        return new Object[]{album.getSongCount(), album.getDurationSeconds(), album.getCoverArtPath(), album.getPlayCount(), album.getLastPlayed(),
+                album.getComment(), album.getCreated(), album.getLastScanned(), album.isPresent(), album.getArtist(), album.getName()};
+    }
+
+    private Object[] getInsertArgs(Album album) {
+        return new Object[]{null, album.getPath(), album.getName(), album.getArtist(),
+                album.getSongCount(), album.getDurationSeconds(), album.getCoverArtPath(), album.getPlayCount(), album.getLastPlayed(),
+                album.getComment(), album.getCreated(), album.getLastScanned(), album.isPresent()};
+    }
+
     /**
      * Returns albums in alphabetical order.
      *
@@ -175,6 +279,14 @@ public class AlbumDao extends AbstractDao {
                 rowMapper, count, offset);
     }
 
+    /**
+     * Returns the sort columns of all present albums, for use by
+     * {@link net.sourceforge.subsonic.service.AlbumCatalog}.
+     */
+    public List<AlbumSummary> getAlbumSummaries() {
+        return query("select id, name, artist, created, play_count, last_played from album where present", albumSummaryRowMapper);
+    }
+
     /**
      * Returns the most recently starred albums.
      *
@@ -189,6 +301,39 @@ public class AlbumDao extends AbstractDao {
                 rowMapper, username, count, offset);
     }
 
+    /**
+     * Returns the IDs of the present albums that were not seen by the scan with the given
+     * generation, i.e., those that {@link #markNonPresent} will mark as non-present.
+     */
+    public List<Integer> getIdsNotScanned(Date lastScanned) {
+        return queryForInts("select id from album where last_scanned != ? and present", lastScanned);
+    }
+
+    /**
+     * Returns the names of all present albums as search suggestions, weighted by play count.
+     */
+    public List<Suggestion> getAlbumSuggestions() {
+        return query("select id, name, play_count from album where present",
+                new ParameterizedRowMapper<Suggestion>() {
+                    public Suggestion mapRow(ResultSet rs, int rowNum) throws SQLException {
+                        return new Suggestion(Suggestion.Type.ALBUM, rs.getInt(1), rs.getString(2), rs.getLong(3));
+                    }
+                });
+    }
+
+    /**
+     * Returns the IDs, artists and names of all albums, ordered by name, for use by
+     * {@link net.sourceforge.subsonic.service.Id3Graph}.
+     */
+    public List<Id3Node> getId3Nodes() {
+        return query("select id, artist, name, present from album order by name",
+                new ParameterizedRowMapper<Id3Node>() {
+                    public Id3Node mapRow(ResultSet rs, int rowNum) throws SQLException {
+                        return new Id3Node(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getBoolean(4));
+                    }
+                });
+    }
+
     public void markNonPresent(Date lastScanned) {
         int minId = queryForInt("select top 1 id from album where last_scanned != ? and present", 0, lastScanned);
         int maxId = queryForInt("select max(id) from album where last_scanned != ? and present", 0, lastScanned);
@@ -20,13 +20,20 @@ package net.sourceforge.subsonic.dao;
 
 import net.sourceforge.subsonic.Logger;
 import net.sourceforge.subsonic.domain.Artist;
+import net.sourceforge.subsonic.domain.Id3Node;
+import net.sourceforge.subsonic.domain.Suggestion;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.ParameterizedRowMapper;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides database services for artists.
@@ -38,6 +45,14 @@ public class ArtistDao extends AbstractDao {
     private static final Logger LOG = Logger.getLogger(ArtistDao.class);
     private static final String COLUMNS = "id, name, cover_art_path, album_count, last_scanned, present";
 
+    private static final String UPDATE_SQL = "update artist set " +
+            "cover_art_path=?," +
+            "album_count=?," +
+            "last_scanned=?," +
+            "present=? " +
+            "where name=?";
+    private static final String INSERT_SQL = "insert into artist (" + COLUMNS + ") values (" + questionMarks(COLUMNS) + ")";
+
     private final RowMapper rowMapper = new ArtistMapper();
 
     /**
@@ -60,31 +75,92 @@ public class ArtistDao extends AbstractDao {
         return queryOne("select " + COLUMNS + " from artist where id=?", rowMapper, id);
     }
 
+    /**
+     * Returns the artists with the given IDs, using a single query per batch.
+     *
+     * @param ids The artist IDs.
+     * @return The artists, in the same order as the IDs.  IDs that are not found are skipped.
+     */
+    public List<Artist> getArtists(List<Integer> ids) {
+        List<Artist> artists = queryIn("select " + COLUMNS + " from artist where id in", rowMapper, new LinkedHashSet<Integer>(ids));
+        Map<Integer, Artist> byId = new HashMap<Integer, Artist>();
+        for (Artist artist : artists) {
+            byId.put(artist.getId(), artist);
+        }
+        return inOrder(ids, byId);
+    }
+
     /**
      * Creates or updates an artist.
      *
      * @param artist The artist to create/update.
      */
     public synchronized void createOrUpdateArtist(Artist artist) {
-        String sql = "update artist set " +
-                "cover_art_path=?," +
-                "album_count=?," +
-                "last_scanned=?," +
-                "present=? " +
-                "where name=?";
-
-        int n = update(sql, artist.getCoverArtPath(), artist.getAlbumCount(), artist.getLastScanned(), artist.isPresent(), artist.getName());
+        int n = update(UPDATE_SQL, getUpdateArgs(artist));
 
         if (n == 0) {
-
-            update("insert into artist (" + COLUMNS + ") values (" + questionMarks(COLUMNS) + ")", null,
-                    artist.getName(), artist.getCoverArtPath(), artist.getAlbumCount(), artist.getLastScanned(), artist.isPresent());
+            update(INSERT_SQL, getInsertArgs(artist));
         }
 
         int id = queryForInt("select id from artist where name=?", null, artist.getName());
         artist.setId(id);
     }
 
+    /**
+     * Creates or updates the given artists, using JDBC batching.  This is equivalent to, but much
+     * faster than, calling {@link #createOrUpdateArtist} for each artist.  The artists must have
+     * distinct names.
+     *
+     * @param artists The artists to create/update.
+     */
+    public synchronized void createOrUpdateArtists(Collection<Artist> artists) {
+        List<String> names = new ArrayList<String>();
+        for (Artist artist : artists) {
+            names.add(artist.getName());
+        }
+        Map<String, Integer> ids = getIds(names);
+
+        List<Object[]> updates = new ArrayList<Object[]>();
+        List<Object[]> inserts = new ArrayList<Object[]>();
+        for (Artist artist : artists) {
+            if (ids.containsKey(artist.getName())) {
+                updates.add(getUpdateArgs(artist));
+            } else {
+                inserts.add(getInsertArgs(artist));
+            }
+        }
+
+        batchUpdate(UPDATE_SQL, updates);
+        if (!inserts.isEmpty()) {
+            batchUpdate(INSERT_SQL, inserts);
+            ids = getIds(names);
+        }
+
+        for (Artist artist : artists) {
+            Integer id = ids.get(artist.getName());
+            if (id != null) {
+                artist.setId(id);
+            }
+        }
+    }
+
+    private Map<String, Integer> getIds(Collection<String> names) {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        List<Artist> artists = queryIn("select " + COLUMNS + " from artist where name in", rowMapper, names);
+        for (Artist artist : artists) {
+            result.put(artist.getName(), artist.getId());
+        }
+        return result;
+    }
+
+    private Object[] getUpdateArgs(Artist artist) {
+        return new Object[]{artist.getCoverArtPath(), artist.getAlbumCount(), artist.getLastScanned(), artist.isPresent(), artist.getName()};
+    }
+
+    private Object[] getInsertArgs(Artist artist) {
+        return new Object[]{null, artist.getName(), artist.getCoverArtPath(), artist.getAlbumCount(), artist.getLastScanned(), artist.isPresent()};
+    }
+
     /**
      * Returns artists in alphabetical order.
      *
@@ -114,6 +190,66 @@ public class ArtistDao extends AbstractDao {
         update("update artist set present=?, last_scanned=? where name=?", true, lastScanned, artistName);
     }
 
+    /**
+     * Marks the given artists as present, using JDBC batching.
+     *
+     * @param artistNames The artist names.
+     * @param lastScanned The scan generation.
+     */
+    public void markPresent(Collection<String> artistNames, Date lastScanned) {
+        List<Object[]> args = new ArrayList<Object[]>();
+        for (String artistName : artistNames) {
+            args.add(new Object[]{true, lastScanned, artistName});
+        }
+        batchUpdate("update artist set present=?, last_scanned=? where name=?", args);
+    }
+
+    /**
+     * Marks the album artists of all present files in the given directory as scanned.
+     *
+     * @param parentPath  The directory path.
+     * @param lastScanned The scan generation.
+     */
+    public void markPresentForChildrenOf(String parentPath, Date lastScanned) {
+        update("update artist set present=?, last_scanned=? where name in " +
+                "(select album_artist from media_file where parent_path=? and present)", true, lastScanned, parentPath);
+    }
+
+    /**
+     * Returns the IDs of the present artists that were not seen by the scan with the given
+     * generation, i.e., those that {@link #markNonPresent} will mark as non-present.
+     */
+    public List<Integer> getIdsNotScanned(Date lastScanned) {
+        return queryForInts("select id from artist where last_scanned != ? and present", lastScanned);
+    }
+
+    /**
+     * Returns the names of all present artists as search suggestions, weighted by the total play
+     * count of their albums.
+     */
+    public List<Suggestion> getArtistSuggestions() {
+        return query("select artist.id, artist.name, sum(album.play_count) from artist " +
+                "left outer join album on album.artist = artist.name and album.present " +
+                "where artist.present group by artist.id, artist.name",
+                new ParameterizedRowMapper<Suggestion>() {
+                    public Suggestion mapRow(ResultSet rs, int rowNum) throws SQLException {
+                        return new Suggestion(Suggestion.Type.ARTIST, rs.getInt(1), rs.getString(2), rs.getLong(3));
+                    }
+                });
+    }
+
+    /**
+     * Returns the IDs and names of all artists, for use by {@link net.sourceforge.subsonic.service.Id3Graph}.
+     */
+    public List<Id3Node> getId3Nodes() {
+        return query("select id, name, present from artist",
+                new ParameterizedRowMapper<Id3Node>() {
+                    public Id3Node mapRow(ResultSet rs, int rowNum) throws SQLException {
+                        return new Id3Node(rs.getInt(1), rs.getString(2), null, rs.getBoolean(3));
+                    }
+                });
+    }
+
     public void markNonPresent(Date lastScanned) {
         int minId = queryForInt("select top 1 id from artist where last_scanned != ? and present", 0, lastScanned);
         int maxId = queryForInt("select max(id) from artist where last_scanned != ? and present", 0, lastScanned);
@@ -39,6 +39,7 @@ import net.sourceforge.subsonic.dao.schema.Schema43;
 import net.sourceforge.subsonic.dao.schema.Schema45;
 import net.sourceforge.subsonic.dao.schema.Schema46;
 import net.sourceforge.subsonic.dao.schema.Schema47;
+import net.sourceforge.subsonic.dao.schema.Schema48;
 import net.sourceforge.subsonic.service.SettingsService;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
@@ -58,7 +59,7 @@ public class DaoHelper {
     private Schema[] schemas = {new Schema25(), new Schema26(), new Schema27(), new Schema28(), new Schema29(),
                                 new Schema30(), new Schema31(), new Schema32(), new Schema33(), new Schema34(),
                                 new Schema35(), new Schema36(), new Schema37(), new Schema38(), new Schema40(),
-                                new Schema43(), new Schema45(), new Schema46(), new Schema47()};
+                                new Schema43(), new Schema45(), new Schema46(), new Schema47(), new Schema48()};
     private DataSource dataSource;
     private static boolean shutdownHookAdded;
 
@@ -20,20 +20,33 @@ package net.sourceforge.subsonic.dao;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.ParameterizedRowMapper;
 
 import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.cache.MediaFileCache;
+import net.sourceforge.subsonic.domain.AlbumSummary;
+import net.sourceforge.subsonic.domain.Id3Node;
 import net.sourceforge.subsonic.domain.MediaFile;
+import net.sourceforge.subsonic.domain.Suggestion;
 
 import static net.sourceforge.subsonic.domain.MediaFile.MediaType;
 import static net.sourceforge.subsonic.domain.MediaFile.MediaType.*;
 
 /**
  * Provides database services for media files.
+ * <p/>
+ * All updates remove the affected media files from the {@link MediaFileCache}, if any, so that
+ * the cache never serves media files which are older than the database.
  *
  * @author Sindre Mehus
  */
@@ -44,10 +57,43 @@ public class MediaFileDao extends AbstractDao {
             "track_number, year, genre, bit_rate, variable_bit_rate, duration_seconds, file_size, width, height, cover_art_path, " +
             "parent_path, play_count, last_played, comment, created, changed, last_scanned, children_last_updated, present, version";
 
+    private static final String UPDATE_SQL = "update media_file set " +
+            "folder=?," +
+            "type=?," +
+            "format=?," +
+            "title=?," +
+            "album=?," +
+            "artist=?," +
+            "album_artist=?," +
+            "disc_number=?," +
+            "track_number=?," +
+            "year=?," +
+            "genre=?," +
+            "bit_rate=?," +
+            "variable_bit_rate=?," +
+            "duration_seconds=?," +
+            "file_size=?," +
+            "width=?," +
+            "height=?," +
+            "cover_art_path=?," +
+            "parent_path=?," +
+            "play_count=?," +
+            "last_played=?," +
+            "comment=?," +
+            "changed=?," +
+            "last_scanned=?," +
+            "children_last_updated=?," +
+            "present=?, " +
+            "version=? " +
+            "where path=?";
+    private static final String INSERT_SQL = "insert into media_file (" + COLUMNS + ") values (" + questionMarks(COLUMNS) + ")";
+
     public static final int VERSION = 2;
 
     private final RowMapper rowMapper = new MediaFileMapper();
     private final RowMapper musicFileInfoRowMapper = new MusicFileInfoMapper();
+    private final RowMapper albumSummaryRowMapper = new AlbumSummaryMapper();
+    private MediaFileCache mediaFileCache;
 
     /**
      * Returns the media file for the given path.
@@ -69,6 +115,36 @@ public class MediaFileDao extends AbstractDao {
         return queryOne("select " + COLUMNS + " from media_file where id=?", rowMapper, id);
     }
 
+    /**
+     * Returns the media files with the given IDs, using a single query per batch.
+     *
+     * @param ids The media file IDs.
+     * @return The media files, in the same order as the IDs.  IDs that are not found are skipped.
+     */
+    public List<MediaFile> getMediaFiles(List<Integer> ids) {
+        List<MediaFile> mediaFiles = queryIn("select " + COLUMNS + " from media_file where id in", rowMapper, new LinkedHashSet<Integer>(ids));
+        Map<Integer, MediaFile> byId = new HashMap<Integer, MediaFile>();
+        for (MediaFile mediaFile : mediaFiles) {
+            byId.put(mediaFile.getId(), mediaFile);
+        }
+        return inOrder(ids, byId);
+    }
+
+    /**
+     * Returns the media files with the given paths, using a single query per batch.
+     *
+     * @param paths The paths.
+     * @return The media files, in the same order as the paths.  Paths that are not found are skipped.
+     */
+    public List<MediaFile> getMediaFilesByPath(List<String> paths) {
+        List<MediaFile> mediaFiles = queryIn("select " + COLUMNS + " from media_file where path in", rowMapper, new LinkedHashSet<String>(paths));
+        Map<String, MediaFile> byPath = new HashMap<String, MediaFile>();
+        for (MediaFile mediaFile : mediaFiles) {
+            byPath.put(mediaFile.getPath(), mediaFile);
+        }
+        return inOrder(paths, byPath);
+    }
+
     /**
      * Returns the media file that are direct children of the given path.
      *
@@ -91,6 +167,20 @@ public class MediaFileDao extends AbstractDao {
                 artist, album, MUSIC.name(), AUDIOBOOK.name(), PODCAST.name());
     }
 
+    /**
+     * Returns the IDs, album artists and albums of all present songs, ordered by track number,
+     * for use by {@link net.sourceforge.subsonic.service.Id3Graph}.
+     */
+    public List<Id3Node> getId3Nodes() {
+        return query("select id, album_artist, album from media_file where album_artist is not null and album is not null " +
+                "and present and type in (?,?,?) order by track_number",
+                new ParameterizedRowMapper<Id3Node>() {
+                    public Id3Node mapRow(ResultSet rs, int rowNum) throws SQLException {
+                        return new Id3Node(rs.getInt(1), rs.getString(2), rs.getString(3), true);
+                    }
+                }, MUSIC.name(), AUDIOBOOK.name(), PODCAST.name());
+    }
+
     public List<MediaFile> getVideos(int size, int offset) {
         return query("select " + COLUMNS + " from media_file where type=? and present order by title limit ? offset ?", rowMapper,
                 VIDEO.name(), size, offset);
@@ -102,64 +192,104 @@ public class MediaFileDao extends AbstractDao {
      * @param file The media file to create/update.
      */
     public synchronized void createOrUpdateMediaFile(MediaFile file) {
-        String sql = "update media_file set " +
-                "folder=?," +
-                "type=?," +
-                "format=?," +
-                "title=?," +
-                "album=?," +
-                "artist=?," +
-                "album_artist=?," +
-                "disc_number=?," +
-                "track_number=?," +
-                "year=?," +
-                "genre=?," +
-                "bit_rate=?," +
-                "variable_bit_rate=?," +
-                "duration_seconds=?," +
-                "file_size=?," +
-                "width=?," +
-                "height=?," +
-                "cover_art_path=?," +
-                "parent_path=?," +
-                "play_count=?," +
-                "last_played=?," +
-                "comment=?," +
-                "changed=?," +
-                "last_scanned=?," +
-                "children_last_updated=?," +
-                "present=?, " +
-                "version=? " +
-                "where path=?";
-
-        int n = update(sql,
-                file.getFolder(), file.getMediaType().name(), file.getFormat(), file.getTitle(), file.getAlbumName(), file.getArtist(),
-                file.getAlbumArtist(), file.getDiscNumber(), file.getTrackNumber(), file.getYear(), file.getGenre(), file.getBitRate(),
-                file.isVariableBitRate(), file.getDurationSeconds(), file.getFileSize(), file.getWidth(), file.getHeight(),
-                file.getCoverArtPath(), file.getParentPath(), file.getPlayCount(), file.getLastPlayed(), file.getComment(),
-                file.getChanged(), file.getLastScanned(), file.getChildrenLastUpdated(), file.isPresent(), VERSION, file.getPath());
+        int n = update(UPDATE_SQL, getUpdateArgs(file));
 
         if (n == 0) {
+            copyMusicFileInfo(file);
+            update(INSERT_SQL, getInsertArgs(file));
+        }
+
+        int id = queryForInt("select id from media_file where path=?", null, file.getPath());
+        file.setId(id);
+        file.setVersion(VERSION);
+        evict(file.getPath());
+    }
 
-            // Copy values from obsolete table music_file_info.
-            MediaFile musicFileInfo = getMusicFileInfo(file.getPath());
-            if (musicFileInfo != null) {
-                file.setComment(musicFileInfo.getComment());
-                file.setLastPlayed(musicFileInfo.getLastPlayed());
-                file.setPlayCount(musicFileInfo.getPlayCount());
+    /**
+     * Creates or updates the given media files, using JDBC batching.  This is equivalent to, but much
+     * faster than, calling {@link #createOrUpdateMediaFile} for each file.
+     *
+     * @param files The media files to create/update.
+     */
+    public synchronized void createOrUpdateMediaFiles(Collection<MediaFile> files) {
+        Map<String, MediaFile> filesByPath = new LinkedHashMap<String, MediaFile>();
+        for (MediaFile file : files) {
+            filesByPath.put(file.getPath(), file);
+        }
+        Map<String, Integer> ids = getIds(filesByPath.keySet());
+
+        List<Object[]> updates = new ArrayList<Object[]>();
+        List<Object[]> inserts = new ArrayList<Object[]>();
+        List<String> insertedPaths = new ArrayList<String>();
+        for (MediaFile file : filesByPath.values()) {
+            if (ids.containsKey(file.getPath())) {
+                updates.add(getUpdateArgs(file));
+            } else {
+                copyMusicFileInfo(file);
+                inserts.add(getInsertArgs(file));
+                insertedPaths.add(file.getPath());
             }
+        }
 
-            update("insert into media_file (" + COLUMNS + ") values (" + questionMarks(COLUMNS) + ")", null,
-                    file.getPath(), file.getFolder(), file.getMediaType().name(), file.getFormat(), file.getTitle(), file.getAlbumName(), file.getArtist(),
-                    file.getAlbumArtist(), file.getDiscNumber(), file.getTrackNumber(), file.getYear(), file.getGenre(), file.getBitRate(),
-                    file.isVariableBitRate(), file.getDurationSeconds(), file.getFileSize(), file.getWidth(), file.getHeight(),
-                    file.getCoverArtPath(), file.getParentPath(), file.getPlayCount(), file.getLastPlayed(), file.getComment(),
-                    file.getCreated(), file.getChanged(), file.getLastScanned(),
-                    file.getChildrenLastUpdated(), file.isPresent(), VERSION);
+        batchUpdate(UPDATE_SQL, updates);
+        if (!inserts.isEmpty()) {
+            batchUpdate(INSERT_SQL, inserts);
+            ids.putAll(getIds(insertedPaths));
         }
 
-        int id = queryForInt("select id from media_file where path=?", null, file.getPath());
-        file.setId(id);
+        for (MediaFile file : files) {
+            Integer id = ids.get(file.getPath());
+            if (id != null) {
+                file.setId(id);
+            }
+            file.setVersion(VERSION);
+            evict(file.getPath());
+        }
+    }
+
+    private Map<String, Integer> getIds(Collection<String> paths) {
+        List<Object[]> rows = queryIn("select id, path from media_file where path in", new ParameterizedRowMapper<Object[]>() {
+            public Object[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return new Object[]{rs.getInt(1), rs.getString(2)};
+            }
+        }, paths);
+
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (Object[] row : rows) {
+            result.put((String) row[1], (Integer) row[0]);
+        }
+        return result;
+    }
+
+    private Object[] getUpdateArgs(MediaFile file) {
+        return new Object[]{
+                file.getFolder(), file.getMediaType().name(), file.getFormat(), file.getTitle(), file.getAlbumName(), file.getArtist(),
+                file.getAlbumArtist(), file.getDiscNumber(), file.getTrackNumber(), file.getYear(), file.getGenre(), file.getBitRate(),
+                file.isVariableBitRate(), file.getDurationSeconds(), file.getFileSize(), file.getWidth(), file.getHeight(),
+                file.getCoverArtPath(), file.getParentPath(), file.getPlayCount(), file.getLastPlayed(), file.getComment(),
+                file.getChanged(), file.getLastScanned(), file.getChildrenLastUpdated(), file.isPresent(), VERSION, file.getPath()};
+    }
+
+    private Object[] getInsertArgs(MediaFile file) {
+        return new Object[]{null,
+                file.getPath(), file.getFolder(), file.getMediaType().name(), file.getFormat(), file.getTitle(), file.getAlbumName(), file.getArtist(),
+                file.getAlbumArtist(), file.getDiscNumber(), file.getTrackNumber(), file.getYear(), file.getGenre(), file.getBitRate(),
+                file.isVariableBitRate(), file.getDurationSeconds(), file.getFileSize(), file.getWidth(), file.getHeight(),
+                file.getCoverArtPath(), file.getParentPath(), file.getPlayCount(), file.getLastPlayed(), file.getComment(),
+                file.getCreated(), file.getChanged(), file.getLastScanned(),
+                file.getChildrenLastUpdated(), file.isPresent(), VERSION};
+    }
+
+    /**
+     * Copies values from obsolete table music_file_info.
+     */
+    private void copyMusicFileInfo(MediaFile file) {
+        MediaFile musicFileInfo = getMusicFileInfo(file.getPath());
+        if (musicFileInfo != null) {
+            file.setComment(musicFileInfo.getComment());
+            file.setLastPlayed(musicFileInfo.getLastPlayed());
+            file.setPlayCount(musicFileInfo.getPlayCount());
+        }
     }
 
     private MediaFile getMusicFileInfo(String path) {
@@ -168,6 +298,7 @@ public class MediaFileDao extends AbstractDao {
 
     public void deleteMediaFile(String path) {
         update("update media_file set present=false, children_last_updated=? where path=?", new Date(0L), path);
+        evict(path);
     }
 
     public List<String> getGenres() {
@@ -224,6 +355,15 @@ public class MediaFileDao extends AbstractDao {
                 rowMapper, ALBUM.name(), count, offset);
     }
 
+    /**
+     * Returns the sort columns of all present album directories, for use by
+     * {@link net.sourceforge.subsonic.service.AlbumCatalog}.
+     */
+    public List<AlbumSummary> getAlbumSummaries() {
+        return query("select id, album, artist, created, play_count, last_played from media_file where type=? and present",
+                albumSummaryRowMapper, ALBUM.name());
+    }
+
     public List<MediaFile> getSongsByGenre(String genre, int offset, int count) {
         return query("select " + COLUMNS + " from media_file where type in (?,?,?) and genre=? and present limit ? offset ?",
                 rowMapper, MUSIC.name(), PODCAST.name(), AUDIOBOOK.name(), genre, count, offset);
@@ -286,6 +426,84 @@ public class MediaFileDao extends AbstractDao {
 
     public void markPresent(String path, Date lastScanned) {
         update("update media_file set present=?, last_scanned=? where path=?", true, lastScanned, path);
+        evict(path);
+    }
+
+    /**
+     * Marks the given media files as present, using JDBC batching.
+     *
+     * @param paths       The media file paths.
+     * @param lastScanned The scan generation.
+     */
+    public void markPresent(Collection<String> paths, Date lastScanned) {
+        List<Object[]> args = new ArrayList<Object[]>();
+        for (String path : paths) {
+            args.add(new Object[]{true, lastScanned, path});
+        }
+        batchUpdate("update media_file set present=?, last_scanned=? where path=?", args);
+        for (String path : paths) {
+            evict(path);
+        }
+    }
+
+    /**
+     * Marks all present children of the given directory as scanned, without touching the
+     * individual files.  Used by delta scans to carry unchanged directories forward.
+     *
+     * @param parentPath  The directory path.
+     * @param lastScanned The scan generation.
+     */
+    public void markChildrenPresent(String parentPath, Date lastScanned) {
+        update("update media_file set last_scanned=? where parent_path=? and present", lastScanned, parentPath);
+        if (mediaFileCache != null) {
+            for (String path : queryForStrings("select path from media_file where parent_path=? and present", parentPath)) {
+                evict(path);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of directory entries (as returned by {@link java.io.File#list()}) that
+     * the given directory had when its children were last synchronized, or -1 if unknown.
+     *
+     * @param path The directory path.
+     * @return The number of entries, or -1.
+     */
+    public int getEntryCount(String path) {
+        return queryForInt("select entry_count from media_file where path=?", -1, path);
+    }
+
+    /**
+     * Records a snapshot of the given directory after its children have been synchronized: The
+     * number of directory entries and the children timestamp (which is set to the modification
+     * time of the directory).
+     *
+     * @param path       The directory path.
+     * @param entryCount The number of directory entries.
+     */
+    public void setEntryCount(String path, int entryCount) {
+        update("update media_file set entry_count=?, children_last_updated=changed where path=?", entryCount, path);
+        evict(path);
+    }
+
+    /**
+     * Returns the IDs of the present media files that were not seen by the scan with the given
+     * generation, i.e., those that {@link #markNonPresent} will mark as non-present.
+     */
+    public List<Integer> getIdsNotScanned(Date lastScanned) {
+        return queryForInts("select id from media_file where last_scanned != ? and present", lastScanned);
+    }
+
+    /**
+     * Returns the titles of all present songs as search suggestions, weighted by play count.
+     */
+    public List<Suggestion> getSongSuggestions() {
+        return query("select id, title, play_count from media_file where type=? and present and title is not null",
+                new ParameterizedRowMapper<Suggestion>() {
+                    public Suggestion mapRow(ResultSet rs, int rowNum) throws SQLException {
+                        return new Suggestion(Suggestion.Type.SONG, rs.getInt(1), rs.getString(2), rs.getLong(3));
+                    }
+                }, MUSIC.name());
     }
 
     public void markNonPresent(Date lastScanned) {
@@ -298,6 +516,7 @@ public class MediaFileDao extends AbstractDao {
             update("update media_file set present=false, children_last_updated=? where id between ? and ? and last_scanned != ? and present",
                     childrenLastUpdated, id, id + batchSize, lastScanned);
         }
+        evictAll();
     }
 
     public void expunge() {
@@ -309,6 +528,23 @@ public class MediaFileDao extends AbstractDao {
             update("delete from media_file where id between ? and ? and not present", id, id + batchSize);
         }
         update("checkpoint");
+        evictAll();
+    }
+
+    private void evict(String path) {
+        if (mediaFileCache != null) {
+            mediaFileCache.remove(path);
+        }
+    }
+
+    private void evictAll() {
+        if (mediaFileCache != null) {
+            mediaFileCache.clear();
+        }
+    }
+
+    public void setMediaFileCache(MediaFileCache mediaFileCache) {
+        this.mediaFileCache = mediaFileCache;
     }
 
     private static class MediaFileMapper implements ParameterizedRowMapper<MediaFile> {
@@ -347,6 +583,12 @@ public class MediaFileDao extends AbstractDao {
         }
     }
 
+    static class AlbumSummaryMapper implements ParameterizedRowMapper<AlbumSummary> {
+        public AlbumSummary mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new AlbumSummary(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getTimestamp(4), rs.getInt(5), rs.getTimestamp(6));
+        }
+    }
+
     private static class MusicFileInfoMapper implements ParameterizedRowMapper<MediaFile> {
         public MediaFile mapRow(ResultSet rs, int rowNum) throws SQLException {
             MediaFile file = new MediaFile();
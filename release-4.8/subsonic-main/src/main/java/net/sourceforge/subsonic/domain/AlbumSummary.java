@@ -0,0 +1,72 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.domain;
+
+import java.util.Date;
+
+import net.sourceforge.subsonic.service.AlbumCatalog;
+
+/**
+ * The columns of an album (or album directory) which album lists are sorted by.
+ *
+ * @author Sindre Mehus
+ * @see AlbumCatalog
+ */
+public class AlbumSummary {
+
+    private final int id;
+    private final String name;
+    private final String artist;
+    private final Date created;
+    private final int playCount;
+    private final Date lastPlayed;
+
+    public AlbumSummary(int id, String name, String artist, Date created, int playCount, Date lastPlayed) {
+        this.id = id;
+        this.name = name;
+        this.artist = artist;
+        this.created = created;
+        this.playCount = playCount;
+        this.lastPlayed = lastPlayed;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public int getPlayCount() {
+        return playCount;
+    }
+
+    public Date getLastPlayed() {
+        return lastPlayed;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.domain;
+
+/**
+ * Defines the items counted by facet counts, for instance the number of songs per genre.
+ *
+ * @author Sindre Mehus
+ * @see net.sourceforge.subsonic.service.SearchService#getFacetCounts
+ */
+public class FacetCriteria {
+    private final String query;
+    private final String genre;
+    private final Integer fromYear;
+    private final Integer toYear;
+    private final Integer musicFolderId;
+
+    /**
+     * Creates a new instance which counts all items.
+     */
+    public FacetCriteria() {
+        this(null, null, null, null, null);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param query         Only count items matching this search query. May be <code>null</code>.
+     * @param genre         Only count items of the given genre. May be <code>null</code>.
+     * @param fromYear      Only count items released after (or in) this year. May be <code>null</code>.
+     * @param toYear        Only count items released before (or in) this year. May be <code>null</code>.
+     * @param musicFolderId Only count items in this music folder. May be <code>null</code>.
+     */
+    public FacetCriteria(String query, String genre, Integer fromYear, Integer toYear, Integer musicFolderId) {
+        this.query = query;
+        this.genre = genre;
+        this.fromYear = fromYear;
+        this.toYear = toYear;
+        this.musicFolderId = musicFolderId;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getGenre() {
+        return genre;
+    }
+
+    public Integer getFromYear() {
+        return fromYear;
+    }
+
+    public Integer getToYear() {
+        return toYear;
+    }
+
+    public Integer getMusicFolderId() {
+        return musicFolderId;
+    }
+}
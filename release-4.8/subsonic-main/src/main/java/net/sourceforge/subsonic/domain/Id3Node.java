@@ -0,0 +1,65 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.domain;
+
+import net.sourceforge.subsonic.service.Id3Graph;
+
+/**
+ * An artist, album or song in the ID3 navigation graph, with the names that link it to the
+ * rest of the graph.
+ *
+ * @author Sindre Mehus
+ * @see Id3Graph
+ */
+public class Id3Node {
+
+    private final int id;
+    private final String artist;
+    private final String album;
+    private final boolean present;
+
+    /**
+     * @param id      The ID of the artist, album or media file.
+     * @param artist  The artist name, or for songs, the album artist.
+     * @param album   The album name.  Null for artists.
+     * @param present Whether the artist, album or song is present.
+     */
+    public Id3Node(int id, String artist, String album, boolean present) {
+        this.id = id;
+        this.artist = artist;
+        this.album = album;
+        this.present = present;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public boolean isPresent() {
+        return present;
+    }
+}
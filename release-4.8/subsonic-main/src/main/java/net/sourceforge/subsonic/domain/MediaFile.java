@@ -105,6 +105,18 @@ public class MediaFile {
     public MediaFile() {
     }
 
+    /**
+     * Creates a copy of the given media file.
+     */
+    public MediaFile(MediaFile other) {
+        this(other.id, other.path, other.folder, other.mediaType, other.format, other.title, other.albumName, other.artist,
+             other.albumArtist, other.discNumber, other.trackNumber, other.year, other.genre, other.bitRate, other.variableBitRate,
+             other.durationSeconds, other.fileSize, other.width, other.height, other.coverArtPath, other.parentPath,
+             other.playCount, other.lastPlayed, other.comment, other.created, other.changed, other.lastScanned,
+             other.childrenLastUpdated, other.present, other.version);
+        starredDate = other.starredDate;
+    }
+
     public int getId() {
         return id;
     }
@@ -425,6 +437,10 @@ public class MediaFile {
         return version;
     }
 
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         return o instanceof MediaFile && ((MediaFile) o).path.equals(path);
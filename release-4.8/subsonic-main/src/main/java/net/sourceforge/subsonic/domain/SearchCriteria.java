@@ -32,6 +32,7 @@ public class SearchCriteria {
     private String query;
     private int offset;
     private int count;
+    private boolean fullDetail;
 
     public void setQuery(String query) {
         this.query = query;
@@ -56,4 +57,18 @@ public class SearchCriteria {
     public void setCount(int count) {
         this.count = count;
     }
+
+    /**
+     * Returns whether the search results should be loaded from the database.  By default they
+     * are built from the fields stored in the search index, which is much faster, but lacks the
+     * comment, the scan times and other columns not shown in search results.  Such results must
+     * therefore not be written back to the database.
+     */
+    public boolean isFullDetail() {
+        return fullDetail;
+    }
+
+    public void setFullDetail(boolean fullDetail) {
+        this.fullDetail = fullDetail;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.domain;
+
+import net.sourceforge.subsonic.service.SuggestionService;
+
+/**
+ * A completion offered while the user is typing a search query, i.e., the name of an artist,
+ * album or song.
+ *
+ * @author Sindre Mehus
+ * @see SuggestionService
+ */
+public class Suggestion {
+
+    private final Type type;
+    private final int id;
+    private final String text;
+    private final long weight;
+
+    /**
+     * @param type   The type of item suggested.
+     * @param id     The ID of the artist, album or media file.
+     * @param text   The suggested text.
+     * @param weight The popularity of the item, typically the number of times it has been played.
+     */
+    public Suggestion(Type type, int id, String text, long weight) {
+        this.type = type;
+        this.id = id;
+        this.text = text;
+        this.weight = weight;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + text;
+    }
+
+    public enum Type {
+        ARTIST, ALBUM, SONG
+    }
+}
@@ -30,7 +30,7 @@ import net.sourceforge.subsonic.util.BoundedList;
 public class TransferStatus {
 
     private static final int HISTORY_LENGTH = 200;
-    private static final long SAMPLE_INTERVAL_MILLIS = 5000;
+    public static final long SAMPLE_INTERVAL_MILLIS = 5000;
 
     private Player player;
     private File file;
@@ -0,0 +1,286 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.sourceforge.subsonic.domain.AlbumSummary;
+
+/**
+ * An immutable catalog of albums, which returns any page of the album lists (newest, most
+ * frequently played, most recently played and alphabetical) without accessing the database.
+ * <p/>
+ * The sort columns are stored in primitive arrays, with one element per album in order of ID.
+ * Names and artists are replaced by their rank among all names and artists, so that comparing
+ * them is as cheap as comparing numbers.  For each list, the albums in the list are stored in
+ * sorted order, which makes a page a simple slice of an array.  Ties are broken by album ID.
+ * <p/>
+ * When an album is played, {@link #withPlayed} returns an updated copy of the catalog, in which
+ * only the affected lists are changed.
+ *
+ * @author Sindre Mehus
+ * @see AlbumCatalogService
+ */
+public class AlbumCatalog {
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final int[] ids;
+    private final long[] created;
+    private final int[] playCounts;
+    private final long[] lastPlayed;
+    private final int[] nameKeys;
+    private final int[] artistKeys;
+
+    // For each order, the indexes of the albums in the list, in sorted order.
+    private final int[][] lists;
+
+    /**
+     * Creates a catalog of the given albums.
+     *
+     * @param albums        The albums.
+     * @param requireArtist Whether albums without an artist are left out of the alphabetical lists.
+     */
+    public AlbumCatalog(List<AlbumSummary> albums, boolean requireArtist) {
+        List<AlbumSummary> sorted = new ArrayList<AlbumSummary>(albums);
+        Collections.sort(sorted, new Comparator<AlbumSummary>() {
+            public int compare(AlbumSummary a, AlbumSummary b) {
+                return a.getId() < b.getId() ? -1 : a.getId() == b.getId() ? 0 : 1;
+            }
+        });
+
+        int n = sorted.size();
+        ids = new int[n];
+        created = new long[n];
+        playCounts = new int[n];
+        lastPlayed = new long[n];
+        Map<String, Integer> names = rank(sorted, false);
+        Map<String, Integer> artists = rank(sorted, true);
+        nameKeys = new int[n];
+        artistKeys = new int[n];
+        boolean[] hasArtist = new boolean[n];
+
+        for (int i = 0; i < n; i++) {
+            AlbumSummary album = sorted.get(i);
+            ids[i] = album.getId();
+            created[i] = getTime(album.getCreated());
+            playCounts[i] = album.getPlayCount();
+            lastPlayed[i] = getTime(album.getLastPlayed());
+            nameKeys[i] = album.getName() == null ? -1 : names.get(album.getName());
+            artistKeys[i] = album.getArtist() == null ? -1 : artists.get(album.getArtist());
+            hasArtist[i] = !requireArtist || (album.getArtist() != null && album.getArtist().length() > 0);
+        }
+
+        lists = new int[Order.values().length][];
+        for (Order order : Order.values()) {
+            List<Integer> rows = new ArrayList<Integer>();
+            for (int i = 0; i < n; i++) {
+                boolean alphabetical = order == Order.ALPHABETICAL_BY_NAME || order == Order.ALPHABETICAL_BY_ARTIST;
+                if (isListed(order, i) && (!alphabetical || hasArtist[i])) {
+                    rows.add(i);
+                }
+            }
+            lists[order.ordinal()] = sort(rows, order);
+        }
+    }
+
+    private AlbumCatalog(AlbumCatalog catalog, int[] playCounts, long[] lastPlayed) {
+        ids = catalog.ids;
+        created = catalog.created;
+        this.playCounts = playCounts;
+        this.lastPlayed = lastPlayed;
+        nameKeys = catalog.nameKeys;
+        artistKeys = catalog.artistKeys;
+        lists = catalog.lists.clone();
+    }
+
+    /**
+     * Returns the number of albums in the given list.
+     */
+    public int getCount(Order order) {
+        return lists[order.ordinal()].length;
+    }
+
+    /**
+     * Returns the IDs of a page of the given list.
+     *
+     * @param order  The list.
+     * @param offset Number of albums to skip.
+     * @param count  Maximum number of albums to return.
+     * @return The album IDs, in list order.
+     */
+    public List<Integer> getIds(Order order, int offset, int count) {
+        int[] list = lists[order.ordinal()];
+        int from = Math.min(Math.max(offset, 0), list.length);
+        int to = (int) Math.min((long) from + Math.max(count, 0), list.length);
+        List<Integer> result = new ArrayList<Integer>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(ids[list[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of this catalog where the given album has the given play count and last
+     * played time, or this catalog if it doesn't contain the album.
+     */
+    public AlbumCatalog withPlayed(int id, int playCount, Date lastPlayed) {
+        int row = Arrays.binarySearch(ids, id);
+        if (row < 0) {
+            return this;
+        }
+
+        int[] newPlayCounts = playCounts.clone();
+        long[] newLastPlayed = this.lastPlayed.clone();
+        newPlayCounts[row] = playCount;
+        newLastPlayed[row] = getTime(lastPlayed);
+
+        AlbumCatalog result = new AlbumCatalog(this, newPlayCounts, newLastPlayed);
+        result.reposition(Order.FREQUENT, row);
+        result.reposition(Order.RECENT, row);
+        return result;
+    }
+
+    /**
+     * Moves the given album to its current position in the given list, which is otherwise sorted.
+     */
+    private void reposition(Order order, int row) {
+        int[] list = lists[order.ordinal()];
+        int[] others = new int[list.length];
+        int n = 0;
+        for (int i : list) {
+            if (i != row) {
+                others[n++] = i;
+            }
+        }
+        if (!isListed(order, row)) {
+            lists[order.ordinal()] = Arrays.copyOf(others, n);
+            return;
+        }
+
+        // Binary search for the first album that sorts after the given album.
+        int low = 0;
+        int high = n;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(order, others[mid], row) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        int[] result = new int[n + 1];
+        System.arraycopy(others, 0, result, 0, low);
+        result[low] = row;
+        System.arraycopy(others, low, result, low + 1, n - low);
+        lists[order.ordinal()] = result;
+    }
+
+    private boolean isListed(Order order, int row) {
+        switch (order) {
+            case FREQUENT:
+                return playCounts[row] > 0;
+            case RECENT:
+                return lastPlayed[row] != NONE;
+            default:
+                return true;
+        }
+    }
+
+    private int[] sort(List<Integer> rows, final Order order) {
+        Integer[] array = rows.toArray(new Integer[rows.size()]);
+        Arrays.sort(array, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return AlbumCatalog.this.compare(order, a, b);
+            }
+        });
+        int[] result = new int[array.length];
+        for (int i = 0; i < array.length; i++) {
+            result[i] = array[i];
+        }
+        return result;
+    }
+
+    private int compare(Order order, int a, int b) {
+        int result;
+        switch (order) {
+            case NEWEST:
+                result = compare(created[b], created[a]);
+                break;
+            case FREQUENT:
+                result = compare(playCounts[b], playCounts[a]);
+                break;
+            case RECENT:
+                result = compare(lastPlayed[b], lastPlayed[a]);
+                break;
+            case ALPHABETICAL_BY_ARTIST:
+                result = compare(artistKeys[a], artistKeys[b]);
+                if (result == 0) {
+                    result = compare(nameKeys[a], nameKeys[b]);
+                }
+                break;
+            default:
+                result = compare(nameKeys[a], nameKeys[b]);
+                break;
+        }
+        return result == 0 ? compare(a, b) : result;
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : a == b ? 0 : 1;
+    }
+
+    /**
+     * Returns the rank of each distinct name (or artist) of the given albums, in alphabetical order.
+     */
+    private static Map<String, Integer> rank(List<AlbumSummary> albums, boolean artist) {
+        TreeSet<String> values = new TreeSet<String>();
+        for (AlbumSummary album : albums) {
+            String value = artist ? album.getArtist() : album.getName();
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (String value : values) {
+            result.put(value, result.size());
+        }
+        return result;
+    }
+
+    private static long getTime(Date date) {
+        return date == null ? NONE : date.getTime();
+    }
+
+    /**
+     * The album lists.
+     */
+    public enum Order {
+        NEWEST, FREQUENT, RECENT, ALPHABETICAL_BY_NAME, ALPHABETICAL_BY_ARTIST
+    }
+}
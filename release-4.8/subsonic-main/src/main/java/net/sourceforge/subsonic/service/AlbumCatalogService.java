@@ -0,0 +1,201 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.List;
+
+import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.dao.AlbumDao;
+import net.sourceforge.subsonic.dao.MediaFileDao;
+import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.MediaFile;
+
+/**
+ * Provides the album lists (newest, most frequently played, most recently played and
+ * alphabetical), both of album directories and of albums as found in ID3 tags.
+ * <p/>
+ * The lists are served from in-memory {@link AlbumCatalog}s, so that a page only costs a
+ * lookup of the albums on it, however deep into the list it is.  The catalogs are built on
+ * startup and rebuilt after each media scan, or in the background after other changes to the
+ * library.
+ * Play counts are patched into the catalogs as albums are played.  Until the catalogs are
+ * built, the lists are queried from the database.
+ *
+ * @author Sindre Mehus
+ */
+public class AlbumCatalogService {
+
+    private static final Logger LOG = Logger.getLogger(AlbumCatalogService.class);
+
+    private MediaFileDao mediaFileDao;
+    private AlbumDao albumDao;
+
+    private volatile AlbumCatalog mediaFileCatalog;
+    private volatile AlbumCatalog albumCatalog;
+
+    // Whether the catalogs are out of date, and whether a background rebuild is in progress.
+    private final Object lock = new Object();
+    private boolean stale;
+    private boolean rebuilding;
+
+    public void init() {
+        invalidate();
+    }
+
+    /**
+     * Rebuilds the catalogs from the database.  Lists are served from the previous catalogs
+     * while building.
+     */
+    public synchronized void rebuild() {
+        try {
+            long t0 = System.currentTimeMillis();
+            mediaFileCatalog = new AlbumCatalog(mediaFileDao.getAlbumSummaries(), true);
+            albumCatalog = new AlbumCatalog(albumDao.getAlbumSummaries(), false);
+            LOG.debug("Built album catalogs of " + mediaFileCatalog.getCount(AlbumCatalog.Order.NEWEST) + " album directories and " +
+                    albumCatalog.getCount(AlbumCatalog.Order.NEWEST) + " albums in " + (System.currentTimeMillis() - t0) + " ms.");
+        } catch (Throwable x) {
+            LOG.error("Failed to build album catalogs.", x);
+        }
+    }
+
+    /**
+     * Marks the catalogs as out of date, after albums have been added or removed outside of a
+     * media scan, and rebuilds them in a background thread.  The previous catalogs are used until
+     * then.  If invalidated again while rebuilding, the catalogs are rebuilt once more when done.
+     */
+    public void invalidate() {
+        synchronized (lock) {
+            stale = true;
+            if (rebuilding) {
+                return;
+            }
+            rebuilding = true;
+        }
+
+        Thread thread = new Thread("AlbumCatalogBuilder") {
+            @Override
+            public void run() {
+                while (takeStale()) {
+                    rebuild();
+                }
+            }
+        };
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns whether the catalogs are out of date, and marks them as up to date.  Ends the
+     * background rebuild if not.
+     */
+    private boolean takeStale() {
+        synchronized (lock) {
+            rebuilding = stale;
+            stale = false;
+            return rebuilding;
+        }
+    }
+
+    /**
+     * Returns a page of the given list of album directories.
+     *
+     * @param order  The list.
+     * @param offset Number of albums to skip.
+     * @param count  Maximum number of albums to return.
+     * @return The album directories.
+     */
+    public List<MediaFile> getAlbums(AlbumCatalog.Order order, int offset, int count) {
+        AlbumCatalog catalog = getCatalog(false);
+        if (catalog != null) {
+            return mediaFileDao.getMediaFiles(catalog.getIds(order, offset, count));
+        }
+
+        switch (order) {
+            case NEWEST:
+                return mediaFileDao.getNewestAlbums(offset, count);
+            case FREQUENT:
+                return mediaFileDao.getMostFrequentlyPlayedAlbums(offset, count);
+            case RECENT:
+                return mediaFileDao.getMostRecentlyPlayedAlbums(offset, count);
+            case ALPHABETICAL_BY_ARTIST:
+                return mediaFileDao.getAlphabetialAlbums(offset, count, true);
+            default:
+                return mediaFileDao.getAlphabetialAlbums(offset, count, false);
+        }
+    }
+
+    /**
+     * Returns a page of the given list of albums, as found in ID3 tags.
+     *
+     * @param order  The list.
+     * @param offset Number of albums to skip.
+     * @param count  Maximum number of albums to return.
+     * @return The albums.
+     */
+    public List<Album> getAlbumsId3(AlbumCatalog.Order order, int offset, int count) {
+        AlbumCatalog catalog = getCatalog(true);
+        if (catalog != null) {
+            return albumDao.getAlbums(catalog.getIds(order, offset, count));
+        }
+
+        switch (order) {
+            case NEWEST:
+                return albumDao.getNewestAlbums(offset, count);
+            case FREQUENT:
+                return albumDao.getMostFrequentlyPlayedAlbums(offset, count);
+            case RECENT:
+                return albumDao.getMostRecentlyPlayedAlbums(offset, count);
+            case ALPHABETICAL_BY_ARTIST:
+                return albumDao.getAlphabetialAlbums(offset, count, true);
+            default:
+                return albumDao.getAlphabetialAlbums(offset, count, false);
+        }
+    }
+
+    /**
+     * Updates the play count and last played time of the given album directory in the catalog.
+     */
+    public synchronized void albumPlayed(MediaFile album) {
+        if (mediaFileCatalog != null) {
+            mediaFileCatalog = mediaFileCatalog.withPlayed(album.getId(), album.getPlayCount(), album.getLastPlayed());
+        }
+    }
+
+    /**
+     * Updates the play count and last played time of the given album in the catalog.
+     */
+    public synchronized void albumPlayed(Album album) {
+        if (albumCatalog != null) {
+            albumCatalog = albumCatalog.withPlayed(album.getId(), album.getPlayCount(), album.getLastPlayed());
+        }
+    }
+
+    private AlbumCatalog getCatalog(boolean id3) {
+        return id3 ? albumCatalog : mediaFileCatalog;
+    }
+
+    public void setMediaFileDao(MediaFileDao mediaFileDao) {
+        this.mediaFileDao = mediaFileDao;
+    }
+
+    public void setAlbumDao(AlbumDao albumDao) {
+        this.albumDao = albumDao;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * Counts the documents matching a query for each value of a field, for instance the number of
+ * songs per genre or year.
+ * <p/>
+ * The documents containing each value of a field are collected once per index reader and cached
+ * as a sorted array, so that counting only has to check which of them match the query.  Counting
+ * all documents requires no index access at all.  The cache of a reader is discarded along with
+ * the reader when the index changes.
+ *
+ * @author Sindre Mehus
+ * @see SearchService
+ */
+public class FacetCounter {
+
+    private final Map<IndexReader, Map<String, Map<String, int[]>>> cache = new WeakHashMap<IndexReader, Map<String, Map<String, int[]>>>();
+
+    /**
+     * Counts the documents matching the given query for each value of the given field.
+     *
+     * @param reader  The index reader.
+     * @param field   The field, which must be indexed without analyzing.
+     * @param numeric Whether the field is a numeric field of <code>int</code> values.
+     * @param query   The query, or <code>null</code> to count all documents.
+     * @return The number of matching documents, keyed by field value.  Values without any
+     *         matching documents are omitted.
+     * @throws IOException If an I/O error occurs.
+     */
+    public Map<String, Integer> count(IndexReader reader, String field, boolean numeric, Query query) throws IOException {
+        Map<String, int[]> values = getValues(reader, field, numeric);
+        OpenBitSet matches = query == null ? null : collect(reader, query);
+
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (Map.Entry<String, int[]> entry : values.entrySet()) {
+            int[] docs = entry.getValue();
+            int count = matches == null ? docs.length : count(docs, matches);
+            if (count > 0) {
+                result.put(entry.getKey(), count);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of the given documents which are in the given set.
+     */
+    static int count(int[] docs, OpenBitSet matches) {
+        int count = 0;
+        long size = matches.size();
+        for (int doc : docs) {
+            if (doc < size && matches.fastGet(doc)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Map<String, int[]> getValues(IndexReader reader, String field, boolean numeric) throws IOException {
+        synchronized (cache) {
+            Map<String, Map<String, int[]>> readerCache = cache.get(reader);
+            if (readerCache == null) {
+                readerCache = new HashMap<String, Map<String, int[]>>();
+                cache.put(reader, readerCache);
+            }
+            Map<String, int[]> values = readerCache.get(field);
+            if (values == null) {
+                values = collectValues(reader, field, numeric);
+                readerCache.put(field, values);
+            }
+            return values;
+        }
+    }
+
+    private static Map<String, int[]> collectValues(IndexReader reader, String field, boolean numeric) throws IOException {
+        Map<String, int[]> result = new LinkedHashMap<String, int[]>();
+        TermEnum terms = reader.terms(new Term(field, ""));
+        TermDocs termDocs = reader.termDocs();
+        try {
+            do {
+                Term term = terms.term();
+                if (term == null || !field.equals(term.field())) {
+                    break;
+                }
+                String value = term.text();
+                if (numeric) {
+                    // Numeric fields are also indexed with lower precision terms, which are skipped.
+                    if (value.length() == 0 || value.charAt(0) != NumericUtils.SHIFT_START_INT) {
+                        continue;
+                    }
+                    value = String.valueOf(NumericUtils.prefixCodedToInt(value));
+                }
+
+                int[] docs = new int[Math.max(terms.docFreq(), 1)];
+                int n = 0;
+                termDocs.seek(term);
+                while (termDocs.next()) {
+                    if (n == docs.length) {
+                        docs = Arrays.copyOf(docs, 2 * n);
+                    }
+                    docs[n++] = termDocs.doc();
+                }
+                if (n > 0) {
+                    result.put(value, Arrays.copyOf(docs, n));
+                }
+            } while (terms.next());
+        } finally {
+            termDocs.close();
+            terms.close();
+        }
+        return result;
+    }
+
+    private static OpenBitSet collect(IndexReader reader, Query query) throws IOException {
+        OpenBitSet result = new OpenBitSet(reader.maxDoc());
+        DocIdSet docIdSet = new QueryWrapperFilter(query).getDocIdSet(reader);
+        DocIdSetIterator iterator = docIdSet == null ? null : docIdSet.iterator();
+        if (iterator != null) {
+            for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+                result.fastSet(doc);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.subsonic.domain.Id3Node;
+
+/**
+ * An immutable graph of the artists, albums and songs found in ID3 tags, which maps artist and
+ * album names to IDs, artists to their albums and albums to their songs without accessing the
+ * database.
+ * <p/>
+ * Only IDs are stored; the lists of albums and songs are stored as arrays in the same order as
+ * the corresponding database queries.
+ *
+ * @author Sindre Mehus
+ * @see Id3GraphService
+ */
+public class Id3Graph {
+
+    private static final int[] NONE = new int[0];
+
+    private final Map<String, Integer> artistIds = new HashMap<String, Integer>();
+    private final Map<String, Integer> albumIds = new HashMap<String, Integer>();
+    private final Set<Integer> knownArtists = new HashSet<Integer>();
+    private final Set<Integer> knownAlbums = new HashSet<Integer>();
+    private final Map<Integer, int[]> albumsOfArtist = new HashMap<Integer, int[]>();
+    private final Map<Integer, int[]> songsOfAlbum = new HashMap<Integer, int[]>();
+
+    /**
+     * Creates the graph.
+     *
+     * @param artists All artists, present or not.
+     * @param albums  All albums, present or not, ordered by name.
+     * @param songs   All present songs, ordered by track number.
+     */
+    public Id3Graph(List<Id3Node> artists, List<Id3Node> albums, List<Id3Node> songs) {
+        for (Id3Node artist : artists) {
+            artistIds.put(artist.getArtist(), artist.getId());
+            knownArtists.add(artist.getId());
+        }
+
+        Map<Integer, List<Integer>> albumLists = new LinkedHashMap<Integer, List<Integer>>();
+        for (Id3Node album : albums) {
+            albumIds.put(getKey(album.getArtist(), album.getAlbum()), album.getId());
+            knownAlbums.add(album.getId());
+            Integer artistId = artistIds.get(album.getArtist());
+            if (album.isPresent() && artistId != null) {
+                add(albumLists, artistId, album.getId());
+            }
+        }
+
+        Map<Integer, List<Integer>> songLists = new LinkedHashMap<Integer, List<Integer>>();
+        for (Id3Node song : songs) {
+            Integer albumId = albumIds.get(getKey(song.getArtist(), song.getAlbum()));
+            if (albumId != null) {
+                add(songLists, albumId, song.getId());
+            }
+        }
+
+        toArrays(albumLists, albumsOfArtist);
+        toArrays(songLists, songsOfAlbum);
+    }
+
+    /**
+     * Returns the ID of the artist with the given name, or null if not found.
+     */
+    public Integer getArtistId(String artist) {
+        return artistIds.get(artist);
+    }
+
+    /**
+     * Returns the ID of the album with the given artist and name, or null if not found.
+     */
+    public Integer getAlbumId(String artist, String album) {
+        return albumIds.get(getKey(artist, album));
+    }
+
+    /**
+     * Returns the IDs of the present albums of the given artist, ordered by name, or null if the
+     * artist is not found.
+     */
+    public List<Integer> getAlbumIds(int artistId) {
+        return knownArtists.contains(artistId) ? toList(albumsOfArtist.get(artistId)) : null;
+    }
+
+    /**
+     * Returns the IDs of the present songs of the given album, ordered by track number, or null
+     * if the album is not found.
+     */
+    public List<Integer> getSongIds(int albumId) {
+        return knownAlbums.contains(albumId) ? toList(songsOfAlbum.get(albumId)) : null;
+    }
+
+    private static String getKey(String artist, String album) {
+        return artist + '\u0000' + album;
+    }
+
+    private static void add(Map<Integer, List<Integer>> lists, Integer key, int id) {
+        List<Integer> list = lists.get(key);
+        if (list == null) {
+            list = new ArrayList<Integer>(1);
+            lists.put(key, list);
+        }
+        list.add(id);
+    }
+
+    private static void toArrays(Map<Integer, List<Integer>> lists, Map<Integer, int[]> arrays) {
+        for (Map.Entry<Integer, List<Integer>> entry : lists.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            arrays.put(entry.getKey(), array);
+        }
+    }
+
+    private static List<Integer> toList(int[] array) {
+        if (array == null) {
+            array = NONE;
+        }
+        List<Integer> result = new ArrayList<Integer>(array.length);
+        for (int id : array) {
+            result.add(id);
+        }
+        return result;
+    }
+}
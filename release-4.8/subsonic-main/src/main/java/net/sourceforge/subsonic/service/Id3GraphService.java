@@ -0,0 +1,225 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.List;
+
+import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.dao.AlbumDao;
+import net.sourceforge.subsonic.dao.ArtistDao;
+import net.sourceforge.subsonic.dao.MediaFileDao;
+import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.Artist;
+import net.sourceforge.subsonic.domain.MediaFile;
+
+/**
+ * Provides navigation of artists, albums and songs as found in ID3 tags, using an in-memory
+ * {@link Id3Graph}.
+ * <p/>
+ * The graph is built on startup and rebuilt after each media scan, or in the background after
+ * the folder watcher has updated the library.  Until it is built, and while it is out of date
+ * because a scan or rebuild is pending, the database is queried instead.  Artists, albums and
+ * songs added to the library are thus never hidden by an old graph.
+ *
+ * @author Sindre Mehus
+ */
+public class Id3GraphService {
+
+    private static final Logger LOG = Logger.getLogger(Id3GraphService.class);
+
+    private MediaFileDao mediaFileDao;
+    private ArtistDao artistDao;
+    private AlbumDao albumDao;
+
+    private volatile Id3Graph graph;
+
+    // Whether the graph is out of date, whether a background rebuild is in progress, and the
+    // number of media scans in progress.
+    private final Object lock = new Object();
+    private boolean stale;
+    private boolean rebuilding;
+    private int updates;
+
+    public void init() {
+        invalidate();
+    }
+
+    /**
+     * Rebuilds the graph from the database.  If this fails, the database is queried instead.
+     */
+    public synchronized void rebuild() {
+        try {
+            long t0 = System.currentTimeMillis();
+            graph = new Id3Graph(artistDao.getId3Nodes(), albumDao.getId3Nodes(), mediaFileDao.getId3Nodes());
+            LOG.debug("Built ID3 graph in " + (System.currentTimeMillis() - t0) + " ms.");
+        } catch (Throwable x) {
+            graph = null;
+            LOG.error("Failed to build ID3 graph.", x);
+        }
+    }
+
+    /**
+     * Marks the start of a media scan.  The database is queried instead of the graph until
+     * {@link #endUpdate} is called.
+     */
+    public void beginUpdate() {
+        synchronized (lock) {
+            updates++;
+        }
+    }
+
+    /**
+     * Marks the end of a media scan, and rebuilds the graph.
+     */
+    public void endUpdate() {
+        try {
+            rebuild();
+        } finally {
+            synchronized (lock) {
+                updates--;
+            }
+        }
+    }
+
+    /**
+     * Marks the graph as out of date, and rebuilds it in a background thread.  The database is
+     * queried until then.  If invalidated again while rebuilding, the graph is rebuilt once more
+     * when done.
+     */
+    public void invalidate() {
+        synchronized (lock) {
+            stale = true;
+            if (rebuilding) {
+                return;
+            }
+            rebuilding = true;
+        }
+
+        Thread thread = new Thread("Id3GraphBuilder") {
+            @Override
+            public void run() {
+                while (takeStale()) {
+                    rebuild();
+                }
+            }
+        };
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns whether the graph is out of date, and marks it as up to date.  Ends the background
+     * rebuild if not.
+     */
+    private boolean takeStale() {
+        synchronized (lock) {
+            rebuilding = stale;
+            stale = false;
+            return rebuilding;
+        }
+    }
+
+    /**
+     * Returns the graph, or null if it is not built or out of date.
+     */
+    private Id3Graph getGraph() {
+        synchronized (lock) {
+            return stale || rebuilding || updates > 0 ? null : graph;
+        }
+    }
+
+    /**
+     * Returns the ID of the artist with the given name, or null if not found.
+     */
+    public Integer getArtistId(String artistName) {
+        Id3Graph graph = getGraph();
+        Integer id = graph == null ? null : graph.getArtistId(artistName);
+        if (id == null) {
+            Artist artist = artistDao.getArtist(artistName);
+            id = artist == null ? null : artist.getId();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the ID of the album with the given artist and name, or null if not found.
+     */
+    public Integer getAlbumId(String artistName, String albumName) {
+        Id3Graph graph = getGraph();
+        Integer id = graph == null ? null : graph.getAlbumId(artistName, albumName);
+        if (id == null) {
+            Album album = albumDao.getAlbum(artistName, albumName);
+            id = album == null ? null : album.getId();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the present albums of the given artist, ordered by name.
+     */
+    public List<Album> getAlbumsForArtist(Artist artist) {
+        Id3Graph graph = getGraph();
+        List<Integer> ids = graph == null ? null : graph.getAlbumIds(artist.getId());
+        if (ids == null) {
+            return albumDao.getAlbumsForArtist(artist.getName());
+        }
+
+        // Albums may have been removed since the graph was built.
+        List<Album> albums = albumDao.getAlbums(ids);
+        for (int i = albums.size() - 1; i >= 0; i--) {
+            if (!albums.get(i).isPresent()) {
+                albums.remove(i);
+            }
+        }
+        return albums;
+    }
+
+    /**
+     * Returns the present songs of the given album, ordered by track number.
+     */
+    public List<MediaFile> getSongsForAlbum(Album album) {
+        Id3Graph graph = getGraph();
+        List<Integer> ids = graph == null ? null : graph.getSongIds(album.getId());
+        if (ids == null) {
+            return mediaFileDao.getSongsForAlbum(album.getArtist(), album.getName());
+        }
+
+        // Songs may have been removed since the graph was built.
+        List<MediaFile> songs = mediaFileDao.getMediaFiles(ids);
+        for (int i = songs.size() - 1; i >= 0; i--) {
+            if (!songs.get(i).isPresent()) {
+                songs.remove(i);
+            }
+        }
+        return songs;
+    }
+
+    public void setMediaFileDao(MediaFileDao mediaFileDao) {
+        this.mediaFileDao = mediaFileDao;
+    }
+
+    public void setArtistDao(ArtistDao artistDao) {
+        this.artistDao = artistDao;
+    }
+
+    public void setAlbumDao(AlbumDao albumDao) {
+        this.albumDao = albumDao;
+    }
+}
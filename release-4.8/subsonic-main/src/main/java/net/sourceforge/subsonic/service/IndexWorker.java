@@ -0,0 +1,218 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+import net.sourceforge.subsonic.Logger;
+
+/**
+ * Feeds an index writer from a bounded queue in a thread of its own, so that the analysis of
+ * documents during a media scan overlaps with the file system and database work of the scanner
+ * (and with the other indexes).  Updates are applied in the order they are queued.
+ * <p/>
+ * The caller blocks if the queue is full.  {@link #commit} and {@link #close} wait until all
+ * updates queued before them have been applied.
+ *
+ * @author Sindre Mehus
+ * @see SearchService
+ */
+public class IndexWorker extends Thread {
+
+    private static final Logger LOG = Logger.getLogger(IndexWorker.class);
+
+    private final IndexWriter writer;
+    private final BlockingQueue<Task> queue;
+
+    /**
+     * Creates and starts a worker.
+     *
+     * @param name      The name of the worker thread.
+     * @param writer    The index writer, which is closed by {@link #close}.
+     * @param queueSize The maximum number of updates waiting to be applied.
+     */
+    public IndexWorker(String name, IndexWriter writer, int queueSize) {
+        super(name);
+        this.writer = writer;
+        queue = new ArrayBlockingQueue<Task>(queueSize);
+        setDaemon(true);
+        start();
+    }
+
+    /**
+     * Queues a document which replaces any documents containing the given term.
+     *
+     * @param term     The term identifying the document.
+     * @param document The document.
+     * @param item     The item indexed, for logging.
+     * @throws InterruptedIOException If interrupted while waiting for room in the queue.
+     */
+    public void updateDocument(Term term, Document document, Object item) throws InterruptedIOException {
+        put(new Task(Task.Action.UPDATE, term, document, item));
+    }
+
+    /**
+     * Queues the deletion of the documents containing the given term.
+     *
+     * @throws InterruptedIOException If interrupted while waiting for room in the queue.
+     */
+    public void deleteDocuments(Term term) throws InterruptedIOException {
+        put(new Task(Task.Action.DELETE, term, null, null));
+    }
+
+    /**
+     * Commits all queued updates in the given workers, in parallel.
+     *
+     * @throws IOException If any of the commits failed.
+     */
+    public static void commit(Collection<IndexWorker> workers) throws IOException {
+        await(submit(workers, Task.Action.COMMIT));
+    }
+
+    /**
+     * Applies all queued updates in the given workers, in parallel, and closes their writers.
+     * The worker threads terminate.
+     *
+     * @throws IOException If any of the writers failed to close.
+     */
+    public static void close(Collection<IndexWorker> workers) throws IOException {
+        await(submit(workers, Task.Action.CLOSE));
+    }
+
+    private static List<Task> submit(Collection<IndexWorker> workers, Task.Action action) throws InterruptedIOException {
+        List<Task> tasks = new ArrayList<Task>();
+        for (IndexWorker worker : workers) {
+            if (!worker.isAlive()) {
+                continue;
+            }
+            Task task = new Task(action, null, null, null);
+            worker.put(task);
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    private static void await(List<Task> tasks) throws IOException {
+        IOException failure = null;
+        for (Task task : tasks) {
+            try {
+                task.done.await();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for search index.");
+            }
+            if (failure == null) {
+                failure = task.failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void put(Task task) throws InterruptedIOException {
+        if (!isAlive()) {
+            throw new IllegalStateException(getName() + " is closed.");
+        }
+        try {
+            queue.put(task);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for search index.");
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException x) {
+                LOG.warn(getName() + " was interrupted.");
+                return;
+            }
+
+            try {
+                switch (task.action) {
+                    case UPDATE:
+                        writer.updateDocument(task.term, task.document);
+                        break;
+                    case DELETE:
+                        writer.deleteDocuments(task.term);
+                        break;
+                    case COMMIT:
+                        writer.commit();
+                        break;
+                    case CLOSE:
+                        writer.close();
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IOException x) {
+                task.failure = x;
+            } catch (Throwable x) {
+                task.failure = new IOException(x.toString());
+            }
+
+            if (task.action == Task.Action.UPDATE && task.failure != null) {
+                LOG.error("Failed to create search index for " + task.item, task.failure);
+            } else if (task.action == Task.Action.DELETE && task.failure != null) {
+                LOG.error("Failed to remove item from search index.", task.failure);
+            }
+            task.done.countDown();
+
+            if (task.action == Task.Action.CLOSE) {
+                return;
+            }
+        }
+    }
+
+    private static class Task {
+        private final Action action;
+        private final Term term;
+        private final Document document;
+        private final Object item;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile IOException failure;
+
+        private Task(Action action, Term term, Document document, Object item) {
+            this.action = action;
+            this.term = term;
+            this.document = document;
+            this.item = item;
+        }
+
+        private enum Action {
+            UPDATE, DELETE, COMMIT, CLOSE
+        }
+    }
+}
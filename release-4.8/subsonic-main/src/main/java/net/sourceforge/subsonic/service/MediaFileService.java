@@ -26,27 +26,33 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Element;
 import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.cache.MediaFileCache;
 import net.sourceforge.subsonic.dao.AlbumDao;
 import net.sourceforge.subsonic.dao.MediaFileDao;
 import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.Artist;
+import net.sourceforge.subsonic.domain.FacetCriteria;
 import net.sourceforge.subsonic.domain.MediaFile;
 import net.sourceforge.subsonic.domain.MediaFileComparator;
 import net.sourceforge.subsonic.domain.MusicFolder;
 import net.sourceforge.subsonic.service.metadata.JaudiotaggerParser;
 import net.sourceforge.subsonic.service.metadata.MetaData;
+import net.sourceforge.subsonic.service.metadata.MetaDataCache;
 import net.sourceforge.subsonic.service.metadata.MetaDataParser;
 import net.sourceforge.subsonic.service.metadata.MetaDataParserFactory;
+import net.sourceforge.subsonic.util.DirectorySnapshot;
 import net.sourceforge.subsonic.util.FileUtil;
 
 import static net.sourceforge.subsonic.domain.MediaFile.MediaType.*;
@@ -60,13 +66,16 @@ public class MediaFileService {
 
     private static final Logger LOG = Logger.getLogger(MediaFileService.class);
 
-    private Ehcache mediaFileMemoryCache;
+    private MediaFileCache mediaFileCache;
 
     private SecurityService securityService;
     private SettingsService settingsService;
     private MediaFileDao mediaFileDao;
     private AlbumDao albumDao;
+    private AlbumCatalogService albumCatalogService;
+    private SearchService searchService;
     private MetaDataParserFactory metaDataParserFactory;
+    private MetaDataCache metaDataCache;
 
     /**
      * Returns a media file instance for the given file.  If possible, a cached value is returned.
@@ -95,24 +104,24 @@ public class MediaFileService {
     	
     	StringBuilder debugMessage = new StringBuilder("getting MediaFile : ");
     	debugMessage.append(file.getName());
-        // Look in fast memory cache first.
-        Element element = mediaFileMemoryCache.get(file);
-        MediaFile result = element == null ? null : (MediaFile) element.getObjectValue();
+        if (!securityService.isReadAllowed(file)) {
+            throw new SecurityException("Access denied to file " + file);
+        }
+
+        // Look in memory cache first.
+        MediaFile result = mediaFileCache.get(file.getPath());
         if (result != null) {
         	debugMessage.append(" found in memory cache");
         	LOG.debug(debugMessage.toString());
-            return result;
-        }
-
-        if (!securityService.isReadAllowed(file)) {
-            throw new SecurityException("Access denied to file " + file);
+            return checkLastModified(result, useFastCache);
         }
 
         // Secondly, look in database.
+        long stamp = mediaFileCache.getStamp();
         result = mediaFileDao.getMediaFile(file.getPath());
         if (result != null) {
             result = checkLastModified(result, useFastCache);
-            mediaFileMemoryCache.put(new Element(file, result));
+            mediaFileCache.put(result, stamp);
         	debugMessage.append(" found in database");
         	LOG.debug(debugMessage.toString());
             return result;
@@ -125,8 +134,7 @@ public class MediaFileService {
         debugMessage.append(" not found in database -> Create media file");
         result = createMediaFile(file);
 
-        // Put in cache and database.
-        mediaFileMemoryCache.put(new Element(file, result));
+        // Put in database.  It is added to the memory cache when next read.
         mediaFileDao.createOrUpdateMediaFile(result);
         
         LOG.debug(debugMessage.toString());
@@ -134,7 +142,7 @@ public class MediaFileService {
     }
 
     private MediaFile checkLastModified(MediaFile mediaFile, boolean useFastCache) {
-        if (useFastCache || (mediaFile.getVersion() >= MediaFileDao.VERSION && mediaFile.getChanged().getTime() >= FileUtil.lastModified(mediaFile.getFile()))) {
+        if (useFastCache || isUpToDate(mediaFile)) {
             return mediaFile;
         }
         mediaFile = createMediaFile(mediaFile.getFile());
@@ -142,6 +150,22 @@ public class MediaFileService {
         return  mediaFile;
     }
 
+    /**
+     * Returns whether the given media file (as stored in the database) is up-to-date with
+     * respect to the file on disk.
+     */
+    boolean isUpToDate(MediaFile mediaFile) {
+        return isUpToDate(mediaFile, FileUtil.lastModified(mediaFile.getFile()));
+    }
+
+    /**
+     * Returns whether the given media file (as stored in the database) is up-to-date with
+     * respect to the given modification time of the file on disk.
+     */
+    boolean isUpToDate(MediaFile mediaFile, long lastModified) {
+        return mediaFile.getVersion() >= MediaFileDao.VERSION && mediaFile.getChanged().getTime() >= lastModified;
+    }
+
     /**
      * Returns a media file instance for the given path name. If possible, a cached value is returned.
      *
@@ -153,9 +177,20 @@ public class MediaFileService {
         return getMediaFile(new File(pathName));
     }
 
-    // TODO: Optimize with memory caching.
+    /**
+     * Returns the media file with the given ID.  If possible, a memory cached value is returned.
+     *
+     * @param id The media file ID.
+     * @return The media file, or null if not found.
+     * @throws SecurityException If access is denied to the given file.
+     */
     public MediaFile getMediaFile(int id) {
-        MediaFile mediaFile = mediaFileDao.getMediaFile(id);
+        long stamp = mediaFileCache.getStamp();
+        MediaFile mediaFile = mediaFileCache.get(id);
+        boolean cached = mediaFile != null;
+        if (!cached) {
+            mediaFile = mediaFileDao.getMediaFile(id);
+        }
         if (mediaFile == null) {
             return null;
         }
@@ -164,7 +199,98 @@ public class MediaFileService {
             throw new SecurityException("Access denied to file " + mediaFile);
         }
 
-        return checkLastModified(mediaFile, settingsService.isFastCacheEnabled());
+        mediaFile = checkLastModified(mediaFile, settingsService.isFastCacheEnabled());
+        if (!cached) {
+            mediaFileCache.put(mediaFile, stamp);
+        }
+        return mediaFile;
+    }
+
+    /**
+     * Returns the media files with the given IDs, like {@link #getMediaFile(int)}, but looking up
+     * the files that are not in the memory cache using a single database query (per batch).
+     *
+     * @param ids The media file IDs.
+     * @return The media files, in the same order as the IDs.  Media files that are not found or
+     *         that the current user is not allowed to read are skipped.
+     */
+    public List<MediaFile> getMediaFiles(List<Integer> ids) {
+        boolean useFastCache = settingsService.isFastCacheEnabled();
+        long stamp = mediaFileCache.getStamp();
+        Map<Integer, MediaFile> found = new HashMap<Integer, MediaFile>();
+        List<Integer> uncached = new ArrayList<Integer>();
+        for (Integer id : ids) {
+            MediaFile mediaFile = mediaFileCache.get(id);
+            if (mediaFile == null) {
+                uncached.add(id);
+            } else if (securityService.isReadAllowed(mediaFile.getFile())) {
+                found.put(id, checkLastModified(mediaFile, useFastCache));
+            }
+        }
+
+        for (MediaFile mediaFile : mediaFileDao.getMediaFiles(uncached)) {
+            if (securityService.isReadAllowed(mediaFile.getFile())) {
+                int id = mediaFile.getId();
+                mediaFile = checkLastModified(mediaFile, useFastCache);
+                mediaFileCache.put(mediaFile, stamp);
+                found.put(id, mediaFile);
+            }
+        }
+
+        List<MediaFile> result = new ArrayList<MediaFile>(ids.size());
+        for (Integer id : ids) {
+            MediaFile mediaFile = found.get(id);
+            if (mediaFile != null) {
+                result.add(mediaFile);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the media files with the given paths, like {@link #getMediaFile(String)}, but looking
+     * up the files that are not in the memory cache using a single database query (per batch).
+     *
+     * @param paths Paths of files on the local file system.
+     * @return The media files, in the same order as the paths.  Files that are not found or that
+     *         the current user is not allowed to read are skipped.
+     */
+    public List<MediaFile> getMediaFilesByPath(List<String> paths) {
+        boolean useFastCache = settingsService.isFastCacheEnabled();
+        long stamp = mediaFileCache.getStamp();
+        Map<String, MediaFile> found = new HashMap<String, MediaFile>();
+        Set<String> uncached = new LinkedHashSet<String>();
+        for (String path : paths) {
+            if (!securityService.isReadAllowed(new File(path))) {
+                continue;
+            }
+            MediaFile mediaFile = mediaFileCache.get(path);
+            if (mediaFile != null) {
+                found.put(path, checkLastModified(mediaFile, useFastCache));
+            } else {
+                uncached.add(path);
+            }
+        }
+
+        for (MediaFile mediaFile : mediaFileDao.getMediaFilesByPath(new ArrayList<String>(uncached))) {
+            mediaFile = checkLastModified(mediaFile, useFastCache);
+            mediaFileCache.put(mediaFile, stamp);
+            found.put(mediaFile.getPath(), mediaFile);
+        }
+
+        List<MediaFile> result = new ArrayList<MediaFile>(paths.size());
+        for (String path : paths) {
+            MediaFile mediaFile = found.get(path);
+            if (!found.containsKey(path) && uncached.contains(path)) {
+                // Not in database, must read from disk.
+                mediaFile = getMediaFile(new File(path), useFastCache);
+                found.put(path, mediaFile);
+            }
+            if (mediaFile != null) {
+                result.add(mediaFile);
+            }
+        }
+        return result;
     }
 
     public MediaFile getParentOf(MediaFile mediaFile) {
@@ -187,7 +313,8 @@ public class MediaFileService {
     }
 
     /**
-     * Returns all media files that are children of a given media file.
+     * Returns all media files that are children of a given media file.  Sorted children are
+     * served from memory as long as the directory is unchanged.
      *
      * @param includeFiles       Whether files should be included in the result.
      * @param includeDirectories Whether directories should be included in the result.
@@ -205,8 +332,21 @@ public class MediaFileService {
             updateChildren(parent);
         }
 
-        List<MediaFile> result = new ArrayList<MediaFile>();
-        for (MediaFile child : mediaFileDao.getChildrenOf(parent.getPath())) {
+        List<MediaFile> children;
+        if (sort) {
+            boolean sortAlbumsByYear = settingsService.isSortAlbumsByYear();
+            long stamp = mediaFileCache.getStamp();
+            children = mediaFileCache.getChildren(parent, sortAlbumsByYear);
+            if (children == null) {
+                children = sort(mediaFileDao.getChildrenOf(parent.getPath()), sortAlbumsByYear);
+                mediaFileCache.putChildren(parent, children, sortAlbumsByYear, stamp);
+            }
+        } else {
+            children = mediaFileDao.getChildrenOf(parent.getPath());
+        }
+
+        List<MediaFile> result = new ArrayList<MediaFile>(children.size());
+        for (MediaFile child : children) {
             child = checkLastModified(child, useFastCache);
             if (child.isDirectory() && includeDirectories) {
                 result.add(child);
@@ -215,19 +355,18 @@ public class MediaFileService {
                 result.add(child);
             }
         }
-
-        if (sort) {
-            Comparator<MediaFile> comparator = new MediaFileComparator(settingsService.isSortAlbumsByYear());
-            // Note: Intentionally not using Collections.sort() since it can be problematic on Java 7.
-            // http://www.oracle.com/technetwork/java/javase/compatibility-417013.html#jdk7
-            Set<MediaFile> set = new TreeSet<MediaFile>(comparator);
-            set.addAll(result);
-            result = new ArrayList<MediaFile>(set);
-        }
-
         return result;
     }
 
+    private List<MediaFile> sort(List<MediaFile> mediaFiles, boolean sortAlbumsByYear) {
+        Comparator<MediaFile> comparator = new MediaFileComparator(sortAlbumsByYear);
+        // Note: Intentionally not using Collections.sort() since it can be problematic on Java 7.
+        // http://www.oracle.com/technetwork/java/javase/compatibility-417013.html#jdk7
+        Set<MediaFile> set = new TreeSet<MediaFile>(comparator);
+        set.addAll(mediaFiles);
+        return new ArrayList<MediaFile>(set);
+    }
+
     /**
      * Returns whether the given file is the root of a media folder.
      *
@@ -243,12 +382,13 @@ public class MediaFileService {
     }
 
     /**
-     * Returns all genres in the music collection.
+     * Returns all genres in the music collection, together with the number of songs of each genre.
+     * The counts are read from the search index.
      *
-     * @return Sorted list of genres.
+     * @return Map from genre to song count, sorted by genre.
      */
-    public List<String> getGenres() {
-        return mediaFileDao.getGenres();
+    public SortedMap<String, Integer> getGenres() {
+        return new TreeMap<String, Integer>(searchService.getFacetCounts(SearchService.IndexType.SONG, SearchService.Facet.GENRE, new FacetCriteria()));
     }
 
     /**
@@ -259,7 +399,7 @@ public class MediaFileService {
      * @return The most frequently played albums.
      */
     public List<MediaFile> getMostFrequentlyPlayedAlbums(int offset, int count) {
-        return mediaFileDao.getMostFrequentlyPlayedAlbums(offset, count);
+        return albumCatalogService.getAlbums(AlbumCatalog.Order.FREQUENT, offset, count);
     }
 
     /**
@@ -270,7 +410,7 @@ public class MediaFileService {
      * @return The most recently played albums.
      */
     public List<MediaFile> getMostRecentlyPlayedAlbums(int offset, int count) {
-        return mediaFileDao.getMostRecentlyPlayedAlbums(offset, count);
+        return albumCatalogService.getAlbums(AlbumCatalog.Order.RECENT, offset, count);
     }
 
     /**
@@ -281,7 +421,7 @@ public class MediaFileService {
      * @return The most recently added albums.
      */
     public List<MediaFile> getNewestAlbums(int offset, int count) {
-        return mediaFileDao.getNewestAlbums(offset, count);
+        return albumCatalogService.getAlbums(AlbumCatalog.Order.NEWEST, offset, count);
     }
 
     /**
@@ -306,7 +446,7 @@ public class MediaFileService {
      * @return Albums in alphabetical order.
      */
     public List<MediaFile> getAlphabetialAlbums(int offset, int count, boolean byArtist) {
-        return mediaFileDao.getAlphabetialAlbums(offset, count, byArtist);
+        return albumCatalogService.getAlbums(byArtist ? AlbumCatalog.Order.ALPHABETICAL_BY_ARTIST : AlbumCatalog.Order.ALPHABETICAL_BY_NAME, offset, count);
     }
 
     public Date getMediaFileStarredDate(int id, String username) {
@@ -337,17 +477,25 @@ public class MediaFileService {
             storedChildrenMap.put(child.getPath(), child);
         }
 
-        List<File> children = filterMediaFiles(FileUtil.listFiles(parent.getFile()));
-        for (File child : children) {
-            if (storedChildrenMap.remove(child.getPath()) == null) {
+        boolean changed = false;
+        List<DirectorySnapshot.Entry> children = filterMediaFiles(DirectorySnapshot.read(parent.getFile()));
+        for (DirectorySnapshot.Entry child : children) {
+            if (storedChildrenMap.remove(child.getFile().getPath()) == null) {
                 // Add children that are not already stored.
-                mediaFileDao.createOrUpdateMediaFile(createMediaFile(child));
+                mediaFileDao.createOrUpdateMediaFile(createMediaFile(child, null));
+                changed = true;
             }
         }
 
         // Delete children that no longer exist on disk.
         for (String path : storedChildrenMap.keySet()) {
             mediaFileDao.deleteMediaFile(path);
+            changed = true;
+        }
+
+        // Albums may have been added or removed.
+        if (changed) {
+            albumCatalogService.invalidate();
         }
 
         // Update timestamp in parent.
@@ -367,22 +515,27 @@ public class MediaFileService {
         return result;
     }
 
-    private boolean isAudioFile(String suffix) {
-        for (String s : settingsService.getMusicFileTypesAsArray()) {
-            if (suffix.equals(s.toLowerCase())) {
-                return true;
+    /**
+     * Returns the entries of the given directory snapshot that are media files or directories.
+     * Unlike {@link #filterMediaFiles(File[])}, this requires no file system access.
+     */
+    public List<DirectorySnapshot.Entry> filterMediaFiles(DirectorySnapshot snapshot) {
+        List<DirectorySnapshot.Entry> result = new ArrayList<DirectorySnapshot.Entry>();
+        for (DirectorySnapshot.Entry entry : snapshot.getEntries()) {
+            String suffix = entry.getSuffix();
+            if (!isExcluded(entry.getFile()) && (entry.isDirectory() || isAudioFile(suffix) || isVideoFile(suffix))) {
+                result.add(entry);
             }
         }
-        return false;
+        return result;
+    }
+
+    private boolean isAudioFile(String suffix) {
+        return settingsService.getMusicFileTypesAsSet().contains(suffix);
     }
 
     private boolean isVideoFile(String suffix) {
-        for (String s : settingsService.getVideoFileTypesAsArray()) {
-            if (suffix.equals(s.toLowerCase())) {
-                return true;
-            }
-        }
-        return false;
+        return settingsService.getVideoFileTypesAsSet().contains(suffix);
     }
 
     /**
@@ -398,12 +551,41 @@ public class MediaFileService {
         return name.startsWith(".") || name.startsWith("@eaDir") || name.equals("Thumbs.db");
     }
 
-    private MediaFile createMediaFile(File file) {
+    /**
+     * Creates a media file by reading the given file from disk.  The result is not stored in
+     * the database or the memory cache.
+     */
+    MediaFile createMediaFile(File file) {
+        return createMediaFile(DirectorySnapshot.readEntry(file), null);
+    }
+
+    /**
+     * Creates a media file by reading the given file from disk.  The result is not stored in
+     * the database or the memory cache.
+     *
+     * @param entry    The file, with the attributes read from disk.
+     * @param children If the file is a directory, a snapshot of it, or <code>null</code> to read it.
+     */
+    MediaFile createMediaFile(DirectorySnapshot.Entry entry, DirectorySnapshot children) {
+        return createMediaFile(entry, children, true);
+    }
 
+    /**
+     * Creates a media file by reading the given file from disk.  The result is not stored in
+     * the database or the memory cache.
+     *
+     * @param entry         The file, with the attributes read from disk.
+     * @param children      If the file is a directory, a snapshot of it, or <code>null</code> to read it.
+     * @param parseMetaData Whether to parse the meta data of the file (or of the first file of an
+     *                      album directory).  If false, only the attributes of the file are used.
+     */
+    MediaFile createMediaFile(DirectorySnapshot.Entry entry, DirectorySnapshot children, boolean parseMetaData) {
+
+        File file = entry.getFile();
         MediaFile existingFile = mediaFileDao.getMediaFile(file.getPath());
 
         MediaFile mediaFile = new MediaFile();
-        Date lastModified = new Date(FileUtil.lastModified(file));
+        Date lastModified = new Date(entry.getLastModified());
         mediaFile.setPath(file.getPath());
         mediaFile.setFolder(securityService.getRootFolderForFile(file));
         mediaFile.setParentPath(file.getParent());
@@ -417,9 +599,9 @@ public class MediaFileService {
         mediaFile.setMediaType(DIRECTORY);
         mediaFile.setPresent(true);
 
-        if (file.isFile()) {
+        if (entry.isFile()) {
 
-            MetaDataParser parser = metaDataParserFactory.getParser(file);
+            MetaDataParser parser = parseMetaData ? metaDataParserFactory.getParser(file) : null;
             if (parser != null) {
                 MetaData metaData = parser.getMetaData(file);
                 mediaFile.setArtist(metaData.getArtist());
@@ -438,18 +620,20 @@ public class MediaFileService {
             }
             String format = StringUtils.trimToNull(StringUtils.lowerCase(FilenameUtils.getExtension(mediaFile.getPath())));
             mediaFile.setFormat(format);
-            mediaFile.setFileSize(FileUtil.length(file));
+            mediaFile.setFileSize(entry.getSize());
             mediaFile.setMediaType(getMediaType(mediaFile));
 
         } else {
 
             // Is this an album?
             if (!isRoot(mediaFile)) {
-                File[] children = FileUtil.listFiles(file);
+                if (children == null) {
+                    children = DirectorySnapshot.read(file);
+                }
                 File firstChild = null;
-                for (File child : filterMediaFiles(children)) {
-                    if (FileUtil.isFile(child)) {
-                        firstChild = child;
+                for (DirectorySnapshot.Entry child : filterMediaFiles(children)) {
+                    if (child.isFile()) {
+                        firstChild = child.getFile();
                         break;
                     }
                 }
@@ -458,7 +642,7 @@ public class MediaFileService {
                     mediaFile.setMediaType(ALBUM);
 
                     // Guess artist/album name and year.
-                    MetaDataParser parser = metaDataParserFactory.getParser(firstChild);
+                    MetaDataParser parser = parseMetaData ? metaDataParserFactory.getParser(firstChild) : null;
                     if (parser != null) {
                         MetaData metaData = parser.getMetaData(firstChild);
                         mediaFile.setArtist(metaData.getArtist());
@@ -468,7 +652,7 @@ public class MediaFileService {
 
                     // Look for cover art.
                     try {
-                        File coverArt = findCoverArt(children);
+                        File coverArt = findCoverArt(children.getEntries(), parseMetaData);
                         if (coverArt != null) {
                             mediaFile.setCoverArtPath(coverArt.getPath());
                         }
@@ -503,7 +687,6 @@ public class MediaFileService {
     public void refreshMediaFile(MediaFile mediaFile) {
         mediaFile = createMediaFile(mediaFile.getFile());
         mediaFileDao.createOrUpdateMediaFile(mediaFile);
-        mediaFileMemoryCache.remove(mediaFile.getFile());
     }
 
     /**
@@ -519,21 +702,33 @@ public class MediaFileService {
 
     /**
      * Finds a cover art image for the given directory, by looking for it on the disk.
+     *
+     * @param includeEmbedded Whether to look for an image embedded in the first audio file.
      */
-    private File findCoverArt(File[] candidates) throws IOException {
+    private File findCoverArt(List<DirectorySnapshot.Entry> candidates, boolean includeEmbedded) throws IOException {
         for (String mask : settingsService.getCoverArtFileTypesAsArray()) {
-            for (File candidate : candidates) {
+            for (DirectorySnapshot.Entry candidate : candidates) {
                 if (candidate.isFile() && candidate.getName().toUpperCase().endsWith(mask.toUpperCase()) && !candidate.getName().startsWith(".")) {
-                    return candidate;
+                    return candidate.getFile();
                 }
             }
         }
 
+        if (!includeEmbedded) {
+            return null;
+        }
+
         // Look for embedded images in audiofiles. (Only check first audio file encountered).
+        // The file is not looked up with getMediaFile(), since that would register it in the
+        // database ahead of its directory, and outside the writer of a pipelined scan.
         JaudiotaggerParser parser = new JaudiotaggerParser();
-        for (File candidate : candidates) {
+        parser.setMetaDataCache(metaDataCache);
+        for (DirectorySnapshot.Entry entry : candidates) {
+            File candidate = entry.getFile();
             if (parser.isApplicable(candidate)) {
-                if (parser.isImageAvailable(getMediaFile(candidate))) {
+                MediaFile file = new MediaFile();
+                file.setPath(candidate.getPath());
+                if (parser.isImageAvailable(file)) {
                     return candidate;
                 } else {
                     return null;
@@ -551,14 +746,18 @@ public class MediaFileService {
         this.settingsService = settingsService;
     }
 
-    public void setMediaFileMemoryCache(Ehcache mediaFileMemoryCache) {
-        this.mediaFileMemoryCache = mediaFileMemoryCache;
+    public void setMediaFileCache(MediaFileCache mediaFileCache) {
+        this.mediaFileCache = mediaFileCache;
     }
 
     public void setMediaFileDao(MediaFileDao mediaFileDao) {
         this.mediaFileDao = mediaFileDao;
     }
 
+    public void setMetaDataCache(MetaDataCache metaDataCache) {
+        this.metaDataCache = metaDataCache;
+    }
+
     /**
      * Returns all media files that are children, grand-children etc of a given media file.
      * Directories are not included in the result.
@@ -594,19 +793,25 @@ public class MediaFileService {
 
     /**
      * Increments the play count and last played date for the given media file and its
-     * directory and album.
+     * directory and album, and reindexes them, since search results include the play count.
      */
     public void incrementPlayCount(MediaFile file) {
         Date now = new Date();
+        List<MediaFile> playedFiles = new ArrayList<MediaFile>();
+        List<Album> playedAlbums = new ArrayList<Album>();
+
         file.setLastPlayed(now);
         file.setPlayCount(file.getPlayCount() + 1);
         updateMediaFile(file);
+        playedFiles.add(file);
 
         MediaFile parent = getParentOf(file);
         if (!isRoot(parent)) {
             parent.setLastPlayed(now);
             parent.setPlayCount(parent.getPlayCount() + 1);
             updateMediaFile(parent);
+            albumCatalogService.albumPlayed(parent);
+            playedFiles.add(parent);
         }
 
         Album album = albumDao.getAlbum(file.getAlbumArtist(), file.getAlbumName());
@@ -614,11 +819,23 @@ public class MediaFileService {
             album.setLastPlayed(now);
             album.setPlayCount(album.getPlayCount() + 1);
             albumDao.createOrUpdateAlbum(album);
+            albumCatalogService.albumPlayed(album);
+            playedAlbums.add(album);
         }
+
+        searchService.updateIndex(playedFiles, Collections.<Integer>emptyList(), playedAlbums, Collections.<Artist>emptyList());
     }
 
     public void setAlbumDao(AlbumDao albumDao) {
         this.albumDao = albumDao;
     }
 
+    public void setAlbumCatalogService(AlbumCatalogService albumCatalogService) {
+        this.albumCatalogService = albumCatalogService;
+    }
+
+    public void setSearchService(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
 }
@@ -0,0 +1,355 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ObjectUtils;
+
+import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.dao.AlbumDao;
+import net.sourceforge.subsonic.dao.ArtistDao;
+import net.sourceforge.subsonic.dao.MediaFileDao;
+import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.Artist;
+import net.sourceforge.subsonic.domain.MediaFile;
+import net.sourceforge.subsonic.domain.MusicFolder;
+import net.sourceforge.subsonic.util.FileUtil;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the music folders for changes, and updates the database and search index for the
+ * affected directories only.  This makes small additions to the library visible within seconds,
+ * without waiting for the next media scan.
+ * <p/>
+ * Events are debounced: A directory is not processed until no events have been received for it
+ * for a while.  Directories that change while a media scan is in progress are held back until
+ * the scan has completed.
+ *
+ * @author Sindre Mehus
+ * @see MediaScannerService
+ */
+public class MediaFolderWatchService {
+
+    private static final Logger LOG = Logger.getLogger(MediaFolderWatchService.class);
+
+    private SettingsService settingsService;
+    private MediaFileService mediaFileService;
+    private MediaScannerService mediaScannerService;
+    private SearchService searchService;
+    private AlbumCatalogService albumCatalogService;
+    private Id3GraphService id3GraphService;
+    private MediaFileDao mediaFileDao;
+    private ArtistDao artistDao;
+    private AlbumDao albumDao;
+
+    private WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+
+    // Maps from directory to the time of the latest event in it.
+    private final Map<File, Long> pendingDirectories = new LinkedHashMap<File, Long>();
+
+    public void init() {
+        if (!settingsService.isMediaFolderWatchEnabled()) {
+            LOG.info("Watching of music folders disabled.");
+            return;
+        }
+
+        Thread thread = new Thread("MediaFolderWatcher") {
+            @Override
+            public void run() {
+                try {
+                    watchService = FileSystems.getDefault().newWatchService();
+                    for (MusicFolder musicFolder : settingsService.getAllMusicFolders()) {
+                        registerTree(musicFolder.getPath().toPath(), false, 0L);
+                    }
+                    LOG.info("Watching " + watchedDirectories.size() + " directories in music folders.");
+                    watch();
+                } catch (Throwable x) {
+                    LOG.error("Failed to watch music folders.", x);
+                } finally {
+                    FileUtil.closeQuietly(watchService);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Watches the given directory and all directories below it.
+     *
+     * @param pending Whether to queue the directories for updating, e.g., because they have just
+     *                been created and their contents have not been seen by any event.
+     * @param now     The time of the event that caused the directories to be queued.
+     */
+    private void registerTree(Path root, final boolean pending, final long now) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.getFileName() != null && dir.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                try {
+                    WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                    watchedDirectories.put(key, dir);
+                } catch (IOException x) {
+                    LOG.warn("Failed to watch " + dir + ": " + x);
+                }
+                if (pending) {
+                    pendingDirectories.put(dir.toFile(), now);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException x) {
+                LOG.warn("Failed to watch " + file + ": " + x);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException x) {
+                if (x != null) {
+                    LOG.warn("Failed to watch all of " + dir + ": " + x);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch() throws Exception {
+        while (true) {
+            WatchKey key = watchService.poll(1, TimeUnit.SECONDS);
+            while (key != null) {
+                handleEvents(key);
+                key = watchService.poll();
+            }
+            processPendingDirectories();
+        }
+    }
+
+    private void handleEvents(WatchKey key) throws IOException {
+        Path dir = watchedDirectories.get(key);
+        long now = System.currentTimeMillis();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                continue;
+            }
+            if (event.kind() == OVERFLOW) {
+                // Events were lost, so anything in or below the directory may have changed,
+                // including directories which are not watched yet.
+                LOG.debug("Too many changes in " + dir + ", updating all directories below it.");
+                registerTree(dir, true, now);
+                continue;
+            }
+            pendingDirectories.put(dir.toFile(), now);
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                // Files may have been added to the new directories before they were watched.
+                registerTree(child, true, now);
+            }
+        }
+
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    private void processPendingDirectories() {
+        if (pendingDirectories.isEmpty() || mediaScannerService.isScanning()) {
+            return;
+        }
+
+        long threshold = System.currentTimeMillis() - settingsService.getMediaFolderWatchDelaySeconds() * 1000L;
+        List<File> dirs = new ArrayList<File>();
+        for (Iterator<Map.Entry<File, Long>> iterator = pendingDirectories.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<File, Long> entry = iterator.next();
+            if (entry.getValue() < threshold) {
+                dirs.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+
+        for (File dir : dirs) {
+            try {
+                updateDirectory(dir);
+            } catch (Throwable x) {
+                LOG.warn("Failed to update " + dir, x);
+            }
+        }
+    }
+
+    /**
+     * Synchronizes the given directory and its immediate children with the database and the search index.
+     */
+    private void updateDirectory(File dir) {
+        if (!FileUtil.exists(dir, false)) {
+            // The parent directory will be updated too, which marks this one as non-present.
+            // Any descendants are removed by the next media scan.
+            return;
+        }
+        LOG.debug("Updating " + dir);
+
+        Set<Integer> previousChildren = new HashSet<Integer>();
+        for (MediaFile child : mediaFileDao.getChildrenOf(dir.getPath())) {
+            previousChildren.add(child.getId());
+        }
+
+        MediaFile directory = mediaFileDao.getMediaFile(dir.getPath());
+        if (directory == null || !mediaFileService.isUpToDate(directory)) {
+            directory = mediaFileService.createMediaFile(dir);
+            mediaFileDao.createOrUpdateMediaFile(directory);
+        }
+
+        List<MediaFile> mediaFiles = new ArrayList<MediaFile>();
+        mediaFiles.add(directory);
+        mediaFiles.addAll(mediaFileService.getChildrenOf(directory, true, true, false, false));
+
+        Map<Integer, Album> albums = new LinkedHashMap<Integer, Album>();
+        Map<Integer, Artist> artists = new LinkedHashMap<Integer, Artist>();
+        for (MediaFile file : mediaFiles) {
+            previousChildren.remove(file.getId());
+            if (file.isAudio() && file.getAlbumName() != null && file.getArtist() != null) {
+                Album album = updateAlbum(file, directory);
+                albums.put(album.getId(), album);
+                Artist artist = updateArtist(album, directory);
+                artists.put(artist.getId(), artist);
+            }
+        }
+
+        searchService.updateIndex(mediaFiles, new ArrayList<Integer>(previousChildren),
+                new ArrayList<Album>(albums.values()), new ArrayList<Artist>(artists.values()));
+        albumCatalogService.invalidate();
+        id3GraphService.invalidate();
+    }
+
+    private Album updateAlbum(MediaFile file, MediaFile directory) {
+        Album album = albumDao.getAlbumForFile(file);
+        if (album == null) {
+            album = new Album();
+            album.setPath(file.getParentPath());
+            album.setName(file.getAlbumName());
+            album.setArtist(file.getArtist());
+            album.setCreated(file.getChanged());
+        }
+        if (album.getCoverArtPath() == null) {
+            album.setCoverArtPath(directory.getCoverArtPath());
+        }
+
+        // Update the file's album artist, if necessary.
+        if (!ObjectUtils.equals(album.getArtist(), file.getAlbumArtist())) {
+            file.setAlbumArtist(album.getArtist());
+            mediaFileDao.createOrUpdateMediaFile(file);
+        }
+
+        int songCount = 0;
+        int durationSeconds = 0;
+        for (MediaFile song : mediaFileDao.getSongsForAlbum(album.getArtist(), album.getName())) {
+            songCount++;
+            if (song.getDurationSeconds() != null) {
+                durationSeconds += song.getDurationSeconds();
+            }
+        }
+        album.setSongCount(songCount);
+        album.setDurationSeconds(durationSeconds);
+        album.setLastScanned(new Date());
+        album.setPresent(true);
+        albumDao.createOrUpdateAlbum(album);
+        return album;
+    }
+
+    private Artist updateArtist(Album album, MediaFile directory) {
+        Artist artist = artistDao.getArtist(album.getArtist());
+        if (artist == null) {
+            artist = new Artist();
+            artist.setName(album.getArtist());
+        }
+        if (artist.getCoverArtPath() == null) {
+            artist.setCoverArtPath(directory.getCoverArtPath());
+        }
+        artist.setAlbumCount(albumDao.getAlbumsForArtist(artist.getName()).size());
+        artist.setLastScanned(new Date());
+        artist.setPresent(true);
+        artistDao.createOrUpdateArtist(artist);
+        return artist;
+    }
+
+    public void setSettingsService(SettingsService settingsService) {
+        this.settingsService = settingsService;
+    }
+
+    public void setMediaFileService(MediaFileService mediaFileService) {
+        this.mediaFileService = mediaFileService;
+    }
+
+    public void setMediaScannerService(MediaScannerService mediaScannerService) {
+        this.mediaScannerService = mediaScannerService;
+    }
+
+    public void setSearchService(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
+    public void setMediaFileDao(MediaFileDao mediaFileDao) {
+        this.mediaFileDao = mediaFileDao;
+    }
+
+    public void setArtistDao(ArtistDao artistDao) {
+        this.artistDao = artistDao;
+    }
+
+    public void setAlbumDao(AlbumDao albumDao) {
+        this.albumDao = albumDao;
+    }
+
+    public void setAlbumCatalogService(AlbumCatalogService albumCatalogService) {
+        this.albumCatalogService = albumCatalogService;
+    }
+
+    public void setId3GraphService(Id3GraphService id3GraphService) {
+        this.id3GraphService = id3GraphService;
+    }
+}
@@ -19,12 +19,34 @@
 package net.sourceforge.subsonic.service;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.ObjectUtils;
 
@@ -38,6 +60,7 @@ import net.sourceforge.subsonic.domain.Artist;
 import net.sourceforge.subsonic.domain.MediaFile;
 import net.sourceforge.subsonic.domain.MediaLibraryStatistics;
 import net.sourceforge.subsonic.domain.MusicFolder;
+import net.sourceforge.subsonic.util.DirectorySnapshot;
 import net.sourceforge.subsonic.util.FileUtil;
 
 /**
@@ -48,6 +71,7 @@ import net.sourceforge.subsonic.util.FileUtil;
 public class MediaScannerService {
 
     private static final int INDEX_VERSION = 15;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 30000L;
     private static final Logger LOG = Logger.getLogger(MediaScannerService.class);
     
     public static final String MEDIA_SCANNER_LOGGER_NAME = "net.sourceforge.subsonic.MEDIA_SCANNER_LOGGER";
@@ -65,7 +89,18 @@ public class MediaScannerService {
     private MediaFileDao mediaFileDao;
     private ArtistDao artistDao;
     private AlbumDao albumDao;
-    private int scanCount;
+    private ScanGovernor scanGovernor;
+    private SuggestionService suggestionService;
+    private AlbumCatalogService albumCatalogService;
+    private Id3GraphService id3GraphService;
+    private volatile int scanCount;
+    private WriteBatch writeBatch;
+    private AlbumArtistAggregates aggregates;
+    private boolean deltaScan;
+    private ScanCheckpoint checkpoint;
+    private long lastCheckpointTime;
+    private boolean fullIndex;
+    private Date previousGeneration;
 
     public void init() {
         deleteOldIndexFiles();
@@ -85,7 +120,7 @@ public class MediaScannerService {
         TimerTask task = new TimerTask() {
             @Override
             public void run() {
-                scanLibrary();
+                scanLibrary(settingsService.isDeltaScanEnabled());
             }
         };
 
@@ -118,6 +153,12 @@ public class MediaScannerService {
         if (settingsService.getLastScanned() == null) {
             LOG.info("Media library never scanned. Doing it now.");
             scanLibrary();
+        } else if (getCheckpointFile().exists()) {
+            LOG.info("Media library scan was interrupted. Resuming it now.");
+            scanLibrary();
+        } else if (!searchService.indexExists()) {
+            LOG.info("Search index not found. Scanning media library now.");
+            scanLibrary();
         }
     }
 
@@ -135,11 +176,31 @@ public class MediaScannerService {
         return scanCount;
     }
 
+    /**
+     * Returns whether the current scan is running at full speed, or is slowed down or paused
+     * because music is being streamed.
+     */
+    public ScanGovernor.State getThrottleState() {
+        return isScanning() ? scanGovernor.getState() : ScanGovernor.State.FULL_SPEED;
+    }
+
     /**
      * Scans the media library.
      * The scanning is done asynchronously, i.e., this method returns immediately.
      */
     public synchronized void scanLibrary() {
+        scanLibrary(false);
+    }
+
+    /**
+     * Scans the media library.
+     * The scanning is done asynchronously, i.e., this method returns immediately.
+     * If the previous scan was interrupted, it is resumed instead.
+     *
+     * @param delta Whether to skip the files of directories that are unchanged since the previous
+     *              scan.  Ignored if the library has never been scanned.
+     */
+    public synchronized void scanLibrary(final boolean delta) {
         if (isScanning()) {
             return;
         }
@@ -148,9 +209,16 @@ public class MediaScannerService {
         Thread thread = new Thread("MediaLibraryScanner") {
             @Override
             public void run() {
-                doScanLibrary();
-                playlistService.importPlaylists();
-                playlistService.updatePlaylistStatistics();
+                id3GraphService.beginUpdate();
+                try {
+                    doScanLibrary(delta);
+                    playlistService.importPlaylists();
+                    playlistService.updatePlaylistStatistics();
+                    suggestionService.rebuild();
+                    albumCatalogService.rebuild();
+                } finally {
+                    id3GraphService.endUpdate();
+                }
             }
         };
 
@@ -162,28 +230,59 @@ public class MediaScannerService {
      * Process the media library scanning.
      * 
      */
-    private void doScanLibrary() {
-        LOG.info("Starting to scan media library.");
-        MEDIA_SCANNER_LOGGER.info("Starting to scan media library.");
+    void doScanLibrary(boolean delta) {
+        checkpoint = loadCheckpoint();
+        boolean resumed = checkpoint != null;
+        if (resumed) {
+            deltaScan = checkpoint.isDelta();
+            LOG.info("Resuming interrupted scan of media library" + (deltaScan ? " (delta)." : "."));
+            MEDIA_SCANNER_LOGGER.info("Resuming interrupted scan of media library" + (deltaScan ? " (delta)." : "."));
+        } else {
+            deltaScan = delta && settingsService.getLastScanned() != null;
+            checkpoint = new ScanCheckpoint(getCheckpointFile(), new Date(), deltaScan);
+            LOG.info("Starting to scan media library" + (deltaScan ? " (delta)." : "."));
+            MEDIA_SCANNER_LOGGER.info("Starting to scan media library" + (deltaScan ? " (delta)." : "."));
+        }
 
         try {
-            Date lastScanned = new Date();
-            Map<String, Integer> albumCount = new HashMap<String, Integer>();
-            scanCount = 0;
-            statistics.reset();
-
-            searchService.startIndexing();
-
-            // Recurse through all files on disk.
-            for (MusicFolder musicFolder : settingsService.getAllMusicFolders()) {
-                MediaFile root = mediaFileService.getMediaFile(musicFolder.getPath(), false);
-                if (MEDIA_SCANNER_LOGGER.isDebugEnabled()) {
-                	MEDIA_SCANNER_LOGGER.debug("MEDIA FOLDER : "+musicFolder.getName()+" ("+musicFolder.getPath()+") : begin scanning");
+            Date lastScanned = checkpoint.getGeneration();
+            Map<String, Integer> albumCount = new HashMap<String, Integer>(checkpoint.getAlbumCount());
+            scanCount = checkpoint.getScanCount();
+            writeBatch = new WriteBatch(lastScanned);
+            aggregates = new AlbumArtistAggregates();
+            statistics = checkpoint.getStatistics();
+            lastCheckpointTime = System.currentTimeMillis();
+
+            // Only items that may have changed since the previous scan are indexed, unless the
+            // index is new.
+            previousGeneration = settingsService.getLastScanned();
+            boolean indexExists = searchService.startIndexing();
+            fullIndex = checkpoint.isFullIndex() || !indexExists || previousGeneration == null;
+            checkpoint.setFullIndex(fullIndex);
+
+            if (settingsService.isScanPipelineEnabled()) {
+                scanPipelined(settingsService.getAllMusicFolders(), lastScanned, albumCount);
+            } else {
+                // Recurse through all files on disk.
+                for (MusicFolder musicFolder : settingsService.getAllMusicFolders()) {
+                    MediaFile root = mediaFileService.getMediaFile(musicFolder.getPath(), false);
+                    if (MEDIA_SCANNER_LOGGER.isDebugEnabled()) {
+                        MEDIA_SCANNER_LOGGER.debug("MEDIA FOLDER : "+musicFolder.getName()+" ("+musicFolder.getPath()+") : begin scanning");
+                    }
+                    scanFile(root, musicFolder, lastScanned, albumCount, false);
+
+                    // Write the albums and artists of the music folder, and release them.
+                    saveCheckpoint(albumCount);
                 }
-                scanFile(root, musicFolder, lastScanned, albumCount);
             }
+            saveCheckpoint(albumCount);
             LOG.info("Scanned media library with " + scanCount + " entries.");
 
+            // Only now that the whole library has been scanned in this generation, it is safe
+            // to remove what was not seen.
+            List<Integer> missingFiles = mediaFileDao.getIdsNotScanned(lastScanned);
+            List<Integer> missingArtists = artistDao.getIdsNotScanned(lastScanned);
+            List<Integer> missingAlbums = albumDao.getIdsNotScanned(lastScanned);
             LOG.info("Marking non-present files.");
             mediaFileDao.markNonPresent(lastScanned);
             LOG.info("Marking non-present artists.");
@@ -191,6 +290,10 @@ public class MediaScannerService {
             LOG.info("Marking non-present albums.");
             albumDao.markNonPresent(lastScanned);
 
+            // Commit before completing the scan, since non-present items are not found again.
+            searchService.removeFromIndex(missingFiles, missingArtists, missingAlbums);
+            searchService.commitIndexing();
+
             // Update statistics
             statistics.incrementArtists(albumCount.size());
             for (Integer albums : albumCount.values()) {
@@ -200,34 +303,351 @@ public class MediaScannerService {
             settingsService.setMediaLibraryStatistics(statistics);
             settingsService.setLastScanned(lastScanned);
             settingsService.save(false);
+            checkpoint.delete();
             LOG.info("Completed media library scan.");
 
         } catch (Throwable x) {
             LOG.error("Failed to scan media library.", x);
         } finally {
             scanning = false;
+            writeBatch = null;
+            aggregates = null;
+            checkpoint = null;
             searchService.stopIndexing();
         }
     }
 
+    /**
+     * Loads the checkpoint of an interrupted scan, if any.  Checkpoints older than the last
+     * completed scan are deleted.
+     */
+    private ScanCheckpoint loadCheckpoint() {
+        ScanCheckpoint result = ScanCheckpoint.load(getCheckpointFile());
+        Date lastScanned = settingsService.getLastScanned();
+        if (result != null && lastScanned != null && !result.getGeneration().after(lastScanned)) {
+            result.delete();
+            return null;
+        }
+        return result;
+    }
+
+    private File getCheckpointFile() {
+        return new File(SettingsService.getSubsonicHome(), "scan-checkpoint.properties");
+    }
+
+    /**
+     * Reports that a top-level directory of a music folder (or the files directly in the music
+     * folder) has been scanned, and saves a checkpoint if it's time to.  Must only be called when
+     * everything registered so far belongs to completed units, since saving a checkpoint writes
+     * all pending albums, artists and search index documents.
+     */
+    private void unitCompleted(String path, Map<String, Integer> albumCount) {
+        checkpoint.unitCompleted(path);
+        saveCheckpointIfDue(albumCount);
+    }
+
+    /**
+     * Saves a checkpoint if it's time to and no walker of the scan pipeline is in the middle of
+     * a unit, since the writes of a partially scanned unit must not be part of a checkpoint.
+     *
+     * @param force Whether to save the checkpoint even if it's not time to, e.g., to write the
+     *              albums and artists of a completed music folder.
+     * @return Whether the checkpoint was saved.
+     */
+    private boolean saveCheckpointIfClean(List<DirectoryWalker> walkers, Map<String, Integer> albumCount, boolean force) {
+        for (DirectoryWalker walker : walkers) {
+            if (walker.dirty) {
+                return false;
+            }
+        }
+        if (force || isCheckpointDue()) {
+            saveCheckpoint(albumCount);
+            return true;
+        }
+        return false;
+    }
+
+    private void saveCheckpointIfDue(Map<String, Integer> albumCount) {
+        if (isCheckpointDue()) {
+            saveCheckpoint(albumCount);
+        }
+    }
+
+    private boolean isCheckpointDue() {
+        return System.currentTimeMillis() - lastCheckpointTime >= CHECKPOINT_INTERVAL_MILLIS;
+    }
+
+    private void saveCheckpoint(Map<String, Integer> albumCount) {
+        lastCheckpointTime = System.currentTimeMillis();
+        writeBatch.flush();
+        aggregates.flush();
+        try {
+            searchService.commitIndexing();
+            checkpoint.save(scanCount, statistics, albumCount);
+        } catch (Exception x) {
+            LOG.warn("Failed to save media scan checkpoint: " + x);
+        }
+    }
+
     /**
      * Scan a folder or a file.
      * 
      * @param musicFolder The logical Music Folder managed by Subsonic
      * 
      */
-    private void scanFile(MediaFile file, MusicFolder musicFolder, Date lastScanned, Map<String, Integer> albumCount) {
+    private void scanFile(MediaFile file, MusicFolder musicFolder, Date lastScanned, Map<String, Integer> albumCount, boolean carried) {
+        scanGovernor.await();
+
+        // A music folder whose own files were completed before the scan was interrupted.
+        boolean root = file.getPath().equals(musicFolder.getPath().getPath());
+        boolean resumed = root && checkpoint.isCompleted(file.getPath());
+
+        if (file.isDirectory()) {
+            writeBatch.flush();
+        }
+
+        // In a delta scan, children of unchanged directories are taken as-is from the database,
+        // so directories among them must be checked here.
+        boolean unchanged = false;
+        if (deltaScan && file.isDirectory()) {
+            if (mediaFileService.isUpToDate(file)) {
+                unchanged = isDirectoryUnchanged(file);
+            } else {
+                file = mediaFileService.createMediaFile(file.getFile());
+                mediaFileDao.createOrUpdateMediaFile(file);
+                carried = false;
+            }
+        }
+
+        if (!resumed) {
+            registerFile(file, musicFolder, lastScanned, albumCount, carried);
+        }
+
+        if (file.isDirectory()) {
+
+            // Read the children before carrying them forward.  registerFile() uses their last
+            // scanned date to tell whether they need indexing, and carrying forward changes it.
+            List<MediaFile> files = resumed ? Collections.<MediaFile>emptyList() : mediaFileService.getChildrenOf(file, true, false, false, unchanged);
+            List<MediaFile> directories = mediaFileService.getChildrenOf(file, false, true, false, unchanged);
+            if (unchanged) {
+                carryForwardChildren(file, lastScanned);
+            }
+
+            for (MediaFile child : files) {
+                scanFile(child, musicFolder, lastScanned, albumCount, unchanged);
+            }
+            if (root) {
+                unitCompleted(file.getPath(), albumCount);
+            }
+            for (MediaFile child : directories) {
+                if (root && checkpoint.isCompleted(child.getPath())) {
+                    continue;
+                }
+                scanFile(child, musicFolder, lastScanned, albumCount, unchanged);
+                if (root) {
+                    unitCompleted(child.getPath(), albumCount);
+                }
+            }
+            if (deltaScan && !unchanged) {
+                recordSnapshot(file.getFile());
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given (up-to-date) directory is unchanged since its children were last
+     * synchronized, judging by its modification time and the number of entries in it.
+     */
+    private boolean isDirectoryUnchanged(MediaFile dir) {
+        if (dir.getChildrenLastUpdated().getTime() < dir.getChanged().getTime()) {
+            return false;
+        }
+        int entryCount = mediaFileDao.getEntryCount(dir.getPath());
+        return entryCount >= 0 && entryCount == countEntries(dir.getFile());
+    }
+
+    /**
+     * Records the state of the given directory after its children have been synchronized, for
+     * use by later delta scans.
+     */
+    private void recordSnapshot(File dir) {
+        int entryCount = countEntries(dir);
+        if (entryCount >= 0) {
+            mediaFileDao.setEntryCount(dir.getPath(), entryCount);
+        }
+    }
+
+    /**
+     * Marks the children of an unchanged directory, and their artists, as present in the current scan.
+     */
+    private void carryForwardChildren(MediaFile dir, Date lastScanned) {
+        mediaFileDao.markChildrenPresent(dir.getPath(), lastScanned);
+        artistDao.markPresentForChildrenOf(dir.getPath(), lastScanned);
+    }
+
+    private static int countEntries(File dir) {
+        String[] names = dir.list();
+        return names == null ? -1 : names.length;
+    }
+
+    /**
+     * Scans the given music folders using a pipeline of three stages: Threads walking the
+     * directory trees, pools of threads parsing metadata, and a single writer (the current
+     * thread) updating the database and the search index.
+     * <p/>
+     * Music folders on different storage devices are walked and parsed in parallel, each device
+     * having its own walker and a limited number of parser threads, so that a slow device does not
+     * hold back the others.  Folders on the same device are walked one after another.  Files
+     * from the same device are written in the same order as they are walked, so that directories
+     * are always registered before their children.
+     */
+    private void scanPipelined(List<MusicFolder> musicFolders, Date lastScanned, Map<String, Integer> albumCount) throws Exception {
+        Map<Object, List<MusicFolder>> devices = groupByDevice(musicFolders);
+        // The walker of each device reads from it too.
+        int parserCount = Math.max(1, Math.min(settingsService.getScanParserThreadCount(), settingsService.getScanDeviceReaderCount() - 1));
+        LOG.info("Scanning media library on " + devices.size() + " device(s) using " + parserCount + " metadata parser thread(s) per device.");
+
+        Semaphore progress = new Semaphore(0);
+        List<DirectoryWalker> walkers = new ArrayList<DirectoryWalker>();
+        for (List<MusicFolder> deviceFolders : devices.values()) {
+            DirectoryWalker walker = new DirectoryWalker(walkers.size() + 1, deviceFolders, parserCount, progress);
+            walkers.add(walker);
+            walker.start();
+        }
+
+        try {
+            List<DirectoryWalker> activeWalkers = new ArrayList<DirectoryWalker>(walkers);
+
+            // Whether a music folder has been completed since the albums and artists were last
+            // written.  They are written as soon as no other walker is in the middle of a unit.
+            boolean folderCompleted = false;
+
+            while (!activeWalkers.isEmpty()) {
+
+                // Drain before looking, so that no completion between looking and waiting is missed.
+                progress.drainPermits();
+                boolean idle = true;
+
+                for (Iterator<DirectoryWalker> iterator = activeWalkers.iterator(); iterator.hasNext(); ) {
+                    DirectoryWalker walker = iterator.next();
+                    Future<ScanItem> future = walker.queue.peek();
+                    if (future == null || !future.isDone()) {
+                        continue;
+                    }
+                    walker.queue.remove();
+                    idle = false;
+
+                    // Parse failures are handled by the parsers, so this is a database or disk
+                    // error.  Stop the scan rather than dropping the file, since files which are
+                    // not registered would be marked as non-present.
+                    ScanItem item;
+                    try {
+                        item = future.get();
+                    } catch (ExecutionException x) {
+                        throw new Exception("Failed to scan media file.", x.getCause());
+                    }
+                    if (item == null) {
+                        iterator.remove();
+                        if (walker.failure != null) {
+                            throw new Exception("Failed to walk media library.", walker.failure);
+                        }
+                    } else if (item.unit) {
+                        walker.dirty = false;
+                        checkpoint.unitCompleted(item.file.getPath());
+                    } else if (item.folderEnd) {
+                        folderCompleted = true;
+                    } else {
+                        walker.dirty = true;
+                        writeItem(item, lastScanned, albumCount);
+                        continue;
+                    }
+                    if (saveCheckpointIfClean(activeWalkers, albumCount, folderCompleted)) {
+                        folderCompleted = false;
+                    }
+                }
+
+                if (idle) {
+                    progress.tryAcquire(1, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            for (DirectoryWalker walker : walkers) {
+                walker.interrupt();
+                walker.parsers.shutdownNow();
+            }
+        }
+    }
+
+    private void writeItem(ScanItem item, Date lastScanned, Map<String, Integer> albumCount) {
+        if (item.snapshot) {
+            recordSnapshot(item.file);
+            return;
+        }
+        if (item.mediaFile.isDirectory()) {
+            writeBatch.flush();
+        }
+        if (item.changed) {
+            writeBatch.update(item.mediaFile);
+        }
+        registerFile(item.mediaFile, item.musicFolder, lastScanned, albumCount, item.carried);
+        if (item.unchanged) {
+            carryForwardChildren(item.mediaFile, lastScanned);
+        }
+    }
+
+    /**
+     * Groups the given music folders by the storage device (file store) they are located on.
+     * Folders whose device can't be determined are put in groups of their own.
+     */
+    private Map<Object, List<MusicFolder>> groupByDevice(List<MusicFolder> musicFolders) {
+        Map<Object, List<MusicFolder>> result = new LinkedHashMap<Object, List<MusicFolder>>();
+        for (MusicFolder musicFolder : musicFolders) {
+            Object device;
+            try {
+                device = Files.getFileStore(musicFolder.getPath().toPath());
+            } catch (Exception x) {
+                LOG.warn("Failed to determine storage device of " + musicFolder.getPath() + ": " + x);
+                device = musicFolder.getPath();
+            }
+            List<MusicFolder> deviceFolders = result.get(device);
+            if (deviceFolders == null) {
+                deviceFolders = new ArrayList<MusicFolder>();
+                result.put(device, deviceFolders);
+            }
+            deviceFolders.add(musicFolder);
+        }
+        return result;
+    }
+
+    /**
+     * Registers a single file or directory as part of the current scan: Updates the search index,
+     * albums, artists and statistics, and marks the file as present.  Writes of the file itself are
+     * deferred to the next flush of the {@link WriteBatch}.
+     *
+     * @param carried Whether the file was carried forward from an unchanged directory, in which
+     *                case it has already been marked as present.
+     */
+    private void registerFile(MediaFile file, MusicFolder musicFolder, Date lastScanned, Map<String, Integer> albumCount, boolean carried) {
         scanCount++;
         if (scanCount % 250 == 0) {
             LOG.info("Scanned media library with " + scanCount + " entries.");
         }
 
-        searchService.index(file);
+        boolean index = isIndexRequired(file.getLastScanned(), file.isPresent());
+
+        // Make sure any subsequent writes of the file belong to the current scan.
+        file.setLastScanned(lastScanned);
+        file.setPresent(true);
 
         // Update the root folder if it has changed.
         if (!musicFolder.getPath().getPath().equals(file.getFolder())) {
             file.setFolder(musicFolder.getPath().getPath());
-            mediaFileDao.createOrUpdateMediaFile(file);
+            writeBatch.update(file);
+            index = true;
+        }
+
+        if (index) {
+            writeBatch.index(file);
         }
 
         if (file.isDirectory()) {
@@ -235,12 +655,6 @@ public class MediaScannerService {
         	if (MEDIA_SCANNER_LOGGER.isDebugEnabled()) {
         		MEDIA_SCANNER_LOGGER.debug("Scanning Directory "+file.getName());
         	}
-            for (MediaFile child : mediaFileService.getChildrenOf(file, true, false, false, false)) {
-                scanFile(child, musicFolder, lastScanned, albumCount);
-            }
-            for (MediaFile child : mediaFileService.getChildrenOf(file, false, true, false, false)) {
-                scanFile(child, musicFolder, lastScanned, albumCount);
-            }
         } else {
         	if (MEDIA_SCANNER_LOGGER.isDebugEnabled()) {
         		MEDIA_SCANNER_LOGGER.debug("Register Media File "+file.getName());
@@ -250,8 +664,9 @@ public class MediaScannerService {
             statistics.incrementSongs(1);
         }
 
-        mediaFileDao.markPresent(file.getPath(), lastScanned);
-        artistDao.markPresent(file.getAlbumArtist(), lastScanned);
+        if (!carried) {
+            writeBatch.markPresent(file);
+        }
 
         if (file.getDurationSeconds() != null) {
             statistics.incrementTotalDurationInSeconds(file.getDurationSeconds());
@@ -266,13 +681,14 @@ public class MediaScannerService {
             return;
         }
 
-        Album album = albumDao.getAlbumForFile(file);
+        Album album = aggregates.getAlbumForFile(file);
         if (album == null) {
             album = new Album();
             album.setPath(file.getParentPath());
             album.setName(file.getAlbumName());
             album.setArtist(file.getArtist());
             album.setCreated(file.getChanged());
+            aggregates.addAlbum(album);
         }
         if (album.getCoverArtPath() == null) {
             MediaFile parent = mediaFileService.getParentOf(file);
@@ -294,17 +710,17 @@ public class MediaScannerService {
             album.setSongCount(album.getSongCount() + 1);
         }
 
+        // Albums already encountered by this scan have been dealt with, even if written and
+        // read back from the database since.
+        boolean index = firstEncounter && isIndexRequired(album.getLastScanned(), album.isPresent());
         album.setLastScanned(lastScanned);
         album.setPresent(true);
-        albumDao.createOrUpdateAlbum(album);
-        if (firstEncounter) {
-            searchService.index(album);
-        }
+        aggregates.albumUpdated(album, index);
 
         // Update the file's album artist, if necessary.
         if (!ObjectUtils.equals(album.getArtist(), file.getAlbumArtist())) {
             file.setAlbumArtist(album.getArtist());
-             mediaFileDao.createOrUpdateMediaFile(file);
+            writeBatch.update(file);
         }
     }
 
@@ -313,10 +729,11 @@ public class MediaScannerService {
             return;
         }
 
-        Artist artist = artistDao.getArtist(file.getAlbumArtist());
+        Artist artist = aggregates.getArtist(file.getAlbumArtist());
         if (artist == null) {
             artist = new Artist();
             artist.setName(file.getAlbumArtist());
+            aggregates.addArtist(artist);
         }
         if (artist.getCoverArtPath() == null) {
             MediaFile parent = mediaFileService.getParentOf(file);
@@ -324,18 +741,23 @@ public class MediaScannerService {
                 artist.setCoverArtPath(parent.getCoverArtPath());
             }
         }
-        boolean firstEncounter = !lastScanned.equals(artist.getLastScanned());
-
         Integer n = albumCount.get(artist.getName());
         artist.setAlbumCount(n == null ? 0 : n);
 
+        boolean index = !lastScanned.equals(artist.getLastScanned()) && isIndexRequired(artist.getLastScanned(), artist.isPresent());
         artist.setLastScanned(lastScanned);
         artist.setPresent(true);
-        artistDao.createOrUpdateArtist(artist);
+        aggregates.artistUpdated(artist, index);
+    }
 
-        if (firstEncounter) {
-            searchService.index(artist);
-        }
+    /**
+     * Returns whether a media file, album or artist must be (re)indexed, i.e., whether it may have
+     * changed or been missing from the index since the previous completed scan.  Items that were
+     * unchanged in the previous scan have exactly its generation as time stamp, while items
+     * created or updated since (by this scan, an interrupted one or otherwise) have a later one.
+     */
+    private boolean isIndexRequired(Date lastScanned, boolean present) {
+        return fullIndex || !present || lastScanned == null || lastScanned.after(previousGeneration);
     }
 
     /**
@@ -376,6 +798,459 @@ public class MediaScannerService {
         return new File(home, "subsonic" + version + ".index");
     }
 
+    /**
+     * A file in the scan pipeline.  Parsing is done by calling this object on one of the parser
+     * threads; the result is picked up by the writer.
+     */
+    private class ScanItem implements Callable<ScanItem> {
+        private final File file;
+        private final MusicFolder musicFolder;
+        private DirectorySnapshot.Entry entry;
+        private DirectorySnapshot children;
+        private MediaFile stored;
+        private MediaFile mediaFile;
+        private boolean changed;
+        private boolean carried;
+        private boolean unchanged;
+        private boolean snapshot;
+        private boolean unit;
+        private boolean folderEnd;
+
+        private ScanItem(File file, MusicFolder musicFolder) {
+            this.file = file;
+            this.musicFolder = musicFolder;
+        }
+
+        private ScanItem(MediaFile mediaFile, MusicFolder musicFolder) {
+            this(mediaFile.getFile(), musicFolder);
+            this.mediaFile = mediaFile;
+        }
+
+        /**
+         * Creates an item for a file or directory which has already been read from disk.
+         *
+         * @param children If the entry is a directory, a snapshot of it.
+         */
+        private ScanItem(DirectorySnapshot.Entry entry, DirectorySnapshot children, MusicFolder musicFolder) {
+            this(entry.getFile(), musicFolder);
+            this.entry = entry;
+            this.children = children;
+        }
+
+        public ScanItem call() throws Exception {
+            scanGovernor.await();
+            if (entry == null) {
+                entry = DirectorySnapshot.readEntry(file);
+            }
+            mediaFile = stored != null ? stored : mediaFileDao.getMediaFile(file.getPath());
+            if (mediaFile == null || !mediaFileService.isUpToDate(mediaFile, entry.getLastModified())) {
+                try {
+                    mediaFile = mediaFileService.createMediaFile(entry, children);
+                } catch (Exception x) {
+                    // Register the file anyway, like the sequential scan does with files whose
+                    // meta data can't be read, rather than have it marked as non-present.
+                    LOG.warn("Failed to parse meta data of " + file + ": " + x);
+                    mediaFile = mediaFileService.createMediaFile(entry, children, false);
+                }
+                changed = true;
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Collects the per-file database writes of a scan, and executes them as JDBC batches when
+     * flushed.  The scanner flushes once per directory.  Files are added to the search index
+     * after they have been written, since new files do not get their ID until then.
+     * <p/>
+     * Directories are written immediately, since their children look them up in the database.
+     */
+    private class WriteBatch {
+        private final Date lastScanned;
+        private final Map<String, MediaFile> updatedFiles = new LinkedHashMap<String, MediaFile>();
+        private final Set<String> presentFiles = new LinkedHashSet<String>();
+        private final Set<String> presentArtists = new LinkedHashSet<String>();
+        private final List<MediaFile> indexedFiles = new ArrayList<MediaFile>();
+
+        private WriteBatch(Date lastScanned) {
+            this.lastScanned = lastScanned;
+        }
+
+        private void update(MediaFile file) {
+            if (file.isDirectory()) {
+                mediaFileDao.createOrUpdateMediaFile(file);
+            } else {
+                updatedFiles.put(file.getPath(), file);
+                flushIfFull();
+            }
+        }
+
+        private void markPresent(MediaFile file) {
+            presentFiles.add(file.getPath());
+            if (file.getAlbumArtist() != null) {
+                presentArtists.add(file.getAlbumArtist());
+            }
+            flushIfFull();
+        }
+
+        private void index(MediaFile file) {
+            indexedFiles.add(file);
+            flushIfFull();
+        }
+
+        /**
+         * Flushes early when a single directory holds more files than fit in a JDBC batch.
+         */
+        private void flushIfFull() {
+            int batchSize = mediaFileDao.getBatchSize();
+            if (updatedFiles.size() >= batchSize || presentFiles.size() >= batchSize || indexedFiles.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (!updatedFiles.isEmpty()) {
+                mediaFileDao.createOrUpdateMediaFiles(updatedFiles.values());
+                presentFiles.removeAll(updatedFiles.keySet());
+            }
+            if (!presentFiles.isEmpty()) {
+                mediaFileDao.markPresent(presentFiles, lastScanned);
+            }
+            if (!presentArtists.isEmpty()) {
+                artistDao.markPresent(presentArtists, lastScanned);
+            }
+            for (MediaFile file : indexedFiles) {
+                searchService.index(file);
+            }
+
+            updatedFiles.clear();
+            presentFiles.clear();
+            presentArtists.clear();
+            indexedFiles.clear();
+        }
+    }
+
+    /**
+     * Holds the albums and artists encountered during a scan, so that their song counts, durations
+     * and album counts can be accumulated in memory instead of being read and written for each
+     * file.  Albums and artists are read from the database the first time they are needed, and
+     * modified ones are written in bulk when flushed.  The scanner flushes when saving a checkpoint,
+     * which it does after each music folder.
+     * <p/>
+     * Everything is released when flushed, so only the albums and artists of the current music
+     * folder (or checkpoint interval) are held in memory.  Albums and artists which are needed
+     * again are read back from the database.
+     */
+    private class AlbumArtistAggregates {
+        private final Map<String, List<Album>> albumsByName = new HashMap<String, List<Album>>();
+        private final Map<String, Artist> artistsByName = new HashMap<String, Artist>();
+        private final Set<Album> modifiedAlbums = new LinkedHashSet<Album>();
+        private final Set<Artist> modifiedArtists = new LinkedHashSet<Artist>();
+        private final Set<Album> unindexedAlbums = new HashSet<Album>();
+        private final Set<Artist> unindexedArtists = new HashSet<Artist>();
+
+        // The stored search index fields of the albums and artists, as read from the database.
+        // Used to reindex items whose song count, cover art etc. has changed, even if they need
+        // no indexing otherwise.
+        private final Map<Object, String> indexedSignatures = new IdentityHashMap<Object, String>();
+
+        /**
+         * Returns the album that the given file (most likely) is part of, using the same rules
+         * as {@link AlbumDao#getAlbumForFile(MediaFile)}.
+         */
+        private Album getAlbumForFile(MediaFile file) {
+            return albumDao.getAlbumForFile(file, getAlbumsByName(file.getAlbumName()));
+        }
+
+        private List<Album> getAlbumsByName(String name) {
+            List<Album> albums = albumsByName.get(name);
+            if (albums == null) {
+                albums = albumDao.getAlbumsByName(name);
+                albumsByName.put(name, albums);
+                for (Album album : albums) {
+                    indexedSignatures.put(album, getSignature(album));
+                }
+            }
+            return albums;
+        }
+
+        private void addAlbum(Album album) {
+            getAlbumsByName(album.getName()).add(album);
+        }
+
+        private void albumUpdated(Album album, boolean index) {
+            modifiedAlbums.add(album);
+            if (index) {
+                unindexedAlbums.add(album);
+            }
+        }
+
+        private Artist getArtist(String name) {
+            if (!artistsByName.containsKey(name)) {
+                Artist artist = artistDao.getArtist(name);
+                if (artist != null) {
+                    indexedSignatures.put(artist, getSignature(artist));
+                }
+                artistsByName.put(name, artist);
+            }
+            return artistsByName.get(name);
+        }
+
+        private void addArtist(Artist artist) {
+            artistsByName.put(artist.getName(), artist);
+        }
+
+        private void artistUpdated(Artist artist, boolean index) {
+            modifiedArtists.add(artist);
+            if (index) {
+                unindexedArtists.add(artist);
+            }
+        }
+
+        /**
+         * Writes modified albums and artists to the database, and adds new and changed ones to
+         * the search index (which requires them to have an ID).  Releases all albums and artists.
+         */
+        private void flush() {
+            if (!modifiedAlbums.isEmpty()) {
+                albumDao.createOrUpdateAlbums(modifiedAlbums);
+            }
+            if (!modifiedArtists.isEmpty()) {
+                artistDao.createOrUpdateArtists(modifiedArtists);
+            }
+            for (Album album : modifiedAlbums) {
+                if (unindexedAlbums.contains(album) || !getSignature(album).equals(indexedSignatures.get(album))) {
+                    searchService.index(album);
+                }
+            }
+            for (Artist artist : modifiedArtists) {
+                if (unindexedArtists.contains(artist) || !getSignature(artist).equals(indexedSignatures.get(artist))) {
+                    searchService.index(artist);
+                }
+            }
+
+            albumsByName.clear();
+            artistsByName.clear();
+            indexedSignatures.clear();
+            modifiedAlbums.clear();
+            modifiedArtists.clear();
+            unindexedAlbums.clear();
+            unindexedArtists.clear();
+        }
+
+        private String getSignature(Album album) {
+            return album.getPath() + '|' + album.getSongCount() + '|' + album.getDurationSeconds() + '|' +
+                    album.getCoverArtPath() + '|' + album.getPlayCount() + '|' + album.getCreated();
+        }
+
+        private String getSignature(Artist artist) {
+            return artist.getAlbumCount() + "|" + artist.getCoverArtPath();
+        }
+    }
+
+    /**
+     * The first stage of the scan pipeline for a single storage device.  Walks the directory
+     * trees of the music folders on the device, submits each file and directory to the device's
+     * parser threads and queues the results in walk order.  The end of each music folder is
+     * marked in the queue, and a null result marks the end of the walk.  The progress semaphore is released whenever a queued item is ready.
+     */
+    private class DirectoryWalker extends Thread {
+        private final List<MusicFolder> musicFolders;
+        private final ExecutorService parsers;
+        private final BlockingQueue<Future<ScanItem>> queue;
+        private final Semaphore progress;
+        private volatile Throwable failure;
+
+        // Subdirectories of unchanged directories, as read from the database before the writer
+        // carried them forward.  Keyed by path.
+        private final Map<String, MediaFile> carriedDirectories = new HashMap<String, MediaFile>();
+
+        // Whether the writer has written items of a unit which it has not seen the end of yet.
+        // Only accessed by the writer.
+        private boolean dirty;
+
+        private DirectoryWalker(int device, List<MusicFolder> musicFolders, int parserCount, Semaphore progress) {
+            super("MediaLibraryScanner-walker-" + device);
+            this.musicFolders = musicFolders;
+            this.progress = progress;
+            parsers = Executors.newFixedThreadPool(parserCount, new ScannerThreadFactory("MediaLibraryScanner-parser-" + device));
+            queue = new ArrayBlockingQueue<Future<ScanItem>>(settingsService.getScanQueueSize());
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (MusicFolder musicFolder : musicFolders) {
+                    if (MEDIA_SCANNER_LOGGER.isDebugEnabled()) {
+                        MEDIA_SCANNER_LOGGER.debug("MEDIA FOLDER : "+musicFolder.getName()+" ("+musicFolder.getPath()+") : begin scanning");
+                    }
+                    walk(musicFolder.getPath(), musicFolder);
+                    ScanItem item = new ScanItem(musicFolder.getPath(), musicFolder);
+                    item.folderEnd = true;
+                    put(item);
+                }
+            } catch (InterruptedException x) {
+                return;
+            } catch (Throwable x) {
+                failure = x;
+            }
+
+            try {
+                put(null);
+            } catch (InterruptedException x) {
+                // Writer has stopped.
+            }
+        }
+
+        private void walk(File dir, MusicFolder musicFolder) throws InterruptedException {
+            scanGovernor.await();
+            MediaFile stored = carriedDirectories.remove(dir.getPath());
+            if (dir.equals(musicFolder.getPath()) && checkpoint.isCompleted(dir.getPath())) {
+                // The music folder and its files were completed before the scan was interrupted.
+                List<File> directories = new ArrayList<File>();
+                for (DirectorySnapshot.Entry child : mediaFileService.filterMediaFiles(DirectorySnapshot.read(dir))) {
+                    if (child.isDirectory()) {
+                        directories.add(child.getFile());
+                    }
+                }
+                walkSubdirectories(dir, directories, musicFolder);
+                return;
+            }
+            if (deltaScan) {
+                if (stored == null) {
+                    stored = mediaFileDao.getMediaFile(dir.getPath());
+                }
+                if (stored != null && mediaFileService.isUpToDate(stored) && isDirectoryUnchanged(stored)) {
+                    walkUnchanged(stored, musicFolder);
+                    return;
+                }
+            }
+
+            // The directory listing is shared with the parser, which uses it for album detection
+            // and cover art discovery.
+            DirectorySnapshot snapshot = DirectorySnapshot.read(dir);
+            ScanItem dirItem = new ScanItem(DirectorySnapshot.readEntry(dir), snapshot, musicFolder);
+            dirItem.stored = stored;
+            submit(dirItem);
+
+            List<File> directories = new ArrayList<File>();
+            for (DirectorySnapshot.Entry child : mediaFileService.filterMediaFiles(snapshot)) {
+                if (child.isDirectory()) {
+                    directories.add(child.getFile());
+                } else {
+                    submit(new ScanItem(child, null, musicFolder));
+                }
+            }
+            if (deltaScan) {
+                ScanItem item = new ScanItem(dir, musicFolder);
+                item.snapshot = true;
+                put(item);
+            }
+            walkSubdirectories(dir, directories, musicFolder);
+        }
+
+        /**
+         * Walks the subdirectories of the given directory.  For a music folder, the end of its
+         * files and of each subdirectory is marked in the queue, so that the writer can save
+         * checkpoints, and subdirectories completed before an interruption are skipped.
+         */
+        private void walkSubdirectories(File dir, List<File> directories, MusicFolder musicFolder) throws InterruptedException {
+            if (!dir.equals(musicFolder.getPath())) {
+                for (File child : directories) {
+                    walk(child, musicFolder);
+                }
+                return;
+            }
+
+            putUnit(dir, musicFolder);
+            for (File child : directories) {
+                if (!checkpoint.isCompleted(child.getPath())) {
+                    walk(child, musicFolder);
+                    putUnit(child, musicFolder);
+                }
+            }
+        }
+
+        private void putUnit(File dir, MusicFolder musicFolder) throws InterruptedException {
+            ScanItem item = new ScanItem(dir, musicFolder);
+            item.unit = true;
+            put(item);
+        }
+
+        /**
+         * Queues an unchanged directory and its files as stored in the database, without parsing
+         * anything.  Subdirectories are walked as usual.
+         */
+        private void walkUnchanged(MediaFile dir, MusicFolder musicFolder) throws InterruptedException {
+
+            // Read the children before the writer carries them forward, which changes their last
+            // scanned date in the database.  Subdirectories are not read again when walked.
+            List<MediaFile> children = mediaFileDao.getChildrenOf(dir.getPath());
+
+            ScanItem dirItem = new ScanItem(dir, musicFolder);
+            dirItem.unchanged = true;
+            put(dirItem);
+
+            List<File> directories = new ArrayList<File>();
+            for (MediaFile child : children) {
+                if (child.isDirectory()) {
+                    directories.add(child.getFile());
+                    carriedDirectories.put(child.getPath(), child);
+                } else {
+                    ScanItem item = new ScanItem(child, musicFolder);
+                    item.carried = true;
+                    put(item);
+                }
+            }
+            walkSubdirectories(dir.getFile(), directories, musicFolder);
+        }
+
+        private void submit(final ScanItem item) throws InterruptedException {
+            queue.put(parsers.submit(new Callable<ScanItem>() {
+                public ScanItem call() throws Exception {
+                    try {
+                        return item.call();
+                    } finally {
+                        progress.release();
+                    }
+                }
+            }));
+            progress.release();
+        }
+
+        /**
+         * Queues an item which needs no parsing.
+         */
+        private void put(final ScanItem item) throws InterruptedException {
+            FutureTask<ScanItem> future = new FutureTask<ScanItem>(new Callable<ScanItem>() {
+                public ScanItem call() {
+                    return item;
+                }
+            });
+            future.run();
+            queue.put(future);
+            progress.release();
+        }
+    }
+
+    private static class ScannerThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private ScannerThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+
     public void setSettingsService(SettingsService settingsService) {
         this.settingsService = settingsService;
     }
@@ -400,6 +1275,22 @@ public class MediaScannerService {
         this.albumDao = albumDao;
     }
 
+    public void setSuggestionService(SuggestionService suggestionService) {
+        this.suggestionService = suggestionService;
+    }
+
+    public void setAlbumCatalogService(AlbumCatalogService albumCatalogService) {
+        this.albumCatalogService = albumCatalogService;
+    }
+
+    public void setId3GraphService(Id3GraphService id3GraphService) {
+        this.id3GraphService = id3GraphService;
+    }
+
+    public void setScanGovernor(ScanGovernor scanGovernor) {
+        this.scanGovernor = scanGovernor;
+    }
+
     public void setPlaylistService(PlaylistService playlistService) {
         this.playlistService = playlistService;
     }
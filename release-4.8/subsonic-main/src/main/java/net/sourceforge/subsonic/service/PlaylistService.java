@@ -31,7 +31,9 @@ import java.io.PrintWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -312,27 +314,52 @@ public class PlaylistService {
         public abstract void format(List<MediaFile> files, PrintWriter writer) throws IOException;
 
 
-        protected MediaFile getMediaFile(String path) {
-            try {
-                File file = new File(path);
-                if (!file.exists()) {
-                    return null;
+        /**
+         * Looks up the media files for the given paths, using a single database query (per batch).
+         *
+         * @param paths The paths of the playlist entries.
+         * @return The media files found, and the paths of the entries that were not found.
+         */
+        protected Pair<List<MediaFile>, List<String>> getMediaFiles(List<String> paths) {
+            List<String> normalizedPaths = new ArrayList<String>(paths.size());
+            for (String path : paths) {
+                String normalizedPath = null;
+                try {
+                    File file = new File(path);
+                    if (file.exists()) {
+                        file = normalizePath(file);
+                        normalizedPath = file == null ? null : file.getPath();
+                    }
+                } catch (IOException x) {
+                    // Ignored
                 }
+                normalizedPaths.add(normalizedPath);
+            }
 
-                file = normalizePath(file);
-                if (file == null) {
-                    return null;
+            List<String> existingPaths = new ArrayList<String>();
+            for (String normalizedPath : normalizedPaths) {
+                if (normalizedPath != null) {
+                    existingPaths.add(normalizedPath);
                 }
-                MediaFile mediaFile = mediaFileService.getMediaFile(file);
-                if (mediaFile != null && mediaFile.exists()) {
-                    return mediaFile;
+            }
+            Map<String, MediaFile> mediaFiles = new HashMap<String, MediaFile>();
+            for (MediaFile mediaFile : mediaFileService.getMediaFilesByPath(existingPaths)) {
+                if (mediaFile.exists()) {
+                    mediaFiles.put(mediaFile.getPath(), mediaFile);
                 }
-            } catch (SecurityException x) {
-                // Ignored
-            } catch (IOException x) {
-                // Ignored
             }
-            return null;
+
+            List<MediaFile> ok = new ArrayList<MediaFile>();
+            List<String> error = new ArrayList<String>();
+            for (int i = 0; i < paths.size(); i++) {
+                MediaFile mediaFile = normalizedPaths.get(i) == null ? null : mediaFiles.get(normalizedPaths.get(i));
+                if (mediaFile != null) {
+                    ok.add(mediaFile);
+                } else {
+                    error.add(paths.get(i));
+                }
+            }
+            return new Pair<List<MediaFile>, List<String>>(ok, error);
         }
 
         /**
@@ -369,21 +396,15 @@ public class PlaylistService {
 
     private class M3UFormat extends PlaylistFormat {
         public Pair<List<MediaFile>, List<String>> parse(BufferedReader reader, MediaFileService mediaFileService) throws IOException {
-            List<MediaFile> ok = new ArrayList<MediaFile>();
-            List<String> error = new ArrayList<String>();
+            List<String> paths = new ArrayList<String>();
             String line = reader.readLine();
             while (line != null) {
                 if (!line.startsWith("#")) {
-                    MediaFile file = getMediaFile(line);
-                    if (file != null) {
-                        ok.add(file);
-                    } else {
-                        error.add(line);
-                    }
+                    paths.add(line);
                 }
                 line = reader.readLine();
             }
-            return new Pair<List<MediaFile>, List<String>>(ok, error);
+            return getMediaFiles(paths);
         }
 
         public void format(List<MediaFile> files, PrintWriter writer) throws IOException {
@@ -402,8 +423,7 @@ public class PlaylistService {
      */
     private class PLSFormat extends PlaylistFormat {
         public Pair<List<MediaFile>, List<String>> parse(BufferedReader reader, MediaFileService mediaFileService) throws IOException {
-            List<MediaFile> ok = new ArrayList<MediaFile>();
-            List<String> error = new ArrayList<String>();
+            List<String> paths = new ArrayList<String>();
 
             Pattern pattern = Pattern.compile("^File\\d+=(.*)$");
             String line = reader.readLine();
@@ -411,17 +431,11 @@ public class PlaylistService {
 
                 Matcher matcher = pattern.matcher(line);
                 if (matcher.find()) {
-                    String path = matcher.group(1);
-                    MediaFile file = getMediaFile(path);
-                    if (file != null) {
-                        ok.add(file);
-                    } else {
-                        error.add(path);
-                    }
+                    paths.add(matcher.group(1));
                 }
                 line = reader.readLine();
             }
-            return new Pair<List<MediaFile>, List<String>>(ok, error);
+            return getMediaFiles(paths);
         }
 
         public void format(List<MediaFile> files, PrintWriter writer) throws IOException {
@@ -446,8 +460,7 @@ public class PlaylistService {
      */
     private class XSPFFormat extends PlaylistFormat {
         public Pair<List<MediaFile>, List<String>> parse(BufferedReader reader, MediaFileService mediaFileService) throws IOException {
-            List<MediaFile> ok = new ArrayList<MediaFile>();
-            List<String> error = new ArrayList<String>();
+            List<String> paths = new ArrayList<String>();
 
             SAXBuilder builder = new SAXBuilder();
             Document document;
@@ -467,16 +480,10 @@ public class PlaylistService {
                 Element track = (Element) obj;
                 String location = track.getChildText("location", ns);
                 if (location != null && location.startsWith("file://")) {
-                    location = location.replaceFirst("file://", "");
-                    MediaFile file = getMediaFile(location);
-                    if (file != null) {
-                        ok.add(file);
-                    } else {
-                        error.add(location);
-                    }
+                    paths.add(location.replaceFirst("file://", ""));
                 }
             }
-            return new Pair<List<MediaFile>, List<String>>(ok, error);
+            return getMediaFiles(paths);
         }
 
         public void format(List<MediaFile> files, PrintWriter writer) throws IOException {
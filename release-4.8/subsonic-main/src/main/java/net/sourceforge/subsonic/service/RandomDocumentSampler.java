@@ -0,0 +1,138 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+
+/**
+ * Picks random documents matching a filter query, for random songs and albums.
+ * <p/>
+ * The numbers of the documents matching each filter (for instance a genre, year range and music
+ * folder) are collected once per index reader and cached as a sorted array, after which a number
+ * of distinct random documents are picked in time proportional to the number requested,
+ * regardless of the size of the index.
+ * The cache of a reader is discarded along with the reader when the index changes.
+ *
+ * @author Sindre Mehus
+ * @see SearchService
+ */
+public class RandomDocumentSampler {
+
+    private static final int MAX_FILTERS_PER_READER = 50;
+
+    private final Map<IndexReader, Map<String, int[]>> cache = new WeakHashMap<IndexReader, Map<String, int[]>>();
+    private final Random random = new Random(System.currentTimeMillis());
+
+    /**
+     * Returns distinct random documents matching the given filter, in random order.
+     *
+     * @param reader The index reader.
+     * @param key    Uniquely identifies the filter.
+     * @param filter The filter query.
+     * @param count  Maximum number of documents to return.
+     * @return The document numbers.
+     * @throws IOException If an I/O error occurs.
+     */
+    public int[] sample(IndexReader reader, String key, Query filter, int count) throws IOException {
+        int[] docs = getMatchingDocs(reader, key, filter);
+        synchronized (random) {
+            return sample(docs, count, random);
+        }
+    }
+
+    /**
+     * Picks distinct random elements from the given array, using Floyd's algorithm followed by a
+     * shuffle, both of which run in time proportional to the number of elements picked.
+     */
+    static int[] sample(int[] docs, int count, Random random) {
+        int n = docs.length;
+        count = Math.min(count, n);
+
+        Set<Integer> picked = new HashSet<Integer>();
+        List<Integer> indexes = new ArrayList<Integer>(count);
+        for (int j = n - count; j < n; j++) {
+            int index = random.nextInt(j + 1);
+            if (!picked.add(index)) {
+                index = j;
+                picked.add(index);
+            }
+            indexes.add(index);
+        }
+        Collections.shuffle(indexes, random);
+
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = docs[indexes.get(i)];
+        }
+        return result;
+    }
+
+    private int[] getMatchingDocs(IndexReader reader, String key, Query filter) throws IOException {
+        synchronized (cache) {
+            Map<String, int[]> readerCache = cache.get(reader);
+            if (readerCache == null) {
+                readerCache = new LinkedHashMap<String, int[]>(16, 0.75F, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                        return size() > MAX_FILTERS_PER_READER;
+                    }
+                };
+                cache.put(reader, readerCache);
+            }
+            int[] docs = readerCache.get(key);
+            if (docs == null) {
+                docs = collect(reader, filter);
+                readerCache.put(key, docs);
+            }
+            return docs;
+        }
+    }
+
+    private static int[] collect(IndexReader reader, Query filter) throws IOException {
+        int[] docs = new int[64];
+        int n = 0;
+        DocIdSet docIdSet = new QueryWrapperFilter(filter).getDocIdSet(reader);
+        DocIdSetIterator iterator = docIdSet == null ? null : docIdSet.iterator();
+        if (iterator != null) {
+            for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+                if (n == docs.length) {
+                    docs = Arrays.copyOf(docs, 2 * n);
+                }
+                docs[n++] = doc;
+            }
+        }
+        return Arrays.copyOf(docs, n);
+    }
+}
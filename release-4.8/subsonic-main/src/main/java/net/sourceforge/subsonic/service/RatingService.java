@@ -46,14 +46,14 @@ public class RatingService {
      */
     public List<MediaFile> getHighestRatedAlbums(int offset, int count) {
         List<String> highestRated = ratingDao.getHighestRatedAlbums(offset, count);
-        List<MediaFile> result = new ArrayList<MediaFile>();
+        List<String> paths = new ArrayList<String>();
         for (String path : highestRated) {
             File file = new File(path);
             if (FileUtil.exists(file) && securityService.isReadAllowed(file)) {
-                result.add(mediaFileService.getMediaFile(path));
+                paths.add(path);
             }
         }
-        return result;
+        return mediaFileService.getMediaFilesByPath(paths);
     }
 
     /**
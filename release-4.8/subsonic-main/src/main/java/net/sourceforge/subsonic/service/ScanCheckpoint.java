@@ -0,0 +1,241 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+
+import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.domain.MediaLibraryStatistics;
+
+/**
+ * The persistent progress of a media scan, which allows a scan that was interrupted (for
+ * instance by a restart) to be resumed where it stopped.
+ * <p/>
+ * A checkpoint records the generation of the scan (the time stamp written to the files, albums
+ * and artists it has seen), the completed units of work and the statistics collected so far.
+ * The units are the top-level directories of the music folders, with each music folder standing
+ * for the files directly in it.  Units are reported as completed when the scanner has finished
+ * them, but are only recorded when the checkpoint is saved, which the scanner does once their
+ * database writes and search index documents have been committed.
+ *
+ * @author Sindre Mehus
+ * @see MediaScannerService
+ */
+public class ScanCheckpoint {
+
+    private static final Logger LOG = Logger.getLogger(ScanCheckpoint.class);
+
+    private final File file;
+    private final Date generation;
+    private final boolean delta;
+    private boolean fullIndex;
+    private int scanCount;
+    private MediaLibraryStatistics statistics = new MediaLibraryStatistics();
+    private Map<String, Integer> albumCount = new HashMap<String, Integer>();
+    private final Set<String> completedUnits = new HashSet<String>();
+    private final List<String> pendingUnits = new ArrayList<String>();
+
+    /**
+     * Creates a checkpoint for a new scan.  Nothing is written to disk until {@link #save} is called.
+     *
+     * @param file       The file to store the checkpoint in.
+     * @param generation The generation of the scan.
+     * @param delta      Whether the scan is a delta scan.
+     */
+    public ScanCheckpoint(File file, Date generation, boolean delta) {
+        this.file = file;
+        this.generation = generation;
+        this.delta = delta;
+    }
+
+    /**
+     * Loads the checkpoint of an interrupted scan.
+     *
+     * @param file The file the checkpoint is stored in.
+     * @return The checkpoint, or <code>null</code> if the file does not exist or can't be read.
+     */
+    public static ScanCheckpoint load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            Properties properties = new Properties();
+            properties.load(in);
+
+            ScanCheckpoint checkpoint = new ScanCheckpoint(file, new Date(Long.parseLong(properties.getProperty("generation"))),
+                    Boolean.parseBoolean(properties.getProperty("delta")));
+            checkpoint.fullIndex = Boolean.parseBoolean(properties.getProperty("fullIndex"));
+            checkpoint.scanCount = Integer.parseInt(properties.getProperty("scanCount"));
+            checkpoint.statistics = MediaLibraryStatistics.parse(properties.getProperty("statistics"));
+            for (int i = 0; properties.containsKey("completed." + i); i++) {
+                checkpoint.completedUnits.add(properties.getProperty("completed." + i));
+            }
+            for (int i = 0; properties.containsKey("artist." + i); i++) {
+                checkpoint.albumCount.put(properties.getProperty("artist." + i), Integer.valueOf(properties.getProperty("albums." + i)));
+            }
+            return checkpoint;
+        } catch (Exception x) {
+            LOG.warn("Failed to load media scan checkpoint from " + file + ": " + x);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Reports that the scanner has finished the given unit.  It is recorded as completed when
+     * the checkpoint is next saved.
+     *
+     * @param path The path of the top-level directory or music folder.
+     */
+    public void unitCompleted(String path) {
+        if (!completedUnits.contains(path)) {
+            pendingUnits.add(path);
+        }
+    }
+
+    /**
+     * Returns whether the given unit was completed as of the last saved checkpoint.
+     *
+     * @param path The path of the top-level directory or music folder.
+     */
+    public boolean isCompleted(String path) {
+        return completedUnits.contains(path);
+    }
+
+    /**
+     * Records the units reported since the last save as completed, and writes the checkpoint
+     * to disk.  The file is replaced atomically, so that an interruption while saving leaves the
+     * previous checkpoint intact.
+     *
+     * @param scanCount  The number of files scanned so far.
+     * @param statistics The statistics collected so far.
+     * @param albumCount The number of albums encountered so far, by artist.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void save(int scanCount, MediaLibraryStatistics statistics, Map<String, Integer> albumCount) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("generation", String.valueOf(generation.getTime()));
+        properties.setProperty("delta", String.valueOf(delta));
+        properties.setProperty("fullIndex", String.valueOf(fullIndex));
+        properties.setProperty("scanCount", String.valueOf(scanCount));
+        properties.setProperty("statistics", statistics.format());
+
+        int i = 0;
+        for (String unit : completedUnits) {
+            properties.setProperty("completed." + i++, unit);
+        }
+        for (String unit : pendingUnits) {
+            properties.setProperty("completed." + i++, unit);
+        }
+        i = 0;
+        for (Map.Entry<String, Integer> entry : albumCount.entrySet()) {
+            properties.setProperty("artist." + i, entry.getKey());
+            properties.setProperty("albums." + i, String.valueOf(entry.getValue()));
+            i++;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            properties.store(out, "Subsonic media scan checkpoint");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        completedUnits.addAll(pendingUnits);
+        pendingUnits.clear();
+        this.scanCount = scanCount;
+        this.statistics = MediaLibraryStatistics.parse(statistics.format());
+        this.albumCount = new HashMap<String, Integer>(albumCount);
+    }
+
+    /**
+     * Deletes the checkpoint from disk.  Called when the scan has completed.
+     */
+    public void delete() {
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Failed to delete media scan checkpoint " + file);
+        }
+    }
+
+    public Date getGeneration() {
+        return generation;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Returns whether the scan indexes all items, rather than just those that have changed since
+     * the previous scan.
+     */
+    public boolean isFullIndex() {
+        return fullIndex;
+    }
+
+    public void setFullIndex(boolean fullIndex) {
+        this.fullIndex = fullIndex;
+    }
+
+    /**
+     * Returns the number of files scanned as of the last saved checkpoint.
+     */
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    /**
+     * Returns the statistics collected as of the last saved checkpoint.
+     */
+    public MediaLibraryStatistics getStatistics() {
+        return MediaLibraryStatistics.parse(statistics.format());
+    }
+
+    /**
+     * Returns the number of albums encountered by artist, as of the last saved checkpoint.
+     */
+    public Map<String, Integer> getAlbumCount() {
+        return Collections.unmodifiableMap(albumCount);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.List;
+
+import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.domain.TransferStatus;
+
+/**
+ * Slows down media scans while music is being streamed, so that the disk reads of the scanner
+ * do not cause the streams to stutter.  The scanner runs at full speed while no streams are
+ * active, is throttled while streams are active, and pauses while a stream is still being read
+ * but its throughput during the last seconds has dropped well below that of the preceding
+ * minute.
+ * <p/>
+ * Scan workers call {@link #await} before each file or directory they read.
+ *
+ * @author Sindre Mehus
+ * @see MediaScannerService
+ */
+public class ScanGovernor {
+
+    private static final Logger LOG = Logger.getLogger(ScanGovernor.class);
+
+    private static final long EVALUATION_INTERVAL_MILLIS = 1000L;
+    private static final long RECENT_THROUGHPUT_MILLIS = 15000L;
+    private static final long BASELINE_THROUGHPUT_MILLIS = 60000L;
+    private static final long STREAM_STARTUP_MILLIS = 30000L;
+    private static final long IDLE_STREAM_MILLIS = 2 * TransferStatus.SAMPLE_INTERVAL_MILLIS;
+    private static final long MAX_PAUSE_MILLIS = 60000L;
+    private static final double STARVATION_RATIO = 0.5;
+
+    private StatusService statusService;
+    private SettingsService settingsService;
+
+    private State state = State.FULL_SPEED;
+    private long lastEvaluated;
+
+    /**
+     * Blocks the calling scan worker for as long as required by the current state.  A pause
+     * lasts at most a minute, after which the worker is let through with the throttling delay,
+     * so that a scan always makes progress.
+     */
+    public void await() {
+        try {
+            long pauseStart = System.currentTimeMillis();
+            while (getState() == State.PAUSED && System.currentTimeMillis() - pauseStart < MAX_PAUSE_MILLIS) {
+                Thread.sleep(EVALUATION_INTERVAL_MILLIS);
+            }
+            if (getState() != State.FULL_SPEED) {
+                Thread.sleep(settingsService.getScanThrottleDelayMillis());
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the current throttle state, which is re-evaluated at most once per second.
+     */
+    public synchronized State getState() {
+        long now = System.currentTimeMillis();
+        if (now - lastEvaluated >= EVALUATION_INTERVAL_MILLIS) {
+            lastEvaluated = now;
+            State newState = settingsService.isScanGovernorEnabled() ? evaluate(now) : State.FULL_SPEED;
+            if (newState != state) {
+                LOG.debug("Media scan throttle state changed from " + state + " to " + newState + ".");
+                state = newState;
+            }
+        }
+        return state;
+    }
+
+    private State evaluate(long now) {
+        State result = State.FULL_SPEED;
+        for (TransferStatus status : statusService.getAllStreamStatuses()) {
+            if (!status.isActive()) {
+                continue;
+            }
+            if (isStarving(status, now)) {
+                return State.PAUSED;
+            }
+            result = State.THROTTLED;
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the throughput of the given stream during the last seconds has dropped well
+     * below its throughput during the preceding minute.
+     * <p/>
+     * A stream is only considered starving while it is still being read, since samples are only
+     * recorded as data is transferred.  Streams the client has stopped reading (typically because
+     * the player is paused or has buffered enough) are not starving, and neither are streams that
+     * are too young to exclude the initial burst while the player fills its buffer.
+     */
+    boolean isStarving(TransferStatus status, long now) {
+        List<TransferStatus.Sample> samples = status.getHistory();
+        if (samples.size() < 3) {
+            return false;
+        }
+
+        TransferStatus.Sample first = samples.get(0);
+        TransferStatus.Sample last = samples.get(samples.size() - 1);
+        long recentStartTime = now - RECENT_THROUGHPUT_MILLIS;
+        long baselineStartTime = recentStartTime - BASELINE_THROUGHPUT_MILLIS;
+        if (now - last.getTimestamp() > IDLE_STREAM_MILLIS || first.getTimestamp() > baselineStartTime - STREAM_STARTUP_MILLIS) {
+            return false;
+        }
+
+        TransferStatus.Sample baselineStart = getSampleAt(samples, baselineStartTime);
+        TransferStatus.Sample recentStart = getSampleAt(samples, recentStartTime);
+        if (recentStart.getTimestamp() <= baselineStart.getTimestamp() || last.getTimestamp() <= recentStart.getTimestamp()) {
+            return false;
+        }
+
+        double baseline = getThroughput(baselineStart, recentStart);
+        double recent = getThroughput(recentStart, last);
+        return recent < baseline * STARVATION_RATIO;
+    }
+
+    /**
+     * Returns the last sample taken at or before the given time, or the first sample if none.
+     */
+    private TransferStatus.Sample getSampleAt(List<TransferStatus.Sample> samples, long time) {
+        TransferStatus.Sample result = samples.get(0);
+        for (TransferStatus.Sample sample : samples) {
+            if (sample.getTimestamp() > time) {
+                break;
+            }
+            result = sample;
+        }
+        return result;
+    }
+
+    private double getThroughput(TransferStatus.Sample from, TransferStatus.Sample to) {
+        return (double) (to.getBytesTransfered() - from.getBytesTransfered()) / (to.getTimestamp() - from.getTimestamp());
+    }
+
+    public void setStatusService(StatusService statusService) {
+        this.statusService = statusService;
+    }
+
+    public void setSettingsService(SettingsService settingsService) {
+        this.settingsService = settingsService;
+    }
+
+    /**
+     * The throttle state of media scans.
+     */
+    public enum State {
+        FULL_SPEED, THROTTLED, PAUSED
+    }
+}
@@ -18,17 +18,22 @@
  */
 package net.sourceforge.subsonic.service;
 
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Statistics;
 import net.sourceforge.subsonic.Logger;
 import net.sourceforge.subsonic.dao.AlbumDao;
 import net.sourceforge.subsonic.dao.ArtistDao;
 import net.sourceforge.subsonic.domain.Album;
 import net.sourceforge.subsonic.domain.Artist;
+import net.sourceforge.subsonic.domain.FacetCriteria;
 import net.sourceforge.subsonic.domain.MediaFile;
 import net.sourceforge.subsonic.domain.MusicFolder;
 import net.sourceforge.subsonic.domain.RandomSearchCriteria;
 import net.sourceforge.subsonic.domain.SearchCriteria;
 import net.sourceforge.subsonic.domain.SearchResult;
 import net.sourceforge.subsonic.util.FileUtil;
+import org.apache.commons.io.FileUtils;
 import org.apache.lucene.analysis.ASCIIFoldingFilter;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.LowerCaseFilter;
@@ -39,6 +44,8 @@ import org.apache.lucene.analysis.standard.StandardFilter;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.document.NumericField;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
@@ -50,21 +57,27 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Searcher;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.Version;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.TreeMap;
 
 import static net.sourceforge.subsonic.service.SearchService.IndexType.*;
 import static net.sourceforge.subsonic.service.SearchService.IndexType.SONG;
@@ -89,45 +102,130 @@ public class SearchService {
     private static final String FIELD_MEDIA_TYPE = "mediaType";
     private static final String FIELD_FOLDER = "folder";
 
+    // Fields that are only used for facet counts and search results.
+    private static final String FIELD_FORMAT = "format";
+    private static final String FIELD_GENRE_NAME = "genreName";
+
+    // Fields that are only stored, for building search results without accessing the database.
+    private static final String FIELD_PATH = "path";
+    private static final String FIELD_PARENT_PATH = "parentPath";
+    private static final String FIELD_ALBUM_ARTIST = "albumArtist";
+    private static final String FIELD_DISC_NUMBER = "discNumber";
+    private static final String FIELD_TRACK_NUMBER = "trackNumber";
+    private static final String FIELD_BIT_RATE = "bitRate";
+    private static final String FIELD_VARIABLE_BIT_RATE = "variableBitRate";
+    private static final String FIELD_DURATION = "durationSeconds";
+    private static final String FIELD_FILE_SIZE = "fileSize";
+    private static final String FIELD_WIDTH = "width";
+    private static final String FIELD_HEIGHT = "height";
+    private static final String FIELD_COVER_ART_PATH = "coverArtPath";
+    private static final String FIELD_PLAY_COUNT = "playCount";
+    private static final String FIELD_LAST_PLAYED = "lastPlayed";
+    private static final String FIELD_CREATED = "created";
+    private static final String FIELD_CHANGED = "changed";
+    private static final String FIELD_SONG_COUNT = "songCount";
+    private static final String FIELD_ALBUM_COUNT = "albumCount";
+
+    private static final FieldSelector ID_FIELD_SELECTOR = new MapFieldSelector(FIELD_ID);
     private static final Version LUCENE_VERSION = Version.LUCENE_30;
 
+    // IDs are only ever looked up exactly, so there is no need for lower-precision terms.
+    private static final int ID_PRECISION_STEP = Integer.MAX_VALUE;
+
+    // Larger pages of search results are not cached, which limits the memory used by the cache.
+    private static final int MAX_CACHED_PAGE_SIZE = 100;
+
     private MediaFileService mediaFileService;
     private SettingsService settingsService;
+    private SecurityService securityService;
     private ArtistDao artistDao;
     private AlbumDao albumDao;
+    private Ehcache searchResultCache;
+
+    // The index workers of the current media scan, each with its own writer and thread.
+    private final Map<IndexType, IndexWorker> workers = new EnumMap<IndexType, IndexWorker>(IndexType.class);
+    private boolean indexing;
+
+    // The analyzer is thread safe, while each query parser is used by one thread at a time.
+    private final Analyzer analyzer = new SubsonicAnalyzer();
+    private final Map<IndexType, MultiFieldQueryParser> queryParsers = new EnumMap<IndexType, MultiFieldQueryParser>(IndexType.class);
 
-    private IndexWriter artistWriter;
-    private IndexWriter artistId3Writer;
-    private IndexWriter albumWriter;
-    private IndexWriter albumId3Writer;
-    private IndexWriter songWriter;
+    private final RandomDocumentSampler randomSampler = new RandomDocumentSampler();
+    private final FacetCounter facetCounter = new FacetCounter();
+
+    // Index readers shared by all searches, reopened when the index changes.  Each search holds
+    // a reference to the reader it uses, so that a reader replaced during the search is not
+    // closed until the search is done.
+    private final Map<IndexType, IndexReader> readers = new EnumMap<IndexType, IndexReader>(IndexType.class);
+
+    // Incremented whenever the readers are reopened.  Cached search results are keyed by the
+    // generation of the index they were found in, so that results of older generations are
+    // never returned.
+    private volatile long generation;
 
     public SearchService() {
+        deleteOldIndexes();
         removeLocks();
+        for (IndexType indexType : IndexType.values()) {
+            queryParsers.put(indexType, new MultiFieldQueryParser(LUCENE_VERSION, indexType.getFields(), analyzer, indexType.getBoosts()));
+        }
     }
 
 
-    public void startIndexing() {
+    /**
+     * Prepares for indexing by a media scan.  The existing index is updated in place: Documents
+     * are replaced by ID, so that items that have not changed since the previous scan need not
+     * be indexed again.
+     * <p/>
+     * Each index is written by a worker thread of its own, so the index methods only queue the
+     * documents, and return before they are analyzed.
+     *
+     * @return Whether the complete index exists.  If not, the scan must index everything.
+     */
+    public synchronized boolean startIndexing() {
+        indexing = true;
+        boolean exists = indexExists();
         try {
-            artistWriter = createIndexWriter(ARTIST);
-            artistId3Writer = createIndexWriter(ARTIST_ID3);
-            albumWriter = createIndexWriter(ALBUM);
-            albumId3Writer = createIndexWriter(ALBUM_ID3);
-            songWriter = createIndexWriter(SONG);
+            for (IndexType indexType : IndexType.values()) {
+                IndexWriter writer = createIndexWriter(indexType);
+                writer.setRAMBufferSizeMB(settingsService.getSearchIndexRamBufferMB());
+                writer.setMergeFactor(settingsService.getSearchIndexMergeFactor());
+                String name = "SearchIndexWorker-" + indexType.name().toLowerCase();
+                workers.put(indexType, new IndexWorker(name, writer, settingsService.getSearchIndexQueueSize()));
+            }
         } catch (Exception x) {
             LOG.error("Failed to create search index.", x);
         }
+        return exists;
+    }
+
+    /**
+     * Returns whether all the indexes exist on disk.
+     */
+    public boolean indexExists() {
+        for (IndexType indexType : IndexType.values()) {
+            Directory dir = null;
+            try {
+                dir = FSDirectory.open(getIndexDirectory(indexType));
+                if (!IndexReader.indexExists(dir)) {
+                    return false;
+                }
+            } catch (Exception x) {
+                LOG.warn("Failed to check for Lucene index in " + dir, x);
+                return false;
+            } finally {
+                FileUtil.closeQuietly(dir);
+            }
+        }
+        return true;
     }
 
     public void index(MediaFile mediaFile) {
         try {
-            if (mediaFile.isFile()) {
-                songWriter.addDocument(SONG.createDocument(mediaFile));
-            } else if (mediaFile.isAlbum()) {
-                albumWriter.addDocument(ALBUM.createDocument(mediaFile));
-            } else {
-                artistWriter.addDocument(ARTIST.createDocument(mediaFile));
-            }
+            // The document is created right away, since the media file may change after this
+            // method returns.
+            IndexType indexType = mediaFile.isFile() ? SONG : mediaFile.isAlbum() ? ALBUM : ARTIST;
+            workers.get(indexType).updateDocument(createIdTerm(mediaFile.getId()), indexType.createDocument(mediaFile), mediaFile);
         } catch (Exception x) {
             LOG.error("Failed to create search index for " + mediaFile, x);
         }
@@ -135,7 +233,7 @@ public class SearchService {
 
     public void index(Artist artist) {
         try {
-            artistId3Writer.addDocument(ARTIST_ID3.createDocument(artist));
+            workers.get(ARTIST_ID3).updateDocument(createIdTerm(artist.getId()), ARTIST_ID3.createDocument(artist), artist);
         } catch (Exception x) {
             LOG.error("Failed to create search index for " + artist, x);
         }
@@ -143,80 +241,256 @@ public class SearchService {
 
     public void index(Album album) {
         try {
-            albumId3Writer.addDocument(ALBUM_ID3.createDocument(album));
+            workers.get(ALBUM_ID3).updateDocument(createIdTerm(album.getId()), ALBUM_ID3.createDocument(album), album);
         } catch (Exception x) {
             LOG.error("Failed to create search index for " + album, x);
         }
     }
 
-    public void stopIndexing() {
+    /**
+     * Removes media files, artists and albums that are no longer present from the index being
+     * updated by the current media scan.
+     *
+     * @param mediaFileIds IDs of media files to remove.
+     * @param artistIds    IDs of artists to remove.
+     * @param albumIds     IDs of albums to remove.
+     */
+    public void removeFromIndex(List<Integer> mediaFileIds, List<Integer> artistIds, List<Integer> albumIds) {
         try {
-            artistWriter.optimize();
-            artistId3Writer.optimize();
-            albumWriter.optimize();
-            albumId3Writer.optimize();
-            songWriter.optimize();
+            for (Integer id : mediaFileIds) {
+                Term term = createIdTerm(id);
+                workers.get(SONG).deleteDocuments(term);
+                workers.get(ALBUM).deleteDocuments(term);
+                workers.get(ARTIST).deleteDocuments(term);
+            }
+            for (Integer id : artistIds) {
+                workers.get(ARTIST_ID3).deleteDocuments(createIdTerm(id));
+            }
+            for (Integer id : albumIds) {
+                workers.get(ALBUM_ID3).deleteDocuments(createIdTerm(id));
+            }
         } catch (Exception x) {
-            LOG.error("Failed to create search index.", x);
+            LOG.error("Failed to remove items from search index.", x);
+        }
+    }
+
+    /**
+     * Commits the documents indexed so far by the current media scan, so that they are kept if
+     * the scan is interrupted.  Waits until all queued documents have been indexed.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void commitIndexing() throws IOException {
+        IndexWorker.commit(workers.values());
+        reopenReaders();
+    }
+
+    /**
+     * Commits and closes the index writers of the media scan, after waiting until all queued
+     * documents have been indexed.  Segments are merged by the writers in the background as they
+     * grow, so the index is not optimized.
+     */
+    public synchronized void stopIndexing() {
+        indexing = false;
+        try {
+            IndexWorker.close(workers.values());
+        } catch (Exception x) {
+            LOG.error("Failed to close search index.", x);
+        }
+        workers.clear();
+        reopenReaders();
+    }
+
+    /**
+     * Updates the existing index with the given media files, albums and artists, replacing any
+     * documents previously indexed for them, and removes the media files with the given IDs.
+     * Used for updating the index between media scans.  If a media scan is currently updating
+     * the index, the changes are queued with those of the scan instead.
+     *
+     * @param mediaFiles         Media files to add or replace.
+     * @param removedMediaFileIds IDs of media files to remove.
+     * @param albums             Albums to add or replace.
+     * @param artists            Artists to add or replace.
+     */
+    public synchronized void updateIndex(List<MediaFile> mediaFiles, List<Integer> removedMediaFileIds, List<Album> albums, List<Artist> artists) {
+        if (indexing) {
+            for (MediaFile mediaFile : mediaFiles) {
+                index(mediaFile);
+            }
+            removeFromIndex(removedMediaFileIds, Collections.<Integer>emptyList(), Collections.<Integer>emptyList());
+            for (Album album : albums) {
+                index(album);
+            }
+            for (Artist artist : artists) {
+                index(artist);
+            }
+            return;
+        }
+        if (!indexExists()) {
+            LOG.debug("No search index yet. Skipping index update.");
+            return;
+        }
+
+        Map<IndexType, IndexWriter> writers = new HashMap<IndexType, IndexWriter>();
+        try {
+            for (MediaFile mediaFile : mediaFiles) {
+                IndexType indexType = mediaFile.isFile() ? SONG : mediaFile.isAlbum() ? ALBUM : ARTIST;
+                updateDocument(getIndexWriter(indexType, writers), mediaFile.getId(), indexType.createDocument(mediaFile));
+            }
+            for (Integer id : removedMediaFileIds) {
+                for (IndexType indexType : new IndexType[]{SONG, ALBUM, ARTIST}) {
+                    getIndexWriter(indexType, writers).deleteDocuments(createIdTerm(id));
+                }
+            }
+            for (Album album : albums) {
+                updateDocument(getIndexWriter(ALBUM_ID3, writers), album.getId(), ALBUM_ID3.createDocument(album));
+            }
+            for (Artist artist : artists) {
+                updateDocument(getIndexWriter(ARTIST_ID3, writers), artist.getId(), ARTIST_ID3.createDocument(artist));
+            }
+        } catch (Exception x) {
+            LOG.error("Failed to update search index.", x);
         } finally {
-            FileUtil.closeQuietly(artistId3Writer);
-            FileUtil.closeQuietly(artistWriter);
-            FileUtil.closeQuietly(albumWriter);
-            FileUtil.closeQuietly(albumId3Writer);
-            FileUtil.closeQuietly(songWriter);
+            for (IndexWriter writer : writers.values()) {
+                FileUtil.closeQuietly(writer);
+            }
+            reopenReaders();
         }
     }
 
+    private IndexWriter getIndexWriter(IndexType indexType, Map<IndexType, IndexWriter> writers) throws IOException {
+        IndexWriter writer = writers.get(indexType);
+        if (writer == null) {
+            writer = new IndexWriter(FSDirectory.open(getIndexDirectory(indexType)), analyzer, new IndexWriter.MaxFieldLength(10));
+            writers.put(indexType, writer);
+        }
+        return writer;
+    }
+
+    private void updateDocument(IndexWriter writer, int id, Document document) throws IOException {
+        writer.updateDocument(createIdTerm(id), document);
+    }
+
+    /**
+     * Returns the term of the given ID.  Since IDs are indexed with full precision only, this is
+     * the single term of the numeric ID field.
+     */
+    private Term createIdTerm(int id) {
+        return new Term(FIELD_ID, NumericUtils.intToPrefixCoded(id));
+    }
+
+    /**
+     * Searches the given index.  The results are built from the fields stored in the index,
+     * unless {@link SearchCriteria#isFullDetail() full detail} is requested, in which case they
+     * are loaded from the database.  Either way, files the user is not allowed to read are skipped.
+     * <p/>
+     * The hits of small pages are cached until the index changes, so that repeated searches need
+     * not search the index.
+     */
     public SearchResult search(SearchCriteria criteria, IndexType indexType) {
-        SearchResult result = new SearchResult();
         int offset = criteria.getOffset();
         int count = criteria.getCount();
+
+        String key = null;
+        SearchHits hits = null;
+        if (count <= MAX_CACHED_PAGE_SIZE) {
+            key = generation + "/" + indexType + "/" + offset + "/" + count + "/" + normalizeQuery(criteria.getQuery());
+            Element element = searchResultCache.get(key);
+            if (element != null) {
+                hits = (SearchHits) element.getObjectValue();
+            }
+        }
+
+        SearchResult result = new SearchResult();
         result.setOffset(offset);
 
-        IndexReader reader = null;
+        IndexSearcher searcher = null;
         try {
-            reader = createIndexReader(indexType);
-            Searcher searcher = new IndexSearcher(reader);
-            Analyzer analyzer = new SubsonicAnalyzer();
-
-            MultiFieldQueryParser queryParser = new MultiFieldQueryParser(LUCENE_VERSION, indexType.getFields(), analyzer, indexType.getBoosts());
-            Query query = queryParser.parse(criteria.getQuery());
-
-            TopDocs topDocs = searcher.search(query, null, offset + count);
-            result.setTotalHits(topDocs.totalHits);
-
-            int start = Math.min(offset, topDocs.totalHits);
-            int end = Math.min(start + count, topDocs.totalHits);
-            for (int i = start; i < end; i++) {
-                Document doc = searcher.doc(topDocs.scoreDocs[i].doc);
-                switch (indexType) {
-                    case SONG:
-                    case ARTIST:
-                    case ALBUM:
-                        MediaFile mediaFile = mediaFileService.getMediaFile(Integer.valueOf(doc.get(FIELD_ID)));
-                        addIfNotNull(mediaFile, result.getMediaFiles());
-                        break;
-                    case ARTIST_ID3:
-                        Artist artist = artistDao.getArtist(Integer.valueOf(doc.get(FIELD_ID)));
-                        addIfNotNull(artist, result.getArtists());
-                        break;
-                    case ALBUM_ID3:
-                        Album album = albumDao.getAlbum(Integer.valueOf(doc.get(FIELD_ID)));
-                        addIfNotNull(album, result.getAlbums());
-                        break;
-                    default:
-                        break;
+            if (hits == null) {
+                searcher = acquireSearcher(indexType);
+
+                MultiFieldQueryParser queryParser = queryParsers.get(indexType);
+                Query query;
+                synchronized (queryParser) {
+                    query = queryParser.parse(criteria.getQuery());
+                }
+
+                TopDocs topDocs = searcher.search(query, null, offset + count);
+                int start = Math.min(offset, topDocs.totalHits);
+                int end = Math.min(start + count, topDocs.totalHits);
+                List<Document> docs = new ArrayList<Document>(end - start);
+                for (int i = start; i < end; i++) {
+                    docs.add(searcher.doc(topDocs.scoreDocs[i].doc));
                 }
+                hits = new SearchHits(topDocs.totalHits, docs);
+
+                if (key != null) {
+                    searchResultCache.put(new Element(key, hits));
+                }
+            }
+
+            result.setTotalHits(hits.totalHits);
+            List<Document> docs = hits.docs;
+
+            // Documents indexed before the stored fields were added are loaded from the database.
+            // So are full detail results, in bulk.
+            boolean projection = !criteria.isFullDetail();
+            switch (indexType) {
+                case SONG:
+                case ARTIST:
+                case ALBUM:
+                    if (projection && isStored(docs, FIELD_PLAY_COUNT)) {
+                        for (Document doc : docs) {
+                            MediaFile mediaFile = projectMediaFile(doc);
+                            if (securityService.isReadAllowed(new File(mediaFile.getPath()))) {
+                                result.getMediaFiles().add(mediaFile);
+                            }
+                        }
+                    } else {
+                        result.getMediaFiles().addAll(mediaFileService.getMediaFiles(getIds(docs)));
+                    }
+                    break;
+                case ARTIST_ID3:
+                    if (projection && isStored(docs, FIELD_ALBUM_COUNT)) {
+                        for (Document doc : docs) {
+                            result.getArtists().add(projectArtist(doc));
+                        }
+                    } else {
+                        result.getArtists().addAll(artistDao.getArtists(getIds(docs)));
+                    }
+                    break;
+                case ALBUM_ID3:
+                    if (projection && isStored(docs, FIELD_PLAY_COUNT)) {
+                        for (Document doc : docs) {
+                            result.getAlbums().add(projectAlbum(doc));
+                        }
+                    } else {
+                        result.getAlbums().addAll(albumDao.getAlbums(getIds(docs)));
+                    }
+                    break;
+                default:
+                    break;
             }
 
         } catch (Throwable x) {
             LOG.error("Failed to execute Lucene search.", x);
         } finally {
-            FileUtil.closeQuietly(reader);
+            releaseSearcher(searcher);
         }
         return result;
     }
 
+    private static String normalizeQuery(String query) {
+        return query == null ? null : query.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Returns statistics of the search result cache, such as the number of hits and misses.
+     */
+    public Statistics getSearchResultCacheStatistics() {
+        return searchResultCache.getStatistics();
+    }
+
     /**
      * Returns a number of random songs.
      *
@@ -226,49 +500,23 @@ public class SearchService {
     public List<MediaFile> getRandomSongs(RandomSearchCriteria criteria) {
         List<MediaFile> result = new ArrayList<MediaFile>();
 
-        String musicFolderPath = null;
-        if (criteria.getMusicFolderId() != null) {
-            MusicFolder musicFolder = settingsService.getMusicFolderById(criteria.getMusicFolderId());
-            musicFolderPath = musicFolder.getPath().getPath();
-        }
+        String musicFolderPath = getMusicFolderPath(criteria.getMusicFolderId());
 
-        IndexReader reader = null;
+        IndexSearcher searcher = null;
         try {
-            reader = createIndexReader(SONG);
-            Searcher searcher = new IndexSearcher(reader);
+            searcher = acquireSearcher(SONG);
 
-            BooleanQuery query = new BooleanQuery();
+            BooleanQuery query = createFilterQuery(criteria.getGenre(), criteria.getFromYear(), criteria.getToYear(), musicFolderPath);
             query.add(new TermQuery(new Term(FIELD_MEDIA_TYPE, MediaFile.MediaType.MUSIC.name().toLowerCase())), BooleanClause.Occur.MUST);
-            if (criteria.getGenre() != null) {
-                String genre = normalizeGenre(criteria.getGenre());
-                query.add(new TermQuery(new Term(FIELD_GENRE, genre)), BooleanClause.Occur.MUST);
-            }
-            if (criteria.getFromYear() != null || criteria.getToYear() != null) {
-                NumericRangeQuery<Integer> rangeQuery = NumericRangeQuery.newIntRange(FIELD_YEAR, criteria.getFromYear(), criteria.getToYear(), true, true);
-                query.add(rangeQuery, BooleanClause.Occur.MUST);
-            }
-            if (musicFolderPath != null) {
-                query.add(new TermQuery(new Term(FIELD_FOLDER, musicFolderPath)), BooleanClause.Occur.MUST);
-            }
 
-            TopDocs topDocs = searcher.search(query, null, Integer.MAX_VALUE);
-            Random random = new Random(System.currentTimeMillis());
-
-            for (int i = 0; i < Math.min(criteria.getCount(), topDocs.totalHits); i++) {
-                int index = random.nextInt(topDocs.totalHits);
-                Document doc = searcher.doc(topDocs.scoreDocs[index].doc);
-                int id = Integer.valueOf(doc.get(FIELD_ID));
-                try {
-                    result.add(mediaFileService.getMediaFile(id));
-                } catch (Exception x) {
-                    LOG.warn("Failed to get media file " + id);
-                }
-            }
+            String key = criteria.getGenre() + "|" + criteria.getFromYear() + "|" + criteria.getToYear() + "|" + musicFolderPath;
+            int[] docNumbers = randomSampler.sample(searcher.getIndexReader(), key, query, criteria.getCount());
+            result.addAll(mediaFileService.getMediaFiles(getIds(searcher, docNumbers)));
 
         } catch (Throwable x) {
             LOG.error("Failed to search or random songs.", x);
         } finally {
-            FileUtil.closeQuietly(reader);
+            releaseSearcher(searcher);
         }
         return result;
     }
@@ -277,6 +525,33 @@ public class SearchService {
         return genre.toLowerCase().replace(" ", "").replace("-", "");
     }
 
+    private String getMusicFolderPath(Integer musicFolderId) {
+        if (musicFolderId == null) {
+            return null;
+        }
+        MusicFolder musicFolder = settingsService.getMusicFolderById(musicFolderId);
+        return musicFolder.getPath().getPath();
+    }
+
+    /**
+     * Creates a query matching the given genre, year range and music folder, any of which may
+     * be <code>null</code>.
+     */
+    private BooleanQuery createFilterQuery(String genre, Integer fromYear, Integer toYear, String musicFolderPath) {
+        BooleanQuery query = new BooleanQuery();
+        if (genre != null) {
+            query.add(new TermQuery(new Term(FIELD_GENRE, normalizeGenre(genre))), BooleanClause.Occur.MUST);
+        }
+        if (fromYear != null || toYear != null) {
+            NumericRangeQuery<Integer> rangeQuery = NumericRangeQuery.newIntRange(FIELD_YEAR, fromYear, toYear, true, true);
+            query.add(rangeQuery, BooleanClause.Occur.MUST);
+        }
+        if (musicFolderPath != null) {
+            query.add(new TermQuery(new Term(FIELD_FOLDER, musicFolderPath)), BooleanClause.Occur.MUST);
+        }
+        return query;
+    }
+
     /**
      * Returns a number of random albums.
      *
@@ -286,30 +561,17 @@ public class SearchService {
     public List<MediaFile> getRandomAlbums(int count) {
         List<MediaFile> result = new ArrayList<MediaFile>();
 
-        IndexReader reader = null;
+        IndexSearcher searcher = null;
         try {
-            reader = createIndexReader(ALBUM);
-            Searcher searcher = new IndexSearcher(reader);
+            searcher = acquireSearcher(ALBUM);
 
-            Query query = new MatchAllDocsQuery();
-            TopDocs topDocs = searcher.search(query, null, Integer.MAX_VALUE);
-            Random random = new Random(System.currentTimeMillis());
-
-            for (int i = 0; i < Math.min(count, topDocs.totalHits); i++) {
-                int index = random.nextInt(topDocs.totalHits);
-                Document doc = searcher.doc(topDocs.scoreDocs[index].doc);
-                int id = Integer.valueOf(doc.get(FIELD_ID));
-                try {
-                    addIfNotNull(mediaFileService.getMediaFile(id), result);
-                } catch (Exception x) {
-                    LOG.warn("Failed to get media file " + id, x);
-                }
-            }
+            int[] docNumbers = randomSampler.sample(searcher.getIndexReader(), "", new MatchAllDocsQuery(), count);
+            result.addAll(mediaFileService.getMediaFiles(getIds(searcher, docNumbers)));
 
         } catch (Throwable x) {
             LOG.error("Failed to search for random albums.", x);
         } finally {
-            FileUtil.closeQuietly(reader);
+            releaseSearcher(searcher);
         }
         return result;
     }
@@ -323,51 +585,352 @@ public class SearchService {
     public List<Album> getRandomAlbumsId3(int count) {
         List<Album> result = new ArrayList<Album>();
 
-        IndexReader reader = null;
+        IndexSearcher searcher = null;
         try {
-            reader = createIndexReader(ALBUM_ID3);
-            Searcher searcher = new IndexSearcher(reader);
+            searcher = acquireSearcher(ALBUM_ID3);
 
-            Query query = new MatchAllDocsQuery();
-            TopDocs topDocs = searcher.search(query, null, Integer.MAX_VALUE);
-            Random random = new Random(System.currentTimeMillis());
+            int[] docNumbers = randomSampler.sample(searcher.getIndexReader(), "", new MatchAllDocsQuery(), count);
+            result.addAll(albumDao.getAlbums(getIds(searcher, docNumbers)));
 
-            for (int i = 0; i < Math.min(count, topDocs.totalHits); i++) {
-                int index = random.nextInt(topDocs.totalHits);
-                Document doc = searcher.doc(topDocs.scoreDocs[index].doc);
-                int id = Integer.valueOf(doc.get(FIELD_ID));
-                try {
-                    addIfNotNull(albumDao.getAlbum(id), result);
-                } catch (Exception x) {
-                    LOG.warn("Failed to get album file " + id, x);
+        } catch (Throwable x) {
+            LOG.error("Failed to search for random albums.", x);
+        } finally {
+            releaseSearcher(searcher);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of items per genre, year, decade, format or music folder.  Songs can be
+     * counted by all facets, while albums can be counted by year, decade and music folder.
+     * <p/>
+     * Years and decades are returned in chronological order, and other values with the highest
+     * count first.  Music folders are identified by their ID.
+     *
+     * @param indexType The type of items to count.
+     * @param facet     The facet.
+     * @param criteria  Which items to count.
+     * @return The number of items per value.  Values without any items are omitted.
+     */
+    public Map<String, Integer> getFacetCounts(IndexType indexType, Facet facet, FacetCriteria criteria) {
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+
+        IndexSearcher searcher = null;
+        try {
+            searcher = acquireSearcher(indexType);
+
+            String musicFolderPath = getMusicFolderPath(criteria.getMusicFolderId());
+            BooleanQuery query = createFilterQuery(criteria.getGenre(), criteria.getFromYear(), criteria.getToYear(), musicFolderPath);
+            if (criteria.getQuery() != null) {
+                MultiFieldQueryParser queryParser = queryParsers.get(indexType);
+                synchronized (queryParser) {
+                    query.add(queryParser.parse(criteria.getQuery()), BooleanClause.Occur.MUST);
                 }
             }
 
+            // Counting all items needs no query.
+            Query filter = query.clauses().isEmpty() ? null : query;
+            Map<String, Integer> counts = facetCounter.count(searcher.getIndexReader(), facet.getField(), facet.isNumeric(), filter);
+
+            switch (facet) {
+                case YEAR:
+                case DECADE:
+                    Map<Integer, Integer> years = new TreeMap<Integer, Integer>();
+                    for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                        int year = Integer.parseInt(entry.getKey());
+                        int key = facet == Facet.DECADE ? year - year % 10 : year;
+                        Integer count = years.get(key);
+                        years.put(key, entry.getValue() + (count == null ? 0 : count));
+                    }
+                    for (Map.Entry<Integer, Integer> entry : years.entrySet()) {
+                        result.put(String.valueOf(entry.getKey()), entry.getValue());
+                    }
+                    break;
+                case MUSIC_FOLDER:
+                    Map<String, Integer> folderCounts = new HashMap<String, Integer>();
+                    for (MusicFolder musicFolder : settingsService.getAllMusicFolders()) {
+                        Integer count = counts.get(musicFolder.getPath().getPath());
+                        if (count != null) {
+                            folderCounts.put(String.valueOf(musicFolder.getId()), count);
+                        }
+                    }
+                    addByCount(folderCounts, result);
+                    break;
+                default:
+                    addByCount(counts, result);
+                    break;
+            }
+
         } catch (Throwable x) {
-            LOG.error("Failed to search for random albums.", x);
+            LOG.error("Failed to count " + indexType + " by " + facet + ".", x);
         } finally {
-            FileUtil.closeQuietly(reader);
+            releaseSearcher(searcher);
         }
         return result;
     }
 
-    private <T> void addIfNotNull(T value, List<T> list) {
+    private static void addByCount(Map<String, Integer> counts, Map<String, Integer> result) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                int cmp = b.getValue().compareTo(a.getValue());
+                return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+            }
+        });
+        for (Map.Entry<String, Integer> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Builds a media file from the fields stored in the given document.
+     */
+    private static MediaFile projectMediaFile(Document doc) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(Integer.valueOf(doc.get(FIELD_ID)));
+        mediaFile.setPath(doc.get(FIELD_PATH));
+        mediaFile.setParentPath(doc.get(FIELD_PARENT_PATH));
+        mediaFile.setFolder(doc.get(FIELD_FOLDER));
+        mediaFile.setMediaType(MediaFile.MediaType.valueOf(doc.get(FIELD_MEDIA_TYPE)));
+        mediaFile.setFormat(doc.get(FIELD_FORMAT));
+        mediaFile.setTitle(doc.get(FIELD_TITLE));
+        mediaFile.setAlbumName(doc.get(FIELD_ALBUM));
+        mediaFile.setArtist(doc.get(FIELD_ARTIST));
+        mediaFile.setAlbumArtist(doc.get(FIELD_ALBUM_ARTIST));
+        mediaFile.setDiscNumber(getInteger(doc, FIELD_DISC_NUMBER));
+        mediaFile.setTrackNumber(getInteger(doc, FIELD_TRACK_NUMBER));
+        mediaFile.setYear(getInteger(doc, FIELD_YEAR));
+        mediaFile.setGenre(doc.get(FIELD_GENRE_NAME));
+        mediaFile.setBitRate(getInteger(doc, FIELD_BIT_RATE));
+        mediaFile.setVariableBitRate(Boolean.parseBoolean(doc.get(FIELD_VARIABLE_BIT_RATE)));
+        mediaFile.setDurationSeconds(getInteger(doc, FIELD_DURATION));
+        mediaFile.setFileSize(getLong(doc, FIELD_FILE_SIZE));
+        mediaFile.setWidth(getInteger(doc, FIELD_WIDTH));
+        mediaFile.setHeight(getInteger(doc, FIELD_HEIGHT));
+        mediaFile.setCoverArtPath(doc.get(FIELD_COVER_ART_PATH));
+        mediaFile.setPlayCount(getInteger(doc, FIELD_PLAY_COUNT));
+        mediaFile.setLastPlayed(getDate(doc, FIELD_LAST_PLAYED));
+        mediaFile.setCreated(getDate(doc, FIELD_CREATED));
+        mediaFile.setChanged(getDate(doc, FIELD_CHANGED));
+        mediaFile.setPresent(true);
+        return mediaFile;
+    }
+
+    /**
+     * Builds an artist from the fields stored in the given document.
+     */
+    private static Artist projectArtist(Document doc) {
+        Artist artist = new Artist();
+        artist.setId(Integer.valueOf(doc.get(FIELD_ID)));
+        artist.setName(doc.get(FIELD_ARTIST));
+        artist.setCoverArtPath(doc.get(FIELD_COVER_ART_PATH));
+        artist.setAlbumCount(getInteger(doc, FIELD_ALBUM_COUNT));
+        artist.setPresent(true);
+        return artist;
+    }
+
+    /**
+     * Builds an album from the fields stored in the given document.
+     */
+    private static Album projectAlbum(Document doc) {
+        Album album = new Album();
+        album.setId(Integer.valueOf(doc.get(FIELD_ID)));
+        album.setPath(doc.get(FIELD_PATH));
+        album.setName(doc.get(FIELD_ALBUM));
+        album.setArtist(doc.get(FIELD_ARTIST));
+        album.setSongCount(getInteger(doc, FIELD_SONG_COUNT));
+        album.setDurationSeconds(getInteger(doc, FIELD_DURATION));
+        album.setCoverArtPath(doc.get(FIELD_COVER_ART_PATH));
+        album.setPlayCount(getInteger(doc, FIELD_PLAY_COUNT));
+        album.setLastPlayed(getDate(doc, FIELD_LAST_PLAYED));
+        album.setCreated(getDate(doc, FIELD_CREATED));
+        album.setPresent(true);
+        return album;
+    }
+
+    /**
+     * Returns whether all the given documents contain the given stored field.
+     */
+    private static boolean isStored(List<Document> docs, String field) {
+        for (Document doc : docs) {
+            if (doc.get(field) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Integer getInteger(Document doc, String field) {
+        String value = doc.get(field);
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    private static Long getLong(Document doc, String field) {
+        String value = doc.get(field);
+        return value == null ? null : Long.valueOf(value);
+    }
+
+    private static Date getDate(Document doc, String field) {
+        Long value = getLong(doc, field);
+        return value == null ? null : new Date(value);
+    }
+
+    /**
+     * Adds a field which is stored, but not indexed.  Dates are stored as milliseconds.  Null
+     * values are skipped.
+     */
+    private static void addStoredField(Document doc, String field, Object value) {
+        if (value instanceof Date) {
+            value = ((Date) value).getTime();
+        }
+        if (value != null) {
+            doc.add(new Field(field, String.valueOf(value), Field.Store.YES, Field.Index.NO));
+        }
+    }
+
+    /**
+     * Adds the stored fields of the given media file which are not already part of the document.
+     */
+    private static void addStoredFields(Document doc, MediaFile mediaFile) {
+        addStoredField(doc, FIELD_PATH, mediaFile.getPath());
+        addStoredField(doc, FIELD_PARENT_PATH, mediaFile.getParentPath());
+        addStoredField(doc, FIELD_ALBUM_ARTIST, mediaFile.getAlbumArtist());
+        addStoredField(doc, FIELD_DISC_NUMBER, mediaFile.getDiscNumber());
+        addStoredField(doc, FIELD_TRACK_NUMBER, mediaFile.getTrackNumber());
+        addStoredField(doc, FIELD_BIT_RATE, mediaFile.getBitRate());
+        addStoredField(doc, FIELD_VARIABLE_BIT_RATE, mediaFile.isVariableBitRate());
+        addStoredField(doc, FIELD_DURATION, mediaFile.getDurationSeconds());
+        addStoredField(doc, FIELD_FILE_SIZE, mediaFile.getFileSize());
+        addStoredField(doc, FIELD_WIDTH, mediaFile.getWidth());
+        addStoredField(doc, FIELD_HEIGHT, mediaFile.getHeight());
+        addStoredField(doc, FIELD_COVER_ART_PATH, mediaFile.getCoverArtPath());
+        addStoredField(doc, FIELD_PLAY_COUNT, mediaFile.getPlayCount());
+        addStoredField(doc, FIELD_LAST_PLAYED, mediaFile.getLastPlayed());
+        addStoredField(doc, FIELD_CREATED, mediaFile.getCreated());
+        addStoredField(doc, FIELD_CHANGED, mediaFile.getChanged());
+    }
+
+    /**
+     * Adds the fields of the given album or artist directory which are not indexed by artist and
+     * album name: the music folder and year, for facet counts, and the stored fields.
+     */
+    private static void addDirectoryFields(Document doc, MediaFile mediaFile) {
+        addFacetField(doc, FIELD_FOLDER, mediaFile.getFolder());
+        if (mediaFile.getYear() != null) {
+            doc.add(new NumericField(FIELD_YEAR, Field.Store.YES, true).setIntValue(mediaFile.getYear()));
+        }
+        addStoredField(doc, FIELD_MEDIA_TYPE, mediaFile.getMediaType().name());
+        addStoredField(doc, FIELD_TITLE, mediaFile.getTitle());
+        addStoredField(doc, FIELD_FORMAT, mediaFile.getFormat());
+        addStoredField(doc, FIELD_GENRE_NAME, mediaFile.getGenre());
+        addStoredFields(doc, mediaFile);
+    }
+
+    /**
+     * Adds a field which is indexed as a single term, for facet counts, and stored, for search
+     * results.  Null values are skipped.
+     */
+    private static void addFacetField(Document doc, String field, String value) {
         if (value != null) {
-            list.add(value);
+            doc.add(new Field(field, value, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        }
+    }
+
+    private static List<Integer> getIds(List<Document> docs) {
+        List<Integer> ids = new ArrayList<Integer>(docs.size());
+        for (Document doc : docs) {
+            ids.add(Integer.valueOf(doc.get(FIELD_ID)));
         }
+        return ids;
     }
+
+    private static List<Integer> getIds(IndexSearcher searcher, int[] docNumbers) throws IOException {
+        List<Integer> ids = new ArrayList<Integer>(docNumbers.length);
+        for (int docNumber : docNumbers) {
+            ids.add(Integer.valueOf(searcher.doc(docNumber, ID_FIELD_SELECTOR).get(FIELD_ID)));
+        }
+        return ids;
+    }
+
     private IndexWriter createIndexWriter(IndexType indexType) throws IOException {
         File dir = getIndexDirectory(indexType);
-        return new IndexWriter(FSDirectory.open(dir), new SubsonicAnalyzer(), true, new IndexWriter.MaxFieldLength(10));
+        return new IndexWriter(FSDirectory.open(dir), analyzer, new IndexWriter.MaxFieldLength(10));
+    }
+
+    /**
+     * Returns a searcher on the shared reader of the given index, opening the reader if
+     * necessary.  The searcher must be released with {@link #releaseSearcher} when done.
+     */
+    private IndexSearcher acquireSearcher(IndexType indexType) throws IOException {
+        synchronized (readers) {
+            IndexReader reader = readers.get(indexType);
+            if (reader == null) {
+                reader = IndexReader.open(openDirectory(indexType), true);
+                readers.put(indexType, reader);
+            }
+            reader.incRef();
+            return new IndexSearcher(reader);
+        }
+    }
+
+    private void releaseSearcher(IndexSearcher searcher) {
+        if (searcher != null) {
+            try {
+                searcher.getIndexReader().decRef();
+            } catch (Exception x) {
+                LOG.warn("Failed to release index reader.", x);
+            }
+        }
+    }
+
+    /**
+     * Replaces the shared readers of indexes that have changed.  Searches in progress keep
+     * using the old reader, which is closed when the last of them has released it.
+     */
+    private void reopenReaders() {
+        synchronized (readers) {
+            generation++;
+            searchResultCache.removeAll();
+            for (Map.Entry<IndexType, IndexReader> entry : readers.entrySet()) {
+                IndexReader reader = entry.getValue();
+                try {
+                    IndexReader newReader = reader.reopen();
+                    if (newReader != reader) {
+                        entry.setValue(newReader);
+                        reader.decRef();
+                    }
+                } catch (Exception x) {
+                    LOG.warn("Failed to reopen " + entry.getKey() + " index.", x);
+                }
+            }
+        }
     }
 
-    private IndexReader createIndexReader(IndexType indexType) throws IOException {
+    private Directory openDirectory(IndexType indexType) throws IOException {
         File dir = getIndexDirectory(indexType);
-        return IndexReader.open(FSDirectory.open(dir), true);
+        return settingsService.isSearchIndexMemoryMapped() ? new MMapDirectory(dir) : FSDirectory.open(dir);
     }
 
     private File getIndexRootDirectory() {
-        return new File(SettingsService.getSubsonicHome(), "lucene2");
+        return new File(SettingsService.getSubsonicHome(), "lucene4");
+    }
+
+    /**
+     * Deletes the indexes of previous versions, in which documents could not be looked up by ID
+     * (lucene2) or counted by facet (lucene3).  The next media scan creates the index from scratch.
+     */
+    private void deleteOldIndexes() {
+        for (String name : new String[]{"lucene2", "lucene3"}) {
+            File dir = new File(SettingsService.getSubsonicHome(), name);
+            if (dir.exists()) {
+                try {
+                    FileUtils.deleteDirectory(dir);
+                    LOG.info("Deleted old search index " + dir);
+                } catch (Exception x) {
+                    LOG.warn("Failed to delete old search index " + dir, x);
+                }
+            }
+        }
     }
 
     private File getIndexDirectory(IndexType indexType) {
@@ -399,6 +962,10 @@ public class SearchService {
         this.settingsService = settingsService;
     }
 
+    public void setSecurityService(SecurityService securityService) {
+        this.securityService = securityService;
+    }
+
     public void setArtistDao(ArtistDao artistDao) {
         this.artistDao = artistDao;
     }
@@ -407,14 +974,18 @@ public class SearchService {
         this.albumDao = albumDao;
     }
 
+    public void setSearchResultCache(Ehcache searchResultCache) {
+        this.searchResultCache = searchResultCache;
+    }
+
     public static enum IndexType {
 
         SONG(new String[]{FIELD_TITLE, FIELD_ARTIST}, FIELD_TITLE) {
             @Override
             public Document createDocument(MediaFile mediaFile) {
                 Document doc = new Document();
-                doc.add(new NumericField(FIELD_ID, Field.Store.YES, false).setIntValue(mediaFile.getId()));
-                doc.add(new Field(FIELD_MEDIA_TYPE, mediaFile.getMediaType().name(), Field.Store.NO, Field.Index.ANALYZED_NO_NORMS));
+                doc.add(new NumericField(FIELD_ID, ID_PRECISION_STEP, Field.Store.YES, true).setIntValue(mediaFile.getId()));
+                doc.add(new Field(FIELD_MEDIA_TYPE, mediaFile.getMediaType().name(), Field.Store.YES, Field.Index.ANALYZED_NO_NORMS));
 
                 if (mediaFile.getTitle() != null) {
                     doc.add(new Field(FIELD_TITLE, mediaFile.getTitle(), Field.Store.YES, Field.Index.ANALYZED));
@@ -426,11 +997,15 @@ public class SearchService {
                     doc.add(new Field(FIELD_GENRE, normalizeGenre(mediaFile.getGenre()), Field.Store.NO, Field.Index.ANALYZED));
                 }
                 if (mediaFile.getYear() != null) {
-                    doc.add(new NumericField(FIELD_YEAR, Field.Store.NO, true).setIntValue(mediaFile.getYear()));
+                    doc.add(new NumericField(FIELD_YEAR, Field.Store.YES, true).setIntValue(mediaFile.getYear()));
                 }
                 if (mediaFile.getFolder() != null) {
-                    doc.add(new Field(FIELD_FOLDER, mediaFile.getFolder(), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+                    doc.add(new Field(FIELD_FOLDER, mediaFile.getFolder(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
                 }
+                addFacetField(doc, FIELD_FORMAT, mediaFile.getFormat());
+                addFacetField(doc, FIELD_GENRE_NAME, mediaFile.getGenre());
+                addStoredField(doc, FIELD_ALBUM, mediaFile.getAlbumName());
+                addStoredFields(doc, mediaFile);
 
                 return doc;
             }
@@ -440,7 +1015,7 @@ public class SearchService {
             @Override
             public Document createDocument(MediaFile mediaFile) {
                 Document doc = new Document();
-                doc.add(new NumericField(FIELD_ID, Field.Store.YES, false).setIntValue(mediaFile.getId()));
+                doc.add(new NumericField(FIELD_ID, ID_PRECISION_STEP, Field.Store.YES, true).setIntValue(mediaFile.getId()));
 
                 if (mediaFile.getArtist() != null) {
                     doc.add(new Field(FIELD_ARTIST, mediaFile.getArtist(), Field.Store.YES, Field.Index.ANALYZED));
@@ -448,6 +1023,7 @@ public class SearchService {
                 if (mediaFile.getAlbumName() != null) {
                     doc.add(new Field(FIELD_ALBUM, mediaFile.getAlbumName(), Field.Store.YES, Field.Index.ANALYZED));
                 }
+                addDirectoryFields(doc, mediaFile);
 
                 return doc;
             }
@@ -457,7 +1033,7 @@ public class SearchService {
             @Override
             public Document createDocument(Album album) {
                 Document doc = new Document();
-                doc.add(new NumericField(FIELD_ID, Field.Store.YES, false).setIntValue(album.getId()));
+                doc.add(new NumericField(FIELD_ID, ID_PRECISION_STEP, Field.Store.YES, true).setIntValue(album.getId()));
 
                 if (album.getArtist() != null) {
                     doc.add(new Field(FIELD_ARTIST, album.getArtist(), Field.Store.YES, Field.Index.ANALYZED));
@@ -465,6 +1041,13 @@ public class SearchService {
                 if (album.getName() != null) {
                     doc.add(new Field(FIELD_ALBUM, album.getName(), Field.Store.YES, Field.Index.ANALYZED));
                 }
+                addStoredField(doc, FIELD_PATH, album.getPath());
+                addStoredField(doc, FIELD_SONG_COUNT, album.getSongCount());
+                addStoredField(doc, FIELD_DURATION, album.getDurationSeconds());
+                addStoredField(doc, FIELD_COVER_ART_PATH, album.getCoverArtPath());
+                addStoredField(doc, FIELD_PLAY_COUNT, album.getPlayCount());
+                addStoredField(doc, FIELD_LAST_PLAYED, album.getLastPlayed());
+                addStoredField(doc, FIELD_CREATED, album.getCreated());
 
                 return doc;
             }
@@ -474,11 +1057,12 @@ public class SearchService {
             @Override
             public Document createDocument(MediaFile mediaFile) {
                 Document doc = new Document();
-                doc.add(new NumericField(FIELD_ID, Field.Store.YES, false).setIntValue(mediaFile.getId()));
+                doc.add(new NumericField(FIELD_ID, ID_PRECISION_STEP, Field.Store.YES, true).setIntValue(mediaFile.getId()));
 
                 if (mediaFile.getArtist() != null) {
                     doc.add(new Field(FIELD_ARTIST, mediaFile.getArtist(), Field.Store.YES, Field.Index.ANALYZED));
                 }
+                addDirectoryFields(doc, mediaFile);
 
                 return doc;
             }
@@ -488,8 +1072,10 @@ public class SearchService {
             @Override
             public Document createDocument(Artist artist) {
                 Document doc = new Document();
-                doc.add(new NumericField(FIELD_ID, Field.Store.YES, false).setIntValue(artist.getId()));
+                doc.add(new NumericField(FIELD_ID, ID_PRECISION_STEP, Field.Store.YES, true).setIntValue(artist.getId()));
                 doc.add(new Field(FIELD_ARTIST, artist.getName(), Field.Store.YES, Field.Index.ANALYZED));
+                addStoredField(doc, FIELD_COVER_ART_PATH, artist.getCoverArtPath());
+                addStoredField(doc, FIELD_ALBUM_COUNT, artist.getAlbumCount());
 
                 return doc;
             }
@@ -527,6 +1113,49 @@ public class SearchService {
         }
     }
 
+    /**
+     * Fields by which items can be counted.
+     *
+     * @see #getFacetCounts
+     */
+    public static enum Facet {
+        GENRE(FIELD_GENRE_NAME, false),
+        YEAR(FIELD_YEAR, true),
+        DECADE(FIELD_YEAR, true),
+        FORMAT(FIELD_FORMAT, false),
+        MUSIC_FOLDER(FIELD_FOLDER, false);
+
+        private final String field;
+        private final boolean numeric;
+
+        private Facet(String field, boolean numeric) {
+            this.field = field;
+            this.numeric = numeric;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public boolean isNumeric() {
+            return numeric;
+        }
+    }
+
+    /**
+     * A page of search hits, as cached in the search result cache.  The documents are never
+     * modified, and results are built from them for each search.
+     */
+    private static class SearchHits {
+        private final int totalHits;
+        private final List<Document> docs;
+
+        private SearchHits(int totalHits, List<Document> docs) {
+            this.totalHits = totalHits;
+            this.docs = docs;
+        }
+    }
+
     private class SubsonicAnalyzer extends StandardAnalyzer {
         private SubsonicAnalyzer() {
             super(LUCENE_VERSION);
@@ -220,7 +220,7 @@ public class SecurityService implements UserDetailsService {
      * @return Whether the given file may be uploaded.
      */
     public boolean isUploadAllowed(File file) {
-        return isInMusicFolder(file) && !FileUtil.exists(file);
+        return isInMusicFolder(file) && !FileUtil.exists(file, false);
     }
 
     /**
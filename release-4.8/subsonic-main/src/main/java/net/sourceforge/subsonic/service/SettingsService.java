@@ -27,10 +27,12 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.commons.io.IOUtils;
@@ -126,6 +128,21 @@ public class SettingsService {
     private static final String KEY_SORT_ALBUMS_BY_YEAR = "SortAlbumsByYear";
     private static final String KEY_MEDIA_LIBRARY_STATISTICS = "MediaLibraryStatistics";
     private static final String KEY_TRIAL_EXPIRES = "TrialExpires";
+    private static final String KEY_SCAN_PIPELINE_ENABLED = "ScanPipelineEnabled";
+    private static final String KEY_SCAN_PARSER_THREAD_COUNT = "ScanParserThreadCount";
+    private static final String KEY_SCAN_QUEUE_SIZE = "ScanQueueSize";
+    private static final String KEY_SCAN_DEVICE_READER_COUNT = "ScanDeviceReaderCount";
+    private static final String KEY_DELTA_SCAN_ENABLED = "DeltaScanEnabled";
+    private static final String KEY_MEDIA_FOLDER_WATCH_ENABLED = "MediaFolderWatchEnabled";
+    private static final String KEY_MEDIA_FOLDER_WATCH_DELAY_SECONDS = "MediaFolderWatchDelaySeconds";
+    private static final String KEY_SCAN_GOVERNOR_ENABLED = "ScanGovernorEnabled";
+    private static final String KEY_SCAN_THROTTLE_DELAY_MILLIS = "ScanThrottleDelayMillis";
+    private static final String KEY_SEARCH_INDEX_MEMORY_MAPPED = "SearchIndexMemoryMapped";
+    private static final String KEY_SEARCH_INDEX_RAM_BUFFER_MB = "SearchIndexRamBufferMB";
+    private static final String KEY_SEARCH_INDEX_MERGE_FACTOR = "SearchIndexMergeFactor";
+    private static final String KEY_SEARCH_INDEX_QUEUE_SIZE = "SearchIndexQueueSize";
+    private static final String KEY_FILE_STAT_CACHE_MILLIS = "FileStatCacheMillis";
+    private static final String KEY_FILE_STAT_CACHE_SIZE = "FileStatCacheSize";
 
     // Default values.
     private static final String DEFAULT_INDEX_STRING = "A B C D E F G H I J K L M N O P Q R S T U V W X-Z(XYZ)";
@@ -187,6 +204,21 @@ public class SettingsService {
     private static final boolean DEFAULT_SORT_ALBUMS_BY_YEAR = true;
     private static final String DEFAULT_MEDIA_LIBRARY_STATISTICS = "0 0 0 0 0";
     private static final String DEFAULT_TRIAL_EXPIRES = null;
+    private static final boolean DEFAULT_SCAN_PIPELINE_ENABLED = false;
+    private static final int DEFAULT_SCAN_PARSER_THREAD_COUNT = 4;
+    private static final int DEFAULT_SCAN_QUEUE_SIZE = 500;
+    private static final int DEFAULT_SCAN_DEVICE_READER_COUNT = 2;
+    private static final boolean DEFAULT_DELTA_SCAN_ENABLED = false;
+    private static final boolean DEFAULT_MEDIA_FOLDER_WATCH_ENABLED = false;
+    private static final int DEFAULT_MEDIA_FOLDER_WATCH_DELAY_SECONDS = 5;
+    private static final boolean DEFAULT_SCAN_GOVERNOR_ENABLED = true;
+    private static final int DEFAULT_SCAN_THROTTLE_DELAY_MILLIS = 50;
+    private static final boolean DEFAULT_SEARCH_INDEX_MEMORY_MAPPED = false;
+    private static final int DEFAULT_SEARCH_INDEX_RAM_BUFFER_MB = 16;
+    private static final int DEFAULT_SEARCH_INDEX_MERGE_FACTOR = 10;
+    private static final int DEFAULT_SEARCH_INDEX_QUEUE_SIZE = 1000;
+    private static final long DEFAULT_FILE_STAT_CACHE_MILLIS = 2000L;
+    private static final int DEFAULT_FILE_STAT_CACHE_SIZE = 10000;
 
     // Array of obsolete keys.  Used to clean property file.
     private static final List<String> OBSOLETE_KEYS = Arrays.asList("PortForwardingPublicPort", "PortForwardingLocalPort",
@@ -210,6 +242,8 @@ public class SettingsService {
     private String[] cachedCoverArtFileTypesArray;
     private String[] cachedMusicFileTypesArray;
     private String[] cachedVideoFileTypesArray;
+    private Set<String> cachedMusicFileTypesSet;
+    private Set<String> cachedVideoFileTypesSet;
     private List<MusicFolder> cachedMusicFolders;
     
     private static File subsonicHome;
@@ -256,6 +290,8 @@ public class SettingsService {
      */
     public void init() {
         ServiceLocator.setSettingsService(this);
+        FileUtil.getStatCache().setMaxSize(getFileStatCacheSize());
+        FileUtil.getStatCache().setTimeToLive(getFileStatCacheMillis());
         validateLicenseAsync();
     }
 
@@ -386,6 +422,7 @@ public class SettingsService {
     public synchronized void setMusicFileTypes(String fileTypes) {
         setProperty(KEY_MUSIC_FILE_TYPES, fileTypes);
         cachedMusicFileTypesArray = null;
+        cachedMusicFileTypesSet = null;
     }
 
     public synchronized String[] getMusicFileTypesAsArray() {
@@ -395,6 +432,16 @@ public class SettingsService {
         return cachedMusicFileTypesArray;
     }
 
+    /**
+     * Returns the music file types in lower case, for fast lookup of file suffixes.
+     */
+    public synchronized Set<String> getMusicFileTypesAsSet() {
+        if (cachedMusicFileTypesSet == null) {
+            cachedMusicFileTypesSet = toLowerCaseSet(getMusicFileTypesAsArray());
+        }
+        return cachedMusicFileTypesSet;
+    }
+
     public String getVideoFileTypes() {
         return properties.getProperty(KEY_VIDEO_FILE_TYPES, DEFAULT_VIDEO_FILE_TYPES);
     }
@@ -402,6 +449,7 @@ public class SettingsService {
     public synchronized void setVideoFileTypes(String fileTypes) {
         setProperty(KEY_VIDEO_FILE_TYPES, fileTypes);
         cachedVideoFileTypesArray = null;
+        cachedVideoFileTypesSet = null;
     }
 
     public synchronized String[] getVideoFileTypesAsArray() {
@@ -411,6 +459,24 @@ public class SettingsService {
         return cachedVideoFileTypesArray;
     }
 
+    /**
+     * Returns the video file types in lower case, for fast lookup of file suffixes.
+     */
+    public synchronized Set<String> getVideoFileTypesAsSet() {
+        if (cachedVideoFileTypesSet == null) {
+            cachedVideoFileTypesSet = toLowerCaseSet(getVideoFileTypesAsArray());
+        }
+        return cachedVideoFileTypesSet;
+    }
+
+    private static Set<String> toLowerCaseSet(String[] values) {
+        Set<String> result = new HashSet<String>();
+        for (String value : values) {
+            result.add(value.toLowerCase());
+        }
+        return result;
+    }
+
     public String getCoverArtFileTypes() {
         return properties.getProperty(KEY_COVER_ART_FILE_TYPES, DEFAULT_COVER_ART_FILE_TYPES);
     }
@@ -849,6 +915,184 @@ public class SettingsService {
         setBoolean(KEY_SORT_ALBUMS_BY_YEAR, b);
     }
 
+    /**
+     * Returns whether the media scanner should use a pipeline of a directory walker, a pool of
+     * metadata parsers and a single database writer, rather than scanning everything on one thread.
+     */
+    public boolean isScanPipelineEnabled() {
+        return getBoolean(KEY_SCAN_PIPELINE_ENABLED, DEFAULT_SCAN_PIPELINE_ENABLED);
+    }
+
+    public void setScanPipelineEnabled(boolean b) {
+        setBoolean(KEY_SCAN_PIPELINE_ENABLED, b);
+    }
+
+    /**
+     * Returns the number of threads used for parsing metadata when the scan pipeline is enabled,
+     * per storage device.  Limited by {@link #getScanDeviceReaderCount}.
+     */
+    public int getScanParserThreadCount() {
+        return Math.max(1, Integer.parseInt(properties.getProperty(KEY_SCAN_PARSER_THREAD_COUNT, String.valueOf(DEFAULT_SCAN_PARSER_THREAD_COUNT))));
+    }
+
+    public void setScanParserThreadCount(int count) {
+        setProperty(KEY_SCAN_PARSER_THREAD_COUNT, String.valueOf(count));
+    }
+
+    /**
+     * Returns the maximum number of files that may be queued between the stages of the scan pipeline.
+     */
+    public int getScanQueueSize() {
+        return Math.max(1, Integer.parseInt(properties.getProperty(KEY_SCAN_QUEUE_SIZE, String.valueOf(DEFAULT_SCAN_QUEUE_SIZE))));
+    }
+
+    public void setScanQueueSize(int size) {
+        setProperty(KEY_SCAN_QUEUE_SIZE, String.valueOf(size));
+    }
+
+    /**
+     * Returns the maximum number of threads reading from the same storage device when the scan
+     * pipeline is enabled, counting the thread walking the directories of the device as well as
+     * its metadata parser threads.  At least one parser thread is used.  Music folders on different
+     * devices are scanned in parallel.
+     */
+    public int getScanDeviceReaderCount() {
+        return Math.max(1, Integer.parseInt(properties.getProperty(KEY_SCAN_DEVICE_READER_COUNT, String.valueOf(DEFAULT_SCAN_DEVICE_READER_COUNT))));
+    }
+
+    public void setScanDeviceReaderCount(int count) {
+        setProperty(KEY_SCAN_DEVICE_READER_COUNT, String.valueOf(count));
+    }
+
+    /**
+     * Returns whether scheduled media scans should skip the files of directories that are unchanged
+     * since the previous scan.  Scans started manually are always full scans.
+     */
+    public boolean isDeltaScanEnabled() {
+        return getBoolean(KEY_DELTA_SCAN_ENABLED, DEFAULT_DELTA_SCAN_ENABLED);
+    }
+
+    public void setDeltaScanEnabled(boolean b) {
+        setBoolean(KEY_DELTA_SCAN_ENABLED, b);
+    }
+
+    /**
+     * Returns whether music folders should be watched for changes, which are then applied
+     * immediately rather than at the next media scan.  Takes effect after a restart.
+     */
+    public boolean isMediaFolderWatchEnabled() {
+        return getBoolean(KEY_MEDIA_FOLDER_WATCH_ENABLED, DEFAULT_MEDIA_FOLDER_WATCH_ENABLED);
+    }
+
+    public void setMediaFolderWatchEnabled(boolean b) {
+        setBoolean(KEY_MEDIA_FOLDER_WATCH_ENABLED, b);
+    }
+
+    /**
+     * Returns the number of seconds a watched directory must be quiet before its changes are applied.
+     */
+    public int getMediaFolderWatchDelaySeconds() {
+        return Integer.parseInt(properties.getProperty(KEY_MEDIA_FOLDER_WATCH_DELAY_SECONDS, String.valueOf(DEFAULT_MEDIA_FOLDER_WATCH_DELAY_SECONDS)));
+    }
+
+    public void setMediaFolderWatchDelaySeconds(int seconds) {
+        setProperty(KEY_MEDIA_FOLDER_WATCH_DELAY_SECONDS, String.valueOf(seconds));
+    }
+
+    /**
+     * Returns whether media scans should slow down or pause while music is being streamed.
+     */
+    public boolean isScanGovernorEnabled() {
+        return getBoolean(KEY_SCAN_GOVERNOR_ENABLED, DEFAULT_SCAN_GOVERNOR_ENABLED);
+    }
+
+    public void setScanGovernorEnabled(boolean b) {
+        setBoolean(KEY_SCAN_GOVERNOR_ENABLED, b);
+    }
+
+    /**
+     * Returns the number of milliseconds a throttled media scan waits before reading each file.
+     */
+    public int getScanThrottleDelayMillis() {
+        return Math.max(0, Integer.parseInt(properties.getProperty(KEY_SCAN_THROTTLE_DELAY_MILLIS, String.valueOf(DEFAULT_SCAN_THROTTLE_DELAY_MILLIS))));
+    }
+
+    public void setScanThrottleDelayMillis(int millis) {
+        setProperty(KEY_SCAN_THROTTLE_DELAY_MILLIS, String.valueOf(millis));
+    }
+
+    /**
+     * Returns whether the search index should be read through memory-mapped files, which is
+     * faster on 64-bit systems with plenty of address space.  Takes effect after a restart.
+     */
+    public boolean isSearchIndexMemoryMapped() {
+        return getBoolean(KEY_SEARCH_INDEX_MEMORY_MAPPED, DEFAULT_SEARCH_INDEX_MEMORY_MAPPED);
+    }
+
+    public void setSearchIndexMemoryMapped(boolean b) {
+        setBoolean(KEY_SEARCH_INDEX_MEMORY_MAPPED, b);
+    }
+
+    /**
+     * Returns the amount of memory (in MB) each search index writer uses for buffering documents
+     * before writing a new segment to disk.
+     */
+    public int getSearchIndexRamBufferMB() {
+        return Math.max(1, Integer.parseInt(properties.getProperty(KEY_SEARCH_INDEX_RAM_BUFFER_MB, String.valueOf(DEFAULT_SEARCH_INDEX_RAM_BUFFER_MB))));
+    }
+
+    public void setSearchIndexRamBufferMB(int mb) {
+        setProperty(KEY_SEARCH_INDEX_RAM_BUFFER_MB, String.valueOf(mb));
+    }
+
+    /**
+     * Returns how many segments of equal size the search index writers merge at a time.  Higher
+     * values make indexing faster, and searching slower until the index is optimized.
+     */
+    public int getSearchIndexMergeFactor() {
+        return Math.max(2, Integer.parseInt(properties.getProperty(KEY_SEARCH_INDEX_MERGE_FACTOR, String.valueOf(DEFAULT_SEARCH_INDEX_MERGE_FACTOR))));
+    }
+
+    public void setSearchIndexMergeFactor(int mergeFactor) {
+        setProperty(KEY_SEARCH_INDEX_MERGE_FACTOR, String.valueOf(mergeFactor));
+    }
+
+    /**
+     * Returns the maximum number of documents waiting to be indexed, per index, during a media scan.
+     */
+    public int getSearchIndexQueueSize() {
+        return Math.max(1, Integer.parseInt(properties.getProperty(KEY_SEARCH_INDEX_QUEUE_SIZE, String.valueOf(DEFAULT_SEARCH_INDEX_QUEUE_SIZE))));
+    }
+
+    public void setSearchIndexQueueSize(int size) {
+        setProperty(KEY_SEARCH_INDEX_QUEUE_SIZE, String.valueOf(size));
+    }
+
+    /**
+     * Returns for how many milliseconds file attributes are cached by {@link FileUtil}, or zero
+     * if not cached.  See {@link net.sourceforge.subsonic.util.FileStatCache}.
+     */
+    public long getFileStatCacheMillis() {
+        return Math.max(0L, Long.parseLong(properties.getProperty(KEY_FILE_STAT_CACHE_MILLIS, String.valueOf(DEFAULT_FILE_STAT_CACHE_MILLIS))));
+    }
+
+    public void setFileStatCacheMillis(long millis) {
+        setProperty(KEY_FILE_STAT_CACHE_MILLIS, String.valueOf(millis));
+        FileUtil.getStatCache().setTimeToLive(getFileStatCacheMillis());
+    }
+
+    /**
+     * Returns the maximum number of files whose attributes are cached by {@link FileUtil}.
+     */
+    public int getFileStatCacheSize() {
+        return Math.max(1, Integer.parseInt(properties.getProperty(KEY_FILE_STAT_CACHE_SIZE, String.valueOf(DEFAULT_FILE_STAT_CACHE_SIZE))));
+    }
+
+    public void setFileStatCacheSize(int size) {
+        setProperty(KEY_FILE_STAT_CACHE_SIZE, String.valueOf(size));
+        FileUtil.getStatCache().setMaxSize(getFileStatCacheSize());
+    }
+
     public MediaLibraryStatistics getMediaLibraryStatistics() {
         return MediaLibraryStatistics.parse(getString(KEY_MEDIA_LIBRARY_STATISTICS, DEFAULT_MEDIA_LIBRARY_STATISTICS));
     }
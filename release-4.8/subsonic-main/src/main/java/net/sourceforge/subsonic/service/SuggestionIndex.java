@@ -0,0 +1,275 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import net.sourceforge.subsonic.domain.Suggestion;
+
+/**
+ * An immutable index of artist, album and song names, which returns the most popular names
+ * starting with a given prefix.
+ * <p/>
+ * Names are normalized (lower case, without accents and punctuation) and can be matched from
+ * the start of any word, so that "beat" suggests "The Beatles".  Each word start is an entry
+ * in a sorted array, which makes the entries matching a prefix a contiguous range that is found
+ * by binary search.  A segment tree over the array returns the most popular entry of any range,
+ * so that the top <em>n</em> suggestions are found in <em>O(n log N)</em> time, regardless of
+ * how many names match.
+ *
+ * @author Sindre Mehus
+ * @see SuggestionService
+ */
+public class SuggestionIndex {
+
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    private final Suggestion[] suggestions;
+    private final String[] names;
+
+    // Each entry is a suggestion index (high bits) and the offset of a word in its name (low bits),
+    // sorted by the name from that offset.
+    private final long[] entries;
+
+    // Segment tree of the entry with the highest weight. Node i has children 2i and 2i+1, and
+    // the leaves are at entries.length + i.
+    private final int[] tree;
+
+    /**
+     * Creates an index of the given suggestions.
+     */
+    public SuggestionIndex(List<Suggestion> suggestions) {
+        List<Suggestion> indexed = new ArrayList<Suggestion>(suggestions.size());
+        List<String> normalized = new ArrayList<String>(suggestions.size());
+        for (Suggestion suggestion : suggestions) {
+            String name = suggestion.getText() == null ? "" : normalize(suggestion.getText());
+            if (name.length() > 0) {
+                indexed.add(suggestion);
+                normalized.add(name);
+            }
+        }
+        this.suggestions = indexed.toArray(new Suggestion[indexed.size()]);
+        this.names = normalized.toArray(new String[normalized.size()]);
+
+        List<Long> list = new ArrayList<Long>();
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            for (int offset = 0; offset < name.length() && offset <= MAX_OFFSET; offset++) {
+                if (offset == 0 || name.charAt(offset - 1) == ' ') {
+                    list.add(((long) i << 16) | offset);
+                }
+            }
+        }
+        Long[] sorted = list.toArray(new Long[list.size()]);
+        Arrays.sort(sorted, new Comparator<Long>() {
+            public int compare(Long a, Long b) {
+                return compareEntries(a, b);
+            }
+        });
+        entries = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            entries[i] = sorted[i];
+        }
+
+        int n = entries.length;
+        tree = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            tree[n + i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            tree[i] = best(tree[2 * i], tree[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Returns the most popular suggestions matching the given prefix.
+     *
+     * @param prefix The prefix, typically what the user has typed so far.
+     * @param count  Maximum number of suggestions to return.
+     * @return The suggestions, most popular first.
+     */
+    public List<Suggestion> suggest(String prefix, int count) {
+        List<Suggestion> result = new ArrayList<Suggestion>();
+        String key = normalize(prefix);
+        if (key.length() == 0 || count <= 0) {
+            return result;
+        }
+
+        int from = search(key, false);
+        int to = search(key, true);
+
+        // Repeatedly take the best entry of a range and split the range around it.
+        PriorityQueue<int[]> ranges = new PriorityQueue<int[]>(11, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return compareWeights(b[2], a[2]);
+            }
+        });
+        addRange(ranges, from, to);
+
+        Set<Integer> seen = new HashSet<Integer>();
+        while (result.size() < count && !ranges.isEmpty()) {
+            int[] range = ranges.poll();
+            int best = range[2];
+            int suggestion = getSuggestion(best);
+            if (seen.add(suggestion)) {
+                result.add(suggestions[suggestion]);
+            }
+            addRange(ranges, range[0], best);
+            addRange(ranges, best + 1, range[1]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of names in the index.
+     */
+    public int size() {
+        return suggestions.length;
+    }
+
+    /**
+     * Normalizes the given text for matching, by converting it to lower case, removing accents,
+     * and replacing punctuation and white space with single spaces.
+     */
+    static String normalize(String text) {
+        String s = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ENGLISH);
+        StringBuilder builder = new StringBuilder(s.length());
+        boolean space = true;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                builder.append(c);
+                space = false;
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && !space) {
+                builder.append(' ');
+                space = true;
+            }
+        }
+        if (space && builder.length() > 0) {
+            builder.setLength(builder.length() - 1);
+        }
+        return builder.toString();
+    }
+
+    private void addRange(PriorityQueue<int[]> ranges, int from, int to) {
+        if (from < to) {
+            ranges.add(new int[]{from, to, getBest(from, to)});
+        }
+    }
+
+    /**
+     * Returns the entry with the highest weight in the given range.
+     */
+    private int getBest(int from, int to) {
+        int n = entries.length;
+        int result = from;
+        for (int l = from + n, r = to + n; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                result = best(result, tree[l++]);
+            }
+            if ((r & 1) == 1) {
+                result = best(result, tree[--r]);
+            }
+        }
+        return result;
+    }
+
+    private int best(int entry1, int entry2) {
+        return compareWeights(entry1, entry2) >= 0 ? entry1 : entry2;
+    }
+
+    /**
+     * Compares two entries by weight.  Entries with the same weight are ordered alphabetically.
+     */
+    private int compareWeights(int entry1, int entry2) {
+        long weight1 = suggestions[getSuggestion(entry1)].getWeight();
+        long weight2 = suggestions[getSuggestion(entry2)].getWeight();
+        if (weight1 != weight2) {
+            return weight1 < weight2 ? -1 : 1;
+        }
+        return entry2 - entry1;
+    }
+
+    /**
+     * Returns the index of the first entry which starts with the given key (or is greater than it),
+     * or, if <code>after</code> is true, the first entry which is greater than the key and does
+     * not start with it.
+     */
+    private int search(String key, boolean after) {
+        int low = 0;
+        int high = entries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareToKey(entries[mid], key);
+            if (cmp < 0 || (after && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the name of the given entry with the key, considering only as many characters as
+     * the key has.
+     */
+    private int compareToKey(long entry, String key) {
+        String name = names[(int) (entry >>> 16)];
+        int offset = (int) (entry & MAX_OFFSET);
+        int length = Math.min(name.length() - offset, key.length());
+        for (int i = 0; i < length; i++) {
+            char c1 = name.charAt(offset + i);
+            char c2 = key.charAt(i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return length == key.length() ? 0 : -1;
+    }
+
+    private int compareEntries(long entry1, long entry2) {
+        String name1 = names[(int) (entry1 >>> 16)];
+        String name2 = names[(int) (entry2 >>> 16)];
+        int offset1 = (int) (entry1 & MAX_OFFSET);
+        int offset2 = (int) (entry2 & MAX_OFFSET);
+        int length1 = name1.length() - offset1;
+        int length2 = name2.length() - offset2;
+        for (int i = 0; i < Math.min(length1, length2); i++) {
+            char c1 = name1.charAt(offset1 + i);
+            char c2 = name2.charAt(offset2 + i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return length1 - length2;
+    }
+
+    private int getSuggestion(int entry) {
+        return (int) (entries[entry] >>> 16);
+    }
+}
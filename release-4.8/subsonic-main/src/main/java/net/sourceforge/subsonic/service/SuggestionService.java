@@ -0,0 +1,102 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.sourceforge.subsonic.Logger;
+import net.sourceforge.subsonic.dao.AlbumDao;
+import net.sourceforge.subsonic.dao.ArtistDao;
+import net.sourceforge.subsonic.dao.MediaFileDao;
+import net.sourceforge.subsonic.domain.Suggestion;
+
+/**
+ * Provides search-as-you-type suggestions of artist, album and song names.
+ * <p/>
+ * The suggestions are served from an in-memory {@link SuggestionIndex}, without accessing the
+ * database or the search index.  The suggestion index is built on startup and rebuilt after
+ * each media scan, which also picks up changed play counts.
+ *
+ * @author Sindre Mehus
+ */
+public class SuggestionService {
+
+    private static final Logger LOG = Logger.getLogger(SuggestionService.class);
+
+    private MediaFileDao mediaFileDao;
+    private ArtistDao artistDao;
+    private AlbumDao albumDao;
+
+    private volatile SuggestionIndex index = new SuggestionIndex(Collections.<Suggestion>emptyList());
+
+    public void init() {
+        Thread thread = new Thread("SuggestionIndexBuilder") {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        };
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Rebuilds the suggestion index from the database.  Suggestions are served from the previous
+     * index while building.
+     */
+    public synchronized void rebuild() {
+        try {
+            long t0 = System.currentTimeMillis();
+            List<Suggestion> suggestions = new ArrayList<Suggestion>();
+            suggestions.addAll(artistDao.getArtistSuggestions());
+            suggestions.addAll(albumDao.getAlbumSuggestions());
+            suggestions.addAll(mediaFileDao.getSongSuggestions());
+            index = new SuggestionIndex(suggestions);
+            LOG.info("Built suggestion index of " + index.size() + " names in " + (System.currentTimeMillis() - t0) + " ms.");
+        } catch (Throwable x) {
+            LOG.error("Failed to build suggestion index.", x);
+        }
+    }
+
+    /**
+     * Returns the most popular artist, album and song names matching the given prefix.
+     *
+     * @param prefix The prefix, typically what the user has typed so far.
+     * @param count  Maximum number of suggestions to return.
+     * @return The suggestions, most popular first.
+     */
+    public List<Suggestion> getSuggestions(String prefix, int count) {
+        return index.suggest(prefix, count);
+    }
+
+    public void setMediaFileDao(MediaFileDao mediaFileDao) {
+        this.mediaFileDao = mediaFileDao;
+    }
+
+    public void setArtistDao(ArtistDao artistDao) {
+        this.artistDao = artistDao;
+    }
+
+    public void setAlbumDao(AlbumDao albumDao) {
+        this.albumDao = albumDao;
+    }
+}
@@ -286,18 +286,30 @@ public class JaudiotaggerParser extends MetaDataParser {
     }
 
     /**
-     * Returns whether cover art image data is available in the given file.
+     * Returns whether cover art image data is available in the given file.  The answer is read
+     * from the {@link MetaDataCache}, if available.
      *
      * @param file The music file.
      * @return Whether cover art image data is available.
      */
     public boolean isImageAvailable(MediaFile file) {
+        MetaDataCache cache = getMetaDataCache();
+        Boolean cached = cache == null ? null : cache.isImageAvailable(file.getFile());
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean available;
         try {
-            return getArtwork(file) != null;
+            available = getArtwork(file) != null;
         } catch (Throwable x) {
             LOG.warn("Failed to find cover art tag in " + file, x);
             return false;
         }
+        if (cache != null) {
+            cache.setImageAvailable(file.getFile(), available);
+        }
+        return available;
     }
 
     /**
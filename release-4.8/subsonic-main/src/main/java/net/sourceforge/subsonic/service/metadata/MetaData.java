@@ -18,11 +18,15 @@
  */
 package net.sourceforge.subsonic.service.metadata;
 
+import java.io.Serializable;
+
 /**
  * Contains meta-data (song title, artist, album etc) for a music file.
  * @author Sindre Mehus
  */
-public class MetaData {
+public class MetaData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private Integer discNumber;
     private Integer trackNumber;
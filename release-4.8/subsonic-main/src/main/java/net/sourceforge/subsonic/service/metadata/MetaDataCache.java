@@ -0,0 +1,145 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service.metadata;
+
+import java.io.File;
+import java.io.Serializable;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sourceforge.subsonic.util.FileUtil;
+
+/**
+ * Persistent cache of the meta data parsed from media files, including audio header facts such as
+ * duration and bit rate, and whether the file contains an embedded cover art image.  This saves
+ * opening the file again when its database row is recreated, for instance after a database
+ * rebuild or an upgrade of the media file version.
+ * <p/>
+ * Entries are keyed by path, and are only used as long as the size and the modification time of
+ * the file are unchanged.  Stale entries are replaced when the file is parsed again.
+ *
+ * @author Sindre Mehus
+ */
+public class MetaDataCache {
+
+    private Ehcache metaDataCache;
+
+    /**
+     * Returns the cached raw meta data for the given file.
+     *
+     * @param file The media file.
+     * @return A copy of the cached meta data, or <code>null</code> if not cached or out of date.
+     */
+    public MetaData getRawMetaData(File file) {
+        Entry entry = getEntry(file);
+        return entry == null || entry.metaData == null ? null : copy(entry.metaData);
+    }
+
+    /**
+     * Caches the raw meta data for the given file.
+     *
+     * @param file     The media file.
+     * @param metaData The raw meta data, as returned by {@link MetaDataParser#getRawMetaData}.
+     */
+    public void putRawMetaData(File file, MetaData metaData) {
+        Entry entry = getEntry(file);
+        put(file, copy(metaData), entry == null ? null : entry.imageAvailable);
+    }
+
+    /**
+     * Returns whether the given file is known to contain an embedded cover art image.
+     *
+     * @param file The media file.
+     * @return Whether the file contains an image, or <code>null</code> if unknown.
+     */
+    public Boolean isImageAvailable(File file) {
+        Entry entry = getEntry(file);
+        return entry == null ? null : entry.imageAvailable;
+    }
+
+    /**
+     * Records whether the given file contains an embedded cover art image.
+     *
+     * @param file           The media file.
+     * @param imageAvailable Whether the file contains an image.
+     */
+    public void setImageAvailable(File file, boolean imageAvailable) {
+        Entry entry = getEntry(file);
+        put(file, entry == null ? null : entry.metaData, imageAvailable);
+    }
+
+    private Entry getEntry(File file) {
+        Element element = metaDataCache.get(file.getPath());
+        if (element == null) {
+            return null;
+        }
+        Entry entry = (Entry) element.getObjectValue();
+        // Bypass the stat cache, since the file may just have been modified (e.g., by tag editing).
+        if (entry.size != FileUtil.length(file, false) || entry.lastModified != FileUtil.lastModified(file, false)) {
+            return null;
+        }
+        return entry;
+    }
+
+    private void put(File file, MetaData metaData, Boolean imageAvailable) {
+        // Record the current size and modification time, not possibly stale cached ones.
+        Entry entry = new Entry(FileUtil.length(file, false), FileUtil.lastModified(file, false), metaData, imageAvailable);
+        metaDataCache.put(new Element(file.getPath(), entry));
+    }
+
+    private static MetaData copy(MetaData metaData) {
+        MetaData result = new MetaData();
+        result.setDiscNumber(metaData.getDiscNumber());
+        result.setTrackNumber(metaData.getTrackNumber());
+        result.setTitle(metaData.getTitle());
+        result.setArtist(metaData.getArtist());
+        result.setAlbumName(metaData.getAlbumName());
+        result.setGenre(metaData.getGenre());
+        result.setYear(metaData.getYear());
+        result.setBitRate(metaData.getBitRate());
+        result.setVariableBitRate(metaData.getVariableBitRate());
+        result.setDurationSeconds(metaData.getDurationSeconds());
+        result.setWidth(metaData.getWidth());
+        result.setHeight(metaData.getHeight());
+        return result;
+    }
+
+    public void setMetaDataCache(Ehcache metaDataCache) {
+        this.metaDataCache = metaDataCache;
+    }
+
+    /**
+     * A cache entry.  Never modified once created, since the memory store hands out the same instance.
+     */
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long size;
+        private final long lastModified;
+        private final MetaData metaData;
+        private final Boolean imageAvailable;
+
+        private Entry(long size, long lastModified, MetaData metaData, Boolean imageAvailable) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.metaData = metaData;
+            this.imageAvailable = imageAvailable;
+        }
+    }
+}
@@ -37,15 +37,24 @@ import org.apache.commons.lang.StringUtils;
  */
 public abstract class MetaDataParser {
 
+    private MetaDataCache metaDataCache;
+
     /**
-     * Parses meta data for the given file.
+     * Parses meta data for the given file.  The raw meta data is read from the
+     * {@link MetaDataCache}, if available.
      *
      * @param file The file to parse.
      * @return Meta data for the file, never null.
      */
     public MetaData getMetaData(File file) {
 
-        MetaData metaData = getRawMetaData(file);
+        MetaData metaData = metaDataCache == null ? null : metaDataCache.getRawMetaData(file);
+        if (metaData == null) {
+            metaData = getRawMetaData(file);
+            if (metaDataCache != null) {
+                metaDataCache.putRawMetaData(file, metaData);
+            }
+        }
         String artist = metaData.getArtist();
         String album = metaData.getAlbumName();
         String title = metaData.getTitle();
@@ -100,6 +109,14 @@ public abstract class MetaDataParser {
      */
     public abstract boolean isEditingSupported();
 
+    protected MetaDataCache getMetaDataCache() {
+        return metaDataCache;
+    }
+
+    public void setMetaDataCache(MetaDataCache metaDataCache) {
+        this.metaDataCache = metaDataCache;
+    }
+
     /**
      * Guesses the artist for the given file.
      */
@@ -0,0 +1,172 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FilenameUtils;
+
+import net.sourceforge.subsonic.Logger;
+
+/**
+ * The entries of a directory, together with their type, size and modification time, as read
+ * from disk in a single pass.  Using a snapshot instead of calling {@link File#isDirectory()},
+ * {@link File#length()} etc for each entry saves a lot of file system calls, which is
+ * important for network file systems.  (On some platforms the attributes are even returned
+ * by the directory listing itself.)
+ *
+ * @author Sindre Mehus
+ */
+public class DirectorySnapshot {
+
+    private static final Logger LOG = Logger.getLogger(DirectorySnapshot.class);
+
+    private final File directory;
+    private final List<Entry> entries;
+
+    private DirectorySnapshot(File directory, List<Entry> entries) {
+        this.directory = directory;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Reads the entries of the given directory.  If the directory can't be read, a warning is
+     * logged and an empty snapshot is returned.
+     *
+     * @param directory The directory.
+     * @return A snapshot of the directory, never null.
+     */
+    public static DirectorySnapshot read(File directory) {
+        List<Entry> entries = new ArrayList<Entry>();
+        DirectoryStream<Path> stream = null;
+        try {
+            stream = Files.newDirectoryStream(directory.toPath());
+            for (Path path : stream) {
+                try {
+                    entries.add(new Entry(path.toFile(), Files.readAttributes(path, BasicFileAttributes.class)));
+                } catch (IOException x) {
+                    LOG.warn("Failed to read attributes of " + path + ": " + x);
+                }
+            }
+        } catch (IOException x) {
+            LOG.warn("Failed to list children for " + directory.getPath());
+        } finally {
+            FileUtil.closeQuietly(stream);
+        }
+        return new DirectorySnapshot(directory, entries);
+    }
+
+    /**
+     * Reads the type, size and modification time of a single file.  If the file does not
+     * exist, the returned entry does not exist, and is neither a file nor a directory.
+     *
+     * @param file The file.
+     * @return The entry, never null.
+     */
+    public static Entry readEntry(File file) {
+        try {
+            return new Entry(file, Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+        } catch (IOException x) {
+            return new Entry(file, false, false, false, 0L, 0L);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * A directory entry.
+     */
+    public static class Entry {
+        private final File file;
+        private final String suffix;
+        private final boolean exists;
+        private final boolean directory;
+        private final boolean regularFile;
+        private final long size;
+        private final long lastModified;
+
+        private Entry(File file, BasicFileAttributes attributes) {
+            this(file, true, attributes.isDirectory(), attributes.isRegularFile(), attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+
+        private Entry(File file, boolean exists, boolean directory, boolean regularFile, long size, long lastModified) {
+            this.file = file;
+            this.suffix = FilenameUtils.getExtension(file.getName()).toLowerCase();
+            this.exists = exists;
+            this.directory = directory;
+            this.regularFile = regularFile;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getName() {
+            return file.getName();
+        }
+
+        /**
+         * Returns the file suffix in lower case, e.g., "mp3".
+         */
+        public String getSuffix() {
+            return suffix;
+        }
+
+        public boolean exists() {
+            return exists;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public boolean isFile() {
+            return regularFile;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public String toString() {
+            return file.getPath();
+        }
+    }
+}
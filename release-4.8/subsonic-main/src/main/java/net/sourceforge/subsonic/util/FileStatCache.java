@@ -0,0 +1,163 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.util;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short-lived cache of file attributes (existence, type, size and modification time), used by
+ * {@link FileUtil} to avoid repeating file system calls for the same files, which is expensive
+ * on network file systems.  Files that don't exist are cached too.
+ * <p/>
+ * Attributes are read again when older than the time-to-live, or when read with the cache
+ * bypassed.  The cache is disabled while the time-to-live is zero.
+ *
+ * @author Sindre Mehus
+ */
+public class FileStatCache {
+
+    private final Map<String, Stat> stats = new LinkedHashMap<String, Stat>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Stat> eldest) {
+            return size() > maxSize;
+        }
+    };
+    private volatile long timeToLive;
+    private int maxSize;
+    private long hits;
+    private long misses;
+    private long bypasses;
+
+    /**
+     * Creates a cache.
+     *
+     * @param timeToLive How long attributes are cached, in milliseconds.  Zero disables the cache.
+     * @param maxSize    The maximum number of files in the cache.
+     */
+    public FileStatCache(long timeToLive, int maxSize) {
+        this.timeToLive = timeToLive;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the attributes of the given file, reading them from disk unless cached.
+     *
+     * @param file     The file.
+     * @param useCache Whether cached attributes may be returned.  If false, the attributes are
+     *                 read from disk (and cached for other callers).
+     * @return The attributes, never null.
+     */
+    public DirectorySnapshot.Entry get(File file, boolean useCache) {
+        String path = file.getPath();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (useCache) {
+                Stat stat = stats.get(path);
+                if (stat != null && now - stat.time < timeToLive) {
+                    hits++;
+                    return stat.entry;
+                }
+                misses++;
+            } else {
+                bypasses++;
+            }
+        }
+
+        // Read outside the lock, as this may block for a long time on network file systems.
+        DirectorySnapshot.Entry entry = DirectorySnapshot.readEntry(file);
+        synchronized (this) {
+            Stat previous = stats.get(path);
+            if (isEnabled() && (previous == null || previous.time <= now)) {
+                stats.put(path, new Stat(entry, now));
+            }
+        }
+        return entry;
+    }
+
+    public boolean isEnabled() {
+        return timeToLive > 0L;
+    }
+
+    /**
+     * Sets how long attributes are cached, in milliseconds.  Zero disables (and empties) the cache.
+     */
+    public synchronized void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+        if (timeToLive <= 0L) {
+            stats.clear();
+        }
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Sets the maximum number of files in the cache.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized int size() {
+        return stats.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of reads that bypassed the cache.
+     */
+    public synchronized long getBypassCount() {
+        return bypasses;
+    }
+
+    /**
+     * Returns the fraction of cached reads which found the attributes in the cache, or zero if
+     * there have been no cached reads.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0L ? 0.0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return stats.size() + " files, hit ratio " + Math.round(getHitRatio() * 100.0) + "% (" + hits + " hits, " +
+                misses + " misses, " + bypasses + " bypasses)";
+    }
+
+    private static class Stat {
+        private final DirectorySnapshot.Entry entry;
+        private final long time;
+
+        private Stat(DirectorySnapshot.Entry entry, long time) {
+            this.entry = entry;
+            this.time = time;
+        }
+    }
+}
@@ -35,13 +35,35 @@ public final class FileUtil {
 
     private static final Logger LOG = Logger.getLogger(FileUtil.class);
 
+    // Disabled until configured by SettingsService.
+    private static final FileStatCache STAT_CACHE = new FileStatCache(0L, 10000);
+
     /**
      * Disallow external instantiation.
      */
     private FileUtil() {
     }
 
-    public static boolean isFile(final File file) {
+    /**
+     * Returns the cache of file attributes used by {@link #isFile}, {@link #isDirectory},
+     * {@link #exists}, {@link #lastModified} and {@link #length}.
+     */
+    public static FileStatCache getStatCache() {
+        return STAT_CACHE;
+    }
+
+    public static boolean isFile(File file) {
+        return isFile(file, true);
+    }
+
+    /**
+     * @param useStatCache Whether recently read attributes may be used.  Pass false where the
+     *                     file is known to have just changed.
+     */
+    public static boolean isFile(final File file, boolean useStatCache) {
+        if (STAT_CACHE.isEnabled()) {
+            return STAT_CACHE.get(file, useStatCache).isFile();
+        }
         return timed(new FileTask<Boolean>("isFile", file) {
             @Override
             public Boolean execute() {
@@ -50,7 +72,18 @@ public final class FileUtil {
         });
     }
 
-    public static boolean isDirectory(final File file) {
+    public static boolean isDirectory(File file) {
+        return isDirectory(file, true);
+    }
+
+    /**
+     * @param useStatCache Whether recently read attributes may be used.  Pass false where the
+     *                     file is known to have just changed.
+     */
+    public static boolean isDirectory(final File file, boolean useStatCache) {
+        if (STAT_CACHE.isEnabled()) {
+            return STAT_CACHE.get(file, useStatCache).isDirectory();
+        }
         return timed(new FileTask<Boolean>("isDirectory", file) {
             @Override
             public Boolean execute() {
@@ -59,7 +92,18 @@ public final class FileUtil {
         });
     }
 
-    public static boolean exists(final File file) {
+    public static boolean exists(File file) {
+        return exists(file, true);
+    }
+
+    /**
+     * @param useStatCache Whether recently read attributes may be used.  Pass false where the
+     *                     file is known to have just changed.
+     */
+    public static boolean exists(final File file, boolean useStatCache) {
+        if (STAT_CACHE.isEnabled()) {
+            return STAT_CACHE.get(file, useStatCache).exists();
+        }
         return timed(new FileTask<Boolean>("exists", file) {
             @Override
             public Boolean execute() {
@@ -68,7 +112,18 @@ public final class FileUtil {
         });
     }
 
-    public static long lastModified(final File file) {
+    public static long lastModified(File file) {
+        return lastModified(file, true);
+    }
+
+    /**
+     * @param useStatCache Whether recently read attributes may be used.  Pass false where the
+     *                     file is known to have just changed.
+     */
+    public static long lastModified(final File file, boolean useStatCache) {
+        if (STAT_CACHE.isEnabled()) {
+            return STAT_CACHE.get(file, useStatCache).getLastModified();
+        }
         return timed(new FileTask<Long>("lastModified", file) {
             @Override
             public Long execute() {
@@ -77,7 +132,18 @@ public final class FileUtil {
         });
     }
 
-    public static long length(final File file) {
+    public static long length(File file) {
+        return length(file, true);
+    }
+
+    /**
+     * @param useStatCache Whether recently read attributes may be used.  Pass false where the
+     *                     file is known to have just changed.
+     */
+    public static long length(final File file, boolean useStatCache) {
+        if (STAT_CACHE.isEnabled()) {
+            return STAT_CACHE.get(file, useStatCache).getSize();
+        }
         return timed(new FileTask<Long>("length", file) {
             @Override
             public Long execute() {
@@ -26,6 +26,8 @@
 
 <div id="scanningStatus" style="display: none;" class="warning">
     <img src="<spring:theme code="scanningImage"/>" title="" alt=""> <fmt:message key="main.scanning"/> <span id="scanCount"></span>
+    <span id="scanThrottled" style="display: none;"><fmt:message key="main.scanthrottled"/></span>
+    <span id="scanPaused" style="display: none;"><fmt:message key="main.scanpaused"/></span>
 </div>
 
 <c:if test="${model.showNowPlaying}">
@@ -159,6 +161,16 @@
 
         function getScanningStatusCallback(scanInfo) {
             dwr.util.setValue("scanCount", scanInfo.count);
+            if (scanInfo.throttle == "THROTTLED") {
+                $("scanThrottled").show();
+            } else {
+                $("scanThrottled").hide();
+            }
+            if (scanInfo.throttle == "PAUSED") {
+                $("scanPaused").show();
+            } else {
+                $("scanPaused").hide();
+            }
             if (scanInfo.scanning) {
                 $("scanningStatus").show();
                 setTimeout("startGetScanningStatusTimer()", 1000);
@@ -0,0 +1,182 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.cache;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.subsonic.domain.MediaFile;
+
+/**
+ * Unit test of {@link MediaFileCache}.
+ *
+ * @author Sindre Mehus
+ */
+public class MediaFileCacheTestCase extends TestCase {
+
+    private MediaFileCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        cache = new MediaFileCache();
+    }
+
+    public void testGetByIdAndPath() {
+        MediaFile a = createMediaFile(1, "/music/a.mp3");
+        put(a);
+
+        assertEquals("Wrong file by ID.", a, cache.get(1));
+        assertEquals("Wrong file by path.", a, cache.get("/music/a.mp3"));
+        assertNull("Unexpected file.", cache.get(2));
+        assertNull("Unexpected file.", cache.get("/music/b.mp3"));
+        assertNull("File without ID cached.", putAndGet(createMediaFile(0, "/music/c.mp3")));
+    }
+
+    public void testReplaceAndRemove() {
+        put(createMediaFile(1, "/music/a.mp3"));
+        MediaFile a2 = createMediaFile(1, "/music/a.mp3");
+        a2.setTitle("a2");
+        put(a2);
+        assertEquals("Wrong size.", 1, cache.size());
+        assertEquals("Not replaced.", a2.getTitle(), cache.get(1).getTitle());
+        assertEquals("Wrong memory size.", MediaFileCache.sizeOf(a2), cache.getEstimatedBytes());
+
+        cache.remove("/music/a.mp3");
+        assertNull("Not removed by path.", cache.get("/music/a.mp3"));
+        assertNull("Not removed by ID.", cache.get(1));
+        assertEquals("Wrong memory size.", 0L, cache.getEstimatedBytes());
+    }
+
+    public void testEvictLeastRecentlyUsed() {
+        cache.setMaxSizeMB(1);
+        long fileSize = MediaFileCache.sizeOf(createMediaFile(1, "/music/00001.mp3"));
+        int capacity = (int) (1024L * 1024L / fileSize);
+
+        put(createMediaFile(1, "/music/00001.mp3"));
+        for (int id = 2; id <= capacity + 10; id++) {
+            put(createMediaFile(id, "/music/" + String.format("%05d", id) + ".mp3"));
+            cache.get(1);
+        }
+
+        assertEquals("Wrong size.", capacity, cache.size());
+        assertTrue("Too large.", cache.getEstimatedBytes() <= 1024L * 1024L);
+        assertNotNull("Recently used file evicted.", cache.get(1));
+        assertNull("Least recently used file not evicted.", cache.get(2));
+        assertNull("Least recently used file not evicted.", cache.get("/music/00002.mp3"));
+        assertNotNull("Recently added file evicted.", cache.get(capacity + 10));
+    }
+
+    public void testHitRatio() {
+        assertEquals("Wrong hit ratio.", 0.0, cache.getHitRatio());
+        put(createMediaFile(1, "/music/a.mp3"));
+        cache.get(1);
+        cache.get("/music/a.mp3");
+        cache.get(2);
+        cache.get("/music/b.mp3");
+        assertEquals("Wrong hit count.", 2L, cache.getHitCount());
+        assertEquals("Wrong miss count.", 2L, cache.getMissCount());
+        assertEquals("Wrong hit ratio.", 0.5, cache.getHitRatio());
+
+        cache.clear();
+        assertEquals("Not cleared.", 0, cache.size());
+        assertEquals("Wrong memory size.", 0L, cache.getEstimatedBytes());
+    }
+
+    public void testChildren() {
+        MediaFile dir = createMediaFile(1, "/music/dir");
+        dir.setChanged(new Date(1000L));
+        dir.setChildrenLastUpdated(new Date(1000L));
+        MediaFile a = createMediaFile(2, "/music/dir/a.mp3");
+        MediaFile b = createMediaFile(3, "/music/dir/b.mp3");
+
+        assertNull("Unexpected children.", cache.getChildren(dir, false));
+        cache.putChildren(dir, Arrays.asList(a, b), false, cache.getStamp());
+        List<MediaFile> children = cache.getChildren(dir, false);
+        assertEquals("Wrong children.", Arrays.asList(a, b), children);
+        assertNull("Wrong sort order accepted.", cache.getChildren(dir, true));
+
+        cache.putChildren(dir, Arrays.asList(a, b), false, cache.getStamp());
+        dir.setChildrenLastUpdated(new Date(2000L));
+        assertNull("Changed directory accepted.", cache.getChildren(dir, false));
+
+        cache.putChildren(dir, Arrays.asList(a, b), false, cache.getStamp());
+        cache.remove(b.getPath());
+        assertNull("Children not removed with child.", cache.getChildren(dir, false));
+
+        cache.putChildren(dir, Arrays.asList(a, b), false, cache.getStamp());
+        cache.remove(dir.getPath());
+        assertNull("Children not removed with directory.", cache.getChildren(dir, false));
+        assertEquals("Wrong directory hit ratio.", 1.0 / 6.0, cache.getChildrenHitRatio(), 0.001);
+        assertEquals("Wrong memory size.", 0L, cache.getEstimatedBytes());
+    }
+
+    public void testStalePutIgnored() {
+        MediaFile dir = createMediaFile(1, "/music/dir");
+        MediaFile a = createMediaFile(2, "/music/dir/a.mp3");
+
+        // A file read before a concurrent update removed it from the cache.
+        long stamp = cache.getStamp();
+        cache.remove(a.getPath());
+        cache.put(a, stamp);
+        cache.putChildren(dir, Arrays.asList(a), false, stamp);
+        assertNull("Stale file cached.", cache.get(a.getPath()));
+        assertNull("Stale children cached.", cache.getChildren(dir, false));
+
+        put(a);
+        assertNotNull("File not cached.", cache.get(a.getPath()));
+    }
+
+    public void testCopiesAreIsolated() {
+        MediaFile dir = createMediaFile(1, "/music/dir");
+        MediaFile a = createMediaFile(2, "/music/dir/a.mp3");
+        put(a);
+        cache.putChildren(dir, Arrays.asList(a), false, cache.getStamp());
+
+        a.setTitle("Changed after put");
+        cache.get(2).setStarredDate(new Date());
+        cache.getChildren(dir, false).get(0).setStarredDate(new Date());
+
+        MediaFile cached = cache.get(a.getPath());
+        assertNotSame("Not a copy.", cached, cache.get(a.getPath()));
+        assertEquals("Changed by caller.", "dir/a.mp3", cached.getTitle());
+        assertNull("Starred date shared.", cached.getStarredDate());
+        assertNull("Starred date shared.", cache.getChildren(dir, false).get(0).getStarredDate());
+    }
+
+    private void put(MediaFile mediaFile) {
+        cache.put(mediaFile, cache.getStamp());
+    }
+
+    private MediaFile putAndGet(MediaFile mediaFile) {
+        put(mediaFile);
+        return cache.get(mediaFile.getPath());
+    }
+
+    private MediaFile createMediaFile(int id, String path) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(id);
+        mediaFile.setPath(path);
+        mediaFile.setParentPath("/music");
+        mediaFile.setFolder("/music");
+        mediaFile.setTitle(path.substring(7));
+        return mediaFile;
+    }
+}
@@ -29,6 +29,9 @@ public abstract class DaoTestCaseBase extends TestCase {
     protected UserDao userDao;
     protected TranscodingDao transcodingDao;
     protected PodcastDao podcastDao;
+    protected MediaFileDao mediaFileDao;
+    protected ArtistDao artistDao;
+    protected AlbumDao albumDao;
 
     protected DaoTestCaseBase() {
         daoHelper = new DaoHelper();
@@ -40,6 +43,9 @@ public abstract class DaoTestCaseBase extends TestCase {
         userDao = new UserDao();
         transcodingDao = new TranscodingDao();
         podcastDao = new PodcastDao();
+        mediaFileDao = new MediaFileDao();
+        artistDao = new ArtistDao();
+        albumDao = new AlbumDao();
 
         playerDao.setDaoHelper(daoHelper);
         internetRadioDao.setDaoHelper(daoHelper);
@@ -48,6 +54,9 @@ public abstract class DaoTestCaseBase extends TestCase {
         userDao.setDaoHelper(daoHelper);
         transcodingDao.setDaoHelper(daoHelper);
         podcastDao.setDaoHelper(daoHelper);
+        mediaFileDao.setDaoHelper(daoHelper);
+        artistDao.setDaoHelper(daoHelper);
+        albumDao.setDaoHelper(daoHelper);
     }
 
     @Override
@@ -0,0 +1,146 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.dao;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import net.sourceforge.subsonic.cache.MediaFileCache;
+import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.MediaFile;
+
+/**
+ * Unit test of the batched write methods of {@link MediaFileDao} and {@link AlbumDao}.
+ *
+ * @author Sindre Mehus
+ */
+public class MediaFileDaoTestCase extends DaoTestCaseBase {
+
+    @Override
+    protected void setUp() throws Exception {
+        getJdbcTemplate().execute("delete from media_file");
+        getJdbcTemplate().execute("delete from album");
+        mediaFileDao.setBatchSize(2);
+        albumDao.setBatchSize(2);
+    }
+
+    public void testCreateOrUpdateMediaFiles() {
+        MediaFile existing = createMediaFile("/music/a.mp3", "A");
+        mediaFileDao.createOrUpdateMediaFile(existing);
+
+        existing.setTitle("A2");
+        List<MediaFile> files = Arrays.asList(existing, createMediaFile("/music/b.mp3", "B"),
+                createMediaFile("/music/c.mp3", "C"), createMediaFile("/music/d.mp3", "D"));
+        mediaFileDao.createOrUpdateMediaFiles(files);
+
+        assertEquals("Wrong number of files.", 4, mediaFileDao.getChildrenOf("/music").size());
+        for (MediaFile file : files) {
+            MediaFile stored = mediaFileDao.getMediaFile(file.getId());
+            assertNotNull("File not stored.", stored);
+            assertEquals("Wrong path.", file.getPath(), stored.getPath());
+            assertEquals("Wrong title.", file.getTitle(), stored.getTitle());
+        }
+    }
+
+    public void testMarkPresent() {
+        MediaFile a = createMediaFile("/music/a.mp3", "A");
+        MediaFile b = createMediaFile("/music/b.mp3", "B");
+        MediaFile c = createMediaFile("/music/c.mp3", "C");
+        mediaFileDao.createOrUpdateMediaFiles(Arrays.asList(a, b, c));
+
+        Date lastScanned = new Date(a.getLastScanned().getTime() + 1000L);
+        mediaFileDao.markPresent(Arrays.asList(a.getPath(), c.getPath()), lastScanned);
+
+        assertEquals("Wrong last scanned.", lastScanned, mediaFileDao.getMediaFile(a.getId()).getLastScanned());
+        assertEquals("Wrong last scanned.", a.getLastScanned(), mediaFileDao.getMediaFile(b.getId()).getLastScanned());
+        assertEquals("Wrong last scanned.", lastScanned, mediaFileDao.getMediaFile(c.getId()).getLastScanned());
+    }
+
+    public void testMediaFileCacheInvalidation() {
+        MediaFileCache cache = new MediaFileCache();
+        mediaFileDao.setMediaFileCache(cache);
+        try {
+            MediaFile a = createMediaFile("/music/a.mp3", "A");
+            MediaFile b = createMediaFile("/music/b.mp3", "B");
+            mediaFileDao.createOrUpdateMediaFiles(Arrays.asList(a, b));
+            cache.put(a, cache.getStamp());
+            cache.put(b, cache.getStamp());
+
+            mediaFileDao.createOrUpdateMediaFile(a);
+            assertNull("Updated file not evicted.", cache.get(a.getId()));
+            assertNotNull("Other file evicted.", cache.get(b.getId()));
+
+            cache.put(a, cache.getStamp());
+            mediaFileDao.markChildrenPresent("/music", new Date(a.getLastScanned().getTime() + 1000L));
+            assertNull("Carried forward file not evicted.", cache.get(a.getId()));
+            assertNull("Carried forward file not evicted.", cache.get(b.getId()));
+
+            cache.put(a, cache.getStamp());
+            mediaFileDao.markNonPresent(new Date(a.getLastScanned().getTime() + 1000L));
+            assertEquals("Cache not cleared.", 0, cache.size());
+        } finally {
+            mediaFileDao.setMediaFileCache(null);
+        }
+    }
+
+    public void testCreateOrUpdateAlbums() {
+        Album existing = createAlbum("Artist", "Album");
+        albumDao.createOrUpdateAlbum(existing);
+
+        existing.setSongCount(12);
+        List<Album> albums = Arrays.asList(existing, createAlbum("Artist", "Other album"), createAlbum("Other artist", "Album"));
+        albumDao.createOrUpdateAlbums(albums);
+
+        for (Album album : albums) {
+            Album stored = albumDao.getAlbum(album.getId());
+            assertNotNull("Album not stored.", stored);
+            assertEquals("Wrong artist.", album.getArtist(), stored.getArtist());
+            assertEquals("Wrong name.", album.getName(), stored.getName());
+            assertEquals("Wrong song count.", album.getSongCount(), stored.getSongCount());
+        }
+    }
+
+    private MediaFile createMediaFile(String path, String title) {
+        Date now = new Date(System.currentTimeMillis() / 1000L * 1000L);
+        MediaFile file = new MediaFile();
+        file.setPath(path);
+        file.setParentPath("/music");
+        file.setFolder("/music");
+        file.setMediaType(MediaFile.MediaType.MUSIC);
+        file.setTitle(title);
+        file.setCreated(now);
+        file.setChanged(now);
+        file.setLastScanned(now);
+        file.setChildrenLastUpdated(new Date(0L));
+        file.setPresent(true);
+        return file;
+    }
+
+    private Album createAlbum(String artist, String name) {
+        Album album = new Album();
+        album.setPath("/music/" + name);
+        album.setArtist(artist);
+        album.setName(name);
+        album.setCreated(new Date());
+        album.setLastScanned(new Date());
+        album.setPresent(true);
+        return album;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import net.sourceforge.subsonic.domain.AlbumSummary;
+
+import static net.sourceforge.subsonic.service.AlbumCatalog.Order.*;
+
+/**
+ * Unit test of {@link AlbumCatalog}.
+ *
+ * @author Sindre Mehus
+ */
+public class AlbumCatalogTestCase extends TestCase {
+
+    private AlbumCatalog catalog;
+
+    @Override
+    protected void setUp() throws Exception {
+        catalog = new AlbumCatalog(Arrays.asList(
+                new AlbumSummary(4, "Dirt", "Alice in Chains", new Date(300L), 0, null),
+                new AlbumSummary(1, "Abbey Road", "The Beatles", new Date(100L), 5, new Date(1000L)),
+                new AlbumSummary(3, "Blue", "Joni Mitchell", new Date(300L), 2, new Date(3000L)),
+                new AlbumSummary(2, "Cosmo's Factory", null, new Date(200L), 2, new Date(2000L))
+        ), true);
+    }
+
+    public void testOrders() {
+        assertEquals("Wrong newest.", Arrays.asList(3, 4, 2, 1), catalog.getIds(NEWEST, 0, 10));
+        assertEquals("Wrong frequent.", Arrays.asList(1, 2, 3), catalog.getIds(FREQUENT, 0, 10));
+        assertEquals("Wrong recent.", Arrays.asList(3, 2, 1), catalog.getIds(RECENT, 0, 10));
+        assertEquals("Wrong alphabetical by name.", Arrays.asList(1, 3, 4), catalog.getIds(ALPHABETICAL_BY_NAME, 0, 10));
+        assertEquals("Wrong alphabetical by artist.", Arrays.asList(4, 3, 1), catalog.getIds(ALPHABETICAL_BY_ARTIST, 0, 10));
+    }
+
+    public void testArtistNotRequired() {
+        catalog = new AlbumCatalog(Arrays.asList(
+                new AlbumSummary(1, "B", "Artist", new Date(), 0, null),
+                new AlbumSummary(2, "A", null, new Date(), 0, null)
+        ), false);
+        assertEquals("Wrong alphabetical by name.", Arrays.asList(2, 1), catalog.getIds(ALPHABETICAL_BY_NAME, 0, 10));
+        assertEquals("Wrong alphabetical by artist.", Arrays.asList(2, 1), catalog.getIds(ALPHABETICAL_BY_ARTIST, 0, 10));
+    }
+
+    public void testPaging() {
+        assertEquals("Wrong count.", 4, catalog.getCount(NEWEST));
+        assertEquals("Wrong page.", Arrays.asList(4, 2), catalog.getIds(NEWEST, 1, 2));
+        assertEquals("Wrong last page.", Arrays.asList(1), catalog.getIds(NEWEST, 3, 2));
+        assertTrue("Expected empty page.", catalog.getIds(NEWEST, 4, 2).isEmpty());
+        assertTrue("Expected empty page.", catalog.getIds(NEWEST, 0, 0).isEmpty());
+        assertEquals("Wrong page.", Arrays.asList(3, 4, 2, 1), catalog.getIds(NEWEST, -1, Integer.MAX_VALUE));
+    }
+
+    public void testWithPlayed() {
+        AlbumCatalog played = catalog.withPlayed(4, 3, new Date(4000L));
+        assertEquals("Wrong frequent.", Arrays.asList(1, 4, 2, 3), played.getIds(FREQUENT, 0, 10));
+        assertEquals("Wrong recent.", Arrays.asList(4, 3, 2, 1), played.getIds(RECENT, 0, 10));
+        assertEquals("Wrong newest.", Arrays.asList(3, 4, 2, 1), played.getIds(NEWEST, 0, 10));
+
+        played = played.withPlayed(2, 6, new Date(5000L));
+        assertEquals("Wrong frequent.", Arrays.asList(2, 1, 4, 3), played.getIds(FREQUENT, 0, 10));
+        assertEquals("Wrong recent.", Arrays.asList(2, 4, 3, 1), played.getIds(RECENT, 0, 10));
+
+        assertEquals("Original modified.", Arrays.asList(1, 2, 3), catalog.getIds(FREQUENT, 0, 10));
+        assertSame("Expected unchanged catalog.", catalog, catalog.withPlayed(99, 1, new Date()));
+    }
+}
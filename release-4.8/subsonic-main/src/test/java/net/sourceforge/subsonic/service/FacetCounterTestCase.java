@@ -0,0 +1,110 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * Unit test of {@link FacetCounter}.
+ *
+ * @author Sindre Mehus
+ */
+public class FacetCounterTestCase extends TestCase {
+
+    private IndexReader reader;
+
+    @Override
+    protected void setUp() throws Exception {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+        writer.addDocument(createDocument("Rock", 1969));
+        writer.addDocument(createDocument("Rock", 1975));
+        writer.addDocument(createDocument("Jazz", 1959));
+        writer.addDocument(createDocument("Rock", 1969));
+        writer.addDocument(createDocument(null, 1975));
+        writer.close();
+        reader = IndexReader.open(dir, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        reader.close();
+    }
+
+    private Document createDocument(String genre, int year) {
+        Document doc = new Document();
+        if (genre != null) {
+            doc.add(new Field("genre", genre, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        }
+        doc.add(new NumericField("year", Field.Store.YES, true).setIntValue(year));
+        return doc;
+    }
+
+    public void testCountAll() throws Exception {
+        FacetCounter counter = new FacetCounter();
+
+        Map<String, Integer> genres = counter.count(reader, "genre", false, null);
+        assertEquals("Wrong number of genres.", 2, genres.size());
+        assertEquals("Wrong count.", 3, genres.get("Rock").intValue());
+        assertEquals("Wrong count.", 1, genres.get("Jazz").intValue());
+
+        Map<String, Integer> years = counter.count(reader, "year", true, null);
+        assertEquals("Lower precision terms should be skipped.", 3, years.size());
+        assertEquals("Wrong count.", 2, years.get("1969").intValue());
+        assertEquals("Wrong count.", 2, years.get("1975").intValue());
+        assertEquals("Wrong count.", 1, years.get("1959").intValue());
+    }
+
+    public void testCountMatching() throws Exception {
+        FacetCounter counter = new FacetCounter();
+
+        Map<String, Integer> years = counter.count(reader, "year", true, new TermQuery(new Term("genre", "Rock")));
+        assertEquals("Wrong number of years.", 2, years.size());
+        assertEquals("Wrong count.", 2, years.get("1969").intValue());
+        assertEquals("Wrong count.", 1, years.get("1975").intValue());
+
+        Map<String, Integer> genres = counter.count(reader, "genre", false, NumericRangeQuery.newIntRange("year", 1970, 1979, true, true));
+        assertEquals("Wrong number of genres.", 1, genres.size());
+        assertEquals("Wrong count.", 1, genres.get("Rock").intValue());
+
+        assertTrue("Error in count().", counter.count(reader, "unknown", false, null).isEmpty());
+    }
+
+    public void testCountDocs() {
+        OpenBitSet matches = new OpenBitSet(10);
+        matches.set(2);
+        matches.set(5);
+        assertEquals("Error in count().", 2, FacetCounter.count(new int[]{1, 2, 5, 7}, matches));
+        assertEquals("Error in count().", 0, FacetCounter.count(new int[]{1, 3, 7}, matches));
+        assertEquals("Error in count().", 0, FacetCounter.count(new int[0], matches));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import net.sourceforge.subsonic.dao.DaoTestCaseBase;
+import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.Artist;
+
+/**
+ * Unit test of {@link Id3GraphService}.
+ *
+ * @author Sindre Mehus
+ */
+public class Id3GraphServiceTestCase extends DaoTestCaseBase {
+
+    private Id3GraphService id3GraphService;
+    private Artist artist;
+
+    @Override
+    protected void setUp() throws Exception {
+        getJdbcTemplate().execute("delete from album");
+        getJdbcTemplate().execute("delete from artist");
+
+        artist = new Artist();
+        artist.setName("Abba");
+        artist.setLastScanned(new Date());
+        artist.setPresent(true);
+        artistDao.createOrUpdateArtist(artist);
+        createAlbum("Arrival", true);
+        createAlbum("Gold", true);
+
+        id3GraphService = new Id3GraphService();
+        id3GraphService.setMediaFileDao(mediaFileDao);
+        id3GraphService.setArtistDao(artistDao);
+        id3GraphService.setAlbumDao(albumDao);
+        id3GraphService.rebuild();
+    }
+
+    public void testRemovedAlbumsAreSkipped() {
+        assertEquals("Wrong albums.", Arrays.asList("Arrival", "Gold"), getAlbumNames());
+        createAlbum("Arrival", false);
+        assertEquals("Wrong albums.", Arrays.asList("Gold"), getAlbumNames());
+    }
+
+    public void testInvalidatedGraphIsRebuiltInBackground() throws Exception {
+        createAlbum("Voulez-Vous", true);
+        id3GraphService.invalidate();
+
+        for (int i = 0; i < 100 && getAlbumNames().size() < 3; i++) {
+            Thread.sleep(50L);
+        }
+        assertEquals("Wrong albums.", Arrays.asList("Arrival", "Gold", "Voulez-Vous"), getAlbumNames());
+    }
+
+    public void testAddedAlbumsAreVisibleBeforeRebuild() {
+        createAlbum("Voulez-Vous", true);
+        id3GraphService.invalidate();
+        assertEquals("Wrong albums.", Arrays.asList("Arrival", "Gold", "Voulez-Vous"), getAlbumNames());
+    }
+
+    public void testAddedAlbumsAreVisibleDuringScan() {
+        id3GraphService.beginUpdate();
+        createAlbum("Voulez-Vous", true);
+        assertEquals("Wrong albums.", Arrays.asList("Arrival", "Gold", "Voulez-Vous"), getAlbumNames());
+
+        id3GraphService.endUpdate();
+        assertEquals("Wrong albums.", Arrays.asList("Arrival", "Gold", "Voulez-Vous"), getAlbumNames());
+    }
+
+    private List<String> getAlbumNames() {
+        List<String> result = new ArrayList<String>();
+        for (Album album : id3GraphService.getAlbumsForArtist(artist)) {
+            result.add(album.getName());
+        }
+        return result;
+    }
+
+    private void createAlbum(String name, boolean present) {
+        Album album = new Album();
+        album.setPath("/music/Abba/" + name);
+        album.setName(name);
+        album.setArtist(artist.getName());
+        album.setCreated(new Date());
+        album.setLastScanned(new Date());
+        album.setPresent(present);
+        albumDao.createOrUpdateAlbum(album);
+    }
+}
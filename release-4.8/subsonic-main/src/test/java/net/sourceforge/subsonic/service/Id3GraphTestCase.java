@@ -0,0 +1,78 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import net.sourceforge.subsonic.domain.Id3Node;
+
+/**
+ * Unit test of {@link Id3Graph}.
+ *
+ * @author Sindre Mehus
+ */
+public class Id3GraphTestCase extends TestCase {
+
+    private Id3Graph graph;
+
+    @Override
+    protected void setUp() throws Exception {
+        graph = new Id3Graph(
+                Arrays.asList(
+                        new Id3Node(1, "The Beatles", null, true),
+                        new Id3Node(2, "Nico", null, false),
+                        new Id3Node(3, "Joni Mitchell", null, true)),
+                Arrays.asList(
+                        new Id3Node(10, "The Beatles", "Abbey Road", true),
+                        new Id3Node(11, "Joni Mitchell", "Blue", true),
+                        new Id3Node(12, "Nico", "Chelsea Girl", false),
+                        new Id3Node(13, "The Beatles", "Revolver", true),
+                        new Id3Node(14, "The Beatles", "Yellow Submarine", false)),
+                Arrays.asList(
+                        new Id3Node(100, "The Beatles", "Revolver", true),
+                        new Id3Node(101, "The Beatles", "Abbey Road", true),
+                        new Id3Node(102, "The Beatles", "Revolver", true),
+                        new Id3Node(103, "Unknown", "Unknown", true)));
+    }
+
+    public void testIdsByName() {
+        assertEquals("Wrong artist.", Integer.valueOf(3), graph.getArtistId("Joni Mitchell"));
+        assertEquals("Wrong non-present artist.", Integer.valueOf(2), graph.getArtistId("Nico"));
+        assertNull("Unexpected artist.", graph.getArtistId("Joni"));
+
+        assertEquals("Wrong album.", Integer.valueOf(13), graph.getAlbumId("The Beatles", "Revolver"));
+        assertEquals("Wrong non-present album.", Integer.valueOf(12), graph.getAlbumId("Nico", "Chelsea Girl"));
+        assertNull("Unexpected album.", graph.getAlbumId("Joni Mitchell", "Revolver"));
+    }
+
+    public void testAlbumsOfArtist() {
+        assertEquals("Wrong albums.", Arrays.asList(10, 13), graph.getAlbumIds(1));
+        assertEquals("Wrong albums.", Collections.emptyList(), graph.getAlbumIds(2));
+        assertNull("Unexpected albums.", graph.getAlbumIds(99));
+    }
+
+    public void testSongsOfAlbum() {
+        assertEquals("Wrong songs.", Arrays.asList(100, 102), graph.getSongIds(13));
+        assertEquals("Wrong songs.", Arrays.asList(101), graph.getSongIds(10));
+        assertEquals("Wrong songs.", Collections.emptyList(), graph.getSongIds(11));
+        assertNull("Unexpected songs.", graph.getSongIds(99));
+    }
+}
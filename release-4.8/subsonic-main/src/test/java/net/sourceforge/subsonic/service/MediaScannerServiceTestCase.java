@@ -0,0 +1,353 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.sourceforge.subsonic.cache.MediaFileCache;
+import net.sourceforge.subsonic.dao.DaoTestCaseBase;
+import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.Artist;
+import net.sourceforge.subsonic.domain.MediaFile;
+import net.sourceforge.subsonic.domain.MusicFolder;
+import net.sourceforge.subsonic.service.metadata.MetaData;
+import net.sourceforge.subsonic.service.metadata.MetaDataParser;
+import net.sourceforge.subsonic.service.metadata.MetaDataParserFactory;
+import net.sourceforge.subsonic.util.DirectorySnapshot;
+import net.sourceforge.subsonic.util.FileUtil;
+
+/**
+ * Unit test of {@link MediaScannerService}, scanning a small music folder into the test database.
+ *
+ * @author Sindre Mehus
+ */
+public class MediaScannerServiceTestCase extends DaoTestCaseBase {
+
+    private static final File MUSIC_FOLDER = new File("/tmp/subsonic-scan-test");
+
+    private SettingsService settingsService;
+    private TestMediaFileService mediaFileService;
+    private CountingSearchService searchService;
+    private MediaScannerService mediaScannerService;
+
+    @Override
+    protected void setUp() throws Exception {
+        getJdbcTemplate().execute("delete from media_file");
+        getJdbcTemplate().execute("delete from album");
+        getJdbcTemplate().execute("delete from artist");
+        getJdbcTemplate().execute("delete from music_folder");
+        new File(SettingsService.getSubsonicHome(), "subsonic.properties").delete();
+        new File(SettingsService.getSubsonicHome(), "scan-checkpoint.properties").delete();
+
+        delete(MUSIC_FOLDER);
+        createFile("Abba/Gold/01 Dancing Queen.mp3");
+        createFile("Abba/Gold/02 Waterloo.mp3");
+        createFile("Abba/Arrival/01 Money, Money, Money.mp3");
+        createFile("Nico/Chelsea Girl/01 The Fairest of the Seasons.mp3");
+        createFile("Nico/Chelsea Girl/02 These Days.mp3");
+        createFile("Loose Track.mp3");
+        musicFolderDao.createMusicFolder(new MusicFolder(MUSIC_FOLDER, "Music", true, new Date()));
+
+        settingsService = new SettingsService();
+        settingsService.setMusicFolderDao(musicFolderDao);
+        settingsService.setScanGovernorEnabled(false);
+        settingsService.setFastCacheEnabled(false);
+
+        SecurityService securityService = new SecurityService();
+        securityService.setSettingsService(settingsService);
+
+        MetaDataParserFactory metaDataParserFactory = new MetaDataParserFactory();
+        metaDataParserFactory.setParsers(Arrays.<MetaDataParser>asList(new TestParser()));
+
+        AlbumCatalogService albumCatalogService = new AlbumCatalogService();
+        albumCatalogService.setMediaFileDao(mediaFileDao);
+        albumCatalogService.setAlbumDao(albumDao);
+
+        mediaFileService = new TestMediaFileService();
+        mediaFileService.setSecurityService(securityService);
+        mediaFileService.setSettingsService(settingsService);
+        mediaFileService.setMediaFileCache(new MediaFileCache());
+        mediaFileService.setMediaFileDao(mediaFileDao);
+        mediaFileService.setAlbumDao(albumDao);
+        mediaFileService.setMetaDataParserFactory(metaDataParserFactory);
+        mediaFileService.setAlbumCatalogService(albumCatalogService);
+
+        searchService = new CountingSearchService();
+
+        ScanGovernor scanGovernor = new ScanGovernor();
+        scanGovernor.setSettingsService(settingsService);
+
+        mediaScannerService = new MediaScannerService();
+        mediaScannerService.setSettingsService(settingsService);
+        mediaScannerService.setSearchService(searchService);
+        mediaScannerService.setMediaFileService(mediaFileService);
+        mediaScannerService.setMediaFileDao(mediaFileDao);
+        mediaScannerService.setArtistDao(artistDao);
+        mediaScannerService.setAlbumDao(albumDao);
+        mediaScannerService.setScanGovernor(scanGovernor);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(MUSIC_FOLDER);
+        super.tearDown();
+    }
+
+    public void testPipelinedScanMatchesSequentialScan() throws Exception {
+        settingsService.setScanPipelineEnabled(false);
+        scan(false);
+        Map<String, String> sequential = getPresentFiles();
+
+        getJdbcTemplate().execute("delete from media_file");
+        getJdbcTemplate().execute("delete from album");
+        getJdbcTemplate().execute("delete from artist");
+        settingsService.setLastScanned(null);
+
+        settingsService.setScanPipelineEnabled(true);
+        scan(false);
+        Map<String, String> pipelined = getPresentFiles();
+
+        assertEquals("Wrong number of files.", 12, sequential.size());
+        assertEquals("Wrong files.", sequential, pipelined);
+        assertEquals("Wrong albums.", 4, getJdbcTemplate().queryForInt("select count(*) from album where present"));
+        assertEquals("Wrong artists.", 2, getJdbcTemplate().queryForInt("select count(*) from artist where present"));
+    }
+
+    public void testPipelinedScanRegistersParentsFirst() throws Exception {
+        settingsService.setScanPipelineEnabled(true);
+        settingsService.setScanParserThreadCount(4);
+        scan(false);
+
+        List<Map<String, Object>> rows = queryFiles();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        for (Map<String, Object> row : rows) {
+            ids.put((String) row.get("PATH"), (Integer) row.get("ID"));
+        }
+        for (Map<String, Object> row : rows) {
+            Integer parentId = ids.get((String) row.get("PARENT_PATH"));
+            if (parentId != null) {
+                assertTrue("Child registered before parent: " + row.get("PATH"), parentId < (Integer) row.get("ID"));
+            }
+        }
+    }
+
+    public void testPipelinedScanKeepsUnparseableFiles() throws Exception {
+        createFile("Nico/Chelsea Girl/03 broken.mp3");
+        settingsService.setScanPipelineEnabled(true);
+        scan(false);
+
+        MediaFile broken = mediaFileDao.getMediaFile(new File(MUSIC_FOLDER, "Nico/Chelsea Girl/03 broken.mp3").getPath());
+        assertNotNull("File not registered.", broken);
+        assertTrue("File not present.", broken.isPresent());
+        assertNull("Unexpected meta data.", broken.getArtist());
+        assertEquals("Wrong number of files.", 13, getPresentFiles().size());
+    }
+
+    public void testPipelinedScanStopsOnWalkerFailure() throws Exception {
+        settingsService.setScanPipelineEnabled(true);
+        scan(false);
+        Date lastScanned = settingsService.getLastScanned();
+        Map<String, String> files = getPresentFiles();
+
+        mediaFileService.failingDirectory = new File(MUSIC_FOLDER, "Nico");
+        scan(false);
+
+        assertEquals("Files marked as non-present.", files, getPresentFiles());
+        assertEquals("Scan completed.", lastScanned, settingsService.getLastScanned());
+    }
+
+    public void testDeltaScanOfUnchangedTreeIndexesNothing() throws Exception {
+        settingsService.setScanPipelineEnabled(false);
+        doTestDeltaScanOfUnchangedTree();
+    }
+
+    public void testPipelinedDeltaScanOfUnchangedTreeIndexesNothing() throws Exception {
+        settingsService.setScanPipelineEnabled(true);
+        doTestDeltaScanOfUnchangedTree();
+    }
+
+    private void doTestDeltaScanOfUnchangedTree() throws Exception {
+        scan(false);
+        Map<String, String> files = getPresentFiles();
+        assertTrue("Nothing indexed.", searchService.indexed > 0);
+
+        // The first delta scan records the directories, the second one carries them forward.
+        scan(true);
+        assertEquals("Wrong number of documents indexed.", 0, searchService.indexed);
+        scan(true);
+        assertEquals("Wrong number of documents indexed.", 0, searchService.indexed);
+        assertEquals("Wrong files.", files, getPresentFiles());
+        assertEquals("Wrong albums.", 4, getJdbcTemplate().queryForInt("select count(*) from album where present"));
+    }
+
+    private void scan(boolean delta) throws InterruptedException {
+        // Make sure each scan gets a generation of its own.
+        Thread.sleep(10);
+        searchService.reset();
+        mediaScannerService.doScanLibrary(delta);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private List<Map<String, Object>> queryFiles() {
+        return getJdbcTemplate().queryForList("select id, path, parent_path from media_file where present");
+    }
+
+    /**
+     * Returns the present files, mapped to their title.
+     */
+    private Map<String, String> getPresentFiles() {
+        Map<String, String> result = new HashMap<String, String>();
+        for (MediaFile file : mediaFileDao.getMediaFilesByPath(getPresentPaths())) {
+            if (file.isPresent()) {
+                result.put(file.getPath(), String.valueOf(file.getTitle()));
+            }
+        }
+        return result;
+    }
+
+    private List<String> getPresentPaths() {
+        TreeSet<String> paths = new TreeSet<String>();
+        for (Map<String, Object> row : queryFiles()) {
+            paths.add((String) row.get("PATH"));
+        }
+        return Arrays.asList(paths.toArray(new String[paths.size()]));
+    }
+
+    private static void createFile(String path) throws IOException {
+        File file = new File(MUSIC_FOLDER, path);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+
+    private static void delete(File file) {
+        if (file.isDirectory()) {
+            for (File child : FileUtil.listFiles(file)) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Takes the meta data from the directory structure, and fails for files named "broken".
+     */
+    private static class TestParser extends MetaDataParser {
+
+        @Override
+        public MetaData getRawMetaData(File file) {
+            if (file.getName().contains("broken")) {
+                throw new RuntimeException("Broken file.");
+            }
+            MetaData metaData = new MetaData();
+            File album = file.getParentFile();
+            if (album.equals(MUSIC_FOLDER)) {
+                metaData.setAlbumName("Singles");
+                metaData.setArtist("Nico");
+            } else {
+                metaData.setAlbumName(album.getName());
+                metaData.setArtist(album.getParentFile().getName());
+            }
+            metaData.setTitle(file.getName());
+            metaData.setDurationSeconds(60);
+            return metaData;
+        }
+
+        @Override
+        public void setMetaData(MediaFile file, MetaData metaData) {
+        }
+
+        @Override
+        public boolean isApplicable(File file) {
+            return file.isFile();
+        }
+
+        @Override
+        public boolean isEditingSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Fails to list a given directory, if any.
+     */
+    private static class TestMediaFileService extends MediaFileService {
+        private File failingDirectory;
+
+        @Override
+        public List<DirectorySnapshot.Entry> filterMediaFiles(DirectorySnapshot snapshot) {
+            List<DirectorySnapshot.Entry> result = super.filterMediaFiles(snapshot);
+            for (DirectorySnapshot.Entry entry : result) {
+                if (entry.getFile().getParentFile().equals(failingDirectory)) {
+                    throw new RuntimeException("Failed to list directory.");
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Counts the documents submitted to the index instead of indexing them.
+     */
+    private static class CountingSearchService extends SearchService {
+        private int indexed;
+
+        private void reset() {
+            indexed = 0;
+        }
+
+        @Override
+        public synchronized boolean startIndexing() {
+            return true;
+        }
+
+        @Override
+        public void index(MediaFile mediaFile) {
+            indexed++;
+        }
+
+        @Override
+        public void index(Artist artist) {
+            indexed++;
+        }
+
+        @Override
+        public void index(Album album) {
+            indexed++;
+        }
+
+        @Override
+        public void removeFromIndex(List<Integer> mediaFileIds, List<Integer> artistIds, List<Integer> albumIds) {
+        }
+
+        @Override
+        public void commitIndexing() {
+        }
+
+        @Override
+        public synchronized void stopIndexing() {
+        }
+    }
+}
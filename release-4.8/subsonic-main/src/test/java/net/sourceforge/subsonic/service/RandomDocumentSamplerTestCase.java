@@ -0,0 +1,54 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test of {@link RandomDocumentSampler}.
+ *
+ * @author Sindre Mehus
+ */
+public class RandomDocumentSamplerTestCase extends TestCase {
+
+    public void testSample() {
+        int[] docs = {3, 5, 8, 13, 21, 34, 55, 89, 144, 233};
+        Random random = new Random(42L);
+
+        for (int count = 0; count <= docs.length + 2; count++) {
+            int[] sample = RandomDocumentSampler.sample(docs, count, random);
+            assertEquals("Error in sample().", Math.min(count, docs.length), sample.length);
+
+            Set<Integer> distinct = new HashSet<Integer>();
+            for (int doc : sample) {
+                assertTrue("Unexpected document " + doc, Arrays.binarySearch(docs, doc) >= 0);
+                assertTrue("Duplicate document " + doc, distinct.add(doc));
+            }
+        }
+    }
+
+    public void testSampleEmpty() {
+        assertEquals("Error in sample().", 0, RandomDocumentSampler.sample(new int[0], 10, new Random()).length);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sourceforge.subsonic.domain.MediaLibraryStatistics;
+
+/**
+ * Unit test of {@link ScanCheckpoint}.
+ *
+ * @author Sindre Mehus
+ */
+public class ScanCheckpointTestCase extends TestCase {
+
+    private static final File CHECKPOINT_FILE = new File("/tmp/subsonic/scan-checkpoint.properties");
+
+    @Override
+    protected void setUp() throws Exception {
+        CHECKPOINT_FILE.getParentFile().mkdirs();
+        CHECKPOINT_FILE.delete();
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        Date generation = new Date();
+        ScanCheckpoint checkpoint = new ScanCheckpoint(CHECKPOINT_FILE, generation, true);
+        assertNull("Error in load().", ScanCheckpoint.load(CHECKPOINT_FILE));
+
+        checkpoint.setFullIndex(true);
+        checkpoint.unitCompleted("/music/A");
+        checkpoint.unitCompleted("/music/B");
+        assertFalse("Error in isCompleted().", checkpoint.isCompleted("/music/A"));
+
+        Map<String, Integer> albumCount = new HashMap<String, Integer>();
+        albumCount.put("Artist One", 3);
+        albumCount.put("Artist Two", 1);
+        checkpoint.save(42, new MediaLibraryStatistics(0, 0, 40, 1000L, 300L), albumCount);
+        assertTrue("Error in isCompleted().", checkpoint.isCompleted("/music/A"));
+        assertTrue("Error in isCompleted().", checkpoint.isCompleted("/music/B"));
+
+        checkpoint.unitCompleted("/music/C");
+
+        ScanCheckpoint loaded = ScanCheckpoint.load(CHECKPOINT_FILE);
+        assertNotNull("Error in load().", loaded);
+        assertEquals("Error in getGeneration().", generation, loaded.getGeneration());
+        assertTrue("Error in isDelta().", loaded.isDelta());
+        assertTrue("Error in isFullIndex().", loaded.isFullIndex());
+        assertEquals("Error in getScanCount().", 42, loaded.getScanCount());
+        assertEquals("Error in getStatistics().", 40, loaded.getStatistics().getSongCount());
+        assertEquals("Error in getStatistics().", 1000L, loaded.getStatistics().getTotalLengthInBytes());
+        assertEquals("Error in getAlbumCount().", albumCount, loaded.getAlbumCount());
+        assertTrue("Error in isCompleted().", loaded.isCompleted("/music/A"));
+        assertTrue("Error in isCompleted().", loaded.isCompleted("/music/B"));
+        assertFalse("Unsaved unit should not be completed.", loaded.isCompleted("/music/C"));
+
+        loaded.delete();
+        assertNull("Error in delete().", ScanCheckpoint.load(CHECKPOINT_FILE));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.subsonic.domain.TransferStatus;
+
+/**
+ * Unit test of {@link ScanGovernor}.
+ *
+ * @author Sindre Mehus
+ */
+public class ScanGovernorTestCase extends TestCase {
+
+    private static final long INTERVAL = TransferStatus.SAMPLE_INTERVAL_MILLIS;
+    private static final long BITRATE = 40;
+
+    private List<TransferStatus> statuses;
+    private ScanGovernor scanGovernor;
+    private long now;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        statuses = new ArrayList<TransferStatus>();
+
+        StatusService statusService = new StatusService() {
+            @Override
+            public synchronized List<TransferStatus> getAllStreamStatuses() {
+                return statuses;
+            }
+        };
+
+        SettingsService settingsService = new SettingsService();
+        settingsService.setScanGovernorEnabled(true);
+
+        scanGovernor = new ScanGovernor();
+        scanGovernor.setStatusService(statusService);
+        scanGovernor.setSettingsService(settingsService);
+        now = System.currentTimeMillis();
+    }
+
+    public void testNoStreams() {
+        assertEquals("Wrong state.", ScanGovernor.State.FULL_SPEED, scanGovernor.getState());
+    }
+
+    public void testInactiveStream() {
+        StubTransferStatus status = new StubTransferStatus();
+        status.setActive(false);
+        statuses.add(status);
+        assertEquals("Wrong state.", ScanGovernor.State.FULL_SPEED, scanGovernor.getState());
+    }
+
+    public void testSteadyStreamAfterStartupBurst() {
+        StubTransferStatus status = new StubTransferStatus();
+        status.addSamples(now - 600000L, 30000L, 10 * BITRATE);
+        status.addSamples(now - 570000L, 570000L, BITRATE);
+        statuses.add(status);
+
+        assertFalse("Steady stream reported as starving.", scanGovernor.isStarving(status, now));
+        assertEquals("Wrong state.", ScanGovernor.State.THROTTLED, scanGovernor.getState());
+    }
+
+    public void testStreamNoLongerRead() {
+        StubTransferStatus status = new StubTransferStatus();
+        status.addSamples(now - 600000L, 540000L, BITRATE);
+        statuses.add(status);
+
+        assertFalse("Idle stream reported as starving.", scanGovernor.isStarving(status, now));
+        assertEquals("Wrong state.", ScanGovernor.State.THROTTLED, scanGovernor.getState());
+    }
+
+    public void testYoungStream() {
+        StubTransferStatus status = new StubTransferStatus();
+        status.addSamples(now - 60000L, 20000L, 10 * BITRATE);
+        status.addSamples(now - 40000L, 40000L, BITRATE / 10);
+        statuses.add(status);
+
+        assertFalse("Young stream reported as starving.", scanGovernor.isStarving(status, now));
+    }
+
+    public void testStarvingStream() {
+        StubTransferStatus status = new StubTransferStatus();
+        status.addSamples(now - 600000L, 580000L, BITRATE);
+        status.addSamples(now - 20000L, 20000L, BITRATE / 10);
+        statuses.add(status);
+
+        assertTrue("Starving stream not detected.", scanGovernor.isStarving(status, now));
+        assertEquals("Wrong state.", ScanGovernor.State.PAUSED, scanGovernor.getState());
+    }
+
+    /**
+     * A transfer status with a given sample history.
+     */
+    private static class StubTransferStatus extends TransferStatus {
+
+        private final SampleHistory history = new SampleHistory();
+        private long bytes;
+
+        /**
+         * Adds a sample every sample interval from the given start time, for the given duration,
+         * at the given throughput in bytes per millisecond.
+         */
+        private void addSamples(long start, long duration, long throughput) {
+            for (long time = start; time < start + duration; time += INTERVAL) {
+                if (!history.isEmpty()) {
+                    bytes += throughput * (time - history.getLast().getTimestamp());
+                }
+                history.add(new Sample(bytes, time));
+            }
+        }
+
+        @Override
+        public synchronized SampleHistory getHistory() {
+            return new SampleHistory(history);
+        }
+    }
+}
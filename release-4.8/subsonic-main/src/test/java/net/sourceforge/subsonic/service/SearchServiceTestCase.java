@@ -0,0 +1,308 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sourceforge.subsonic.cache.MediaFileCache;
+import net.sourceforge.subsonic.dao.DaoTestCaseBase;
+import net.sourceforge.subsonic.domain.Album;
+import net.sourceforge.subsonic.domain.Artist;
+import net.sourceforge.subsonic.domain.MediaFile;
+import net.sourceforge.subsonic.domain.MusicFolder;
+import net.sourceforge.subsonic.domain.SearchCriteria;
+import net.sourceforge.subsonic.domain.SearchResult;
+
+/**
+ * Unit test of {@link SearchService}, searching a small index of items in the test database.
+ *
+ * @author Sindre Mehus
+ */
+public class SearchServiceTestCase extends DaoTestCaseBase {
+
+    private static final File MUSIC_FOLDER = new File("/tmp/subsonic-search-test");
+    private static final String CACHE_NAME = "searchServiceTestCache";
+
+    private SettingsService settingsService;
+    private MediaFileCache mediaFileCache;
+    private SearchService searchService;
+
+    @Override
+    protected void setUp() throws Exception {
+        getJdbcTemplate().execute("delete from media_file");
+        getJdbcTemplate().execute("delete from album");
+        getJdbcTemplate().execute("delete from music_folder");
+        new File(SettingsService.getSubsonicHome(), "subsonic.properties").delete();
+        FileUtils.deleteDirectory(new File(SettingsService.getSubsonicHome(), "lucene4"));
+        musicFolderDao.createMusicFolder(new MusicFolder(MUSIC_FOLDER, "Music", true, new Date()));
+
+        settingsService = new SettingsService();
+        settingsService.setMusicFolderDao(musicFolderDao);
+        settingsService.setFastCacheEnabled(true);
+
+        SecurityService securityService = new SecurityService();
+        securityService.setSettingsService(settingsService);
+
+        MediaFileService mediaFileService = new MediaFileService();
+        mediaFileService.setSecurityService(securityService);
+        mediaFileService.setSettingsService(settingsService);
+        mediaFileCache = new MediaFileCache();
+        mediaFileService.setMediaFileCache(mediaFileCache);
+        mediaFileService.setMediaFileDao(mediaFileDao);
+        mediaFileService.setAlbumDao(albumDao);
+
+        CacheManager cacheManager = CacheManager.create();
+        if (!cacheManager.cacheExists(CACHE_NAME)) {
+            cacheManager.addCache(new Cache(CACHE_NAME, 100, false, true, 0, 0));
+        }
+        cacheManager.getEhcache(CACHE_NAME).removeAll();
+
+        searchService = new SearchService();
+        searchService.setSettingsService(settingsService);
+        searchService.setSecurityService(securityService);
+        searchService.setMediaFileService(mediaFileService);
+        searchService.setArtistDao(artistDao);
+        searchService.setAlbumDao(albumDao);
+        searchService.setSearchResultCache(cacheManager.getEhcache(CACHE_NAME));
+    }
+
+    public void testSearchResultsAreLoadedFromDatabase() throws Exception {
+        MediaFile song = createSong(new File(MUSIC_FOLDER, "Abba/Gold/01 Dancing Queen.mp3"), "Dancing Queen");
+        song.setPlayCount(3);
+        song.setLastPlayed(new Date());
+        song.setComment("Comment");
+        mediaFileDao.createOrUpdateMediaFile(song);
+
+        Album album = createAlbum("Gold");
+        album.setPlayCount(5);
+        album.setComment("Comment");
+        albumDao.createOrUpdateAlbum(album);
+
+        index(song, album);
+
+        List<MediaFile> songs = search("dancing", SearchService.IndexType.SONG, true).getMediaFiles();
+        assertEquals("Wrong number of songs.", 1, songs.size());
+        MediaFile result = songs.get(0);
+        assertEquals("Wrong path.", song.getPath(), result.getPath());
+        assertEquals("Wrong play count.", 3, result.getPlayCount());
+        assertEquals("Wrong comment.", "Comment", result.getComment());
+        assertNotNull("Missing last played.", result.getLastPlayed());
+        assertNotNull("Missing last scanned.", result.getLastScanned());
+        assertNotNull("Missing children last updated.", result.getChildrenLastUpdated());
+
+        List<Album> albums = search("gold", SearchService.IndexType.ALBUM_ID3, true).getAlbums();
+        assertEquals("Wrong number of albums.", 1, albums.size());
+        assertEquals("Wrong play count.", 5, albums.get(0).getPlayCount());
+        assertEquals("Wrong comment.", "Comment", albums.get(0).getComment());
+        assertEquals("Wrong path.", album.getPath(), albums.get(0).getPath());
+    }
+
+    public void testSearchResultsAreProjectedFromIndex() throws Exception {
+        MediaFile song = createSong(new File(MUSIC_FOLDER, "Abba/Gold/01 Dancing Queen.mp3"), "Dancing Queen");
+        song.setYear(1992);
+        song.setGenre("Pop");
+        song.setTrackNumber(1);
+        song.setDurationSeconds(231);
+        song.setFileSize(5555555L);
+        song.setBitRate(192);
+        song.setPlayCount(3);
+        song.setLastPlayed(new Date());
+        mediaFileDao.createOrUpdateMediaFile(song);
+        song = mediaFileDao.getMediaFile(song.getPath());
+
+        Album album = createAlbum("Gold");
+        album.setCoverArtPath(new File(MUSIC_FOLDER, "Abba/Gold/cover.jpg").getPath());
+        album.setPlayCount(5);
+        albumDao.createOrUpdateAlbum(album);
+        album = albumDao.getAlbum("Abba", "Gold");
+
+        Artist artist = new Artist();
+        artist.setName("Abba");
+        artist.setAlbumCount(1);
+        artist.setLastScanned(new Date());
+        artist.setPresent(true);
+        artistDao.createOrUpdateArtist(artist);
+        artist = artistDao.getArtist("Abba");
+
+        index(song, album, artist);
+
+        // The results must not depend on the database.
+        getJdbcTemplate().execute("delete from media_file");
+        getJdbcTemplate().execute("delete from album");
+        getJdbcTemplate().execute("delete from artist");
+        mediaFileCache.clear();
+
+        List<MediaFile> songs = search("dancing", SearchService.IndexType.SONG).getMediaFiles();
+        assertEquals("Wrong number of songs.", 1, songs.size());
+        MediaFile result = songs.get(0);
+        assertEquals("Wrong ID.", song.getId(), result.getId());
+        assertEquals("Wrong path.", song.getPath(), result.getPath());
+        assertEquals("Wrong parent path.", song.getParentPath(), result.getParentPath());
+        assertEquals("Wrong media type.", MediaFile.MediaType.MUSIC, result.getMediaType());
+        assertEquals("Wrong title.", "Dancing Queen", result.getTitle());
+        assertEquals("Wrong album.", "Gold", result.getAlbumName());
+        assertEquals("Wrong artist.", "Abba", result.getArtist());
+        assertEquals("Wrong format.", "mp3", result.getFormat());
+        assertEquals("Wrong genre.", "Pop", result.getGenre());
+        assertEquals("Wrong year.", Integer.valueOf(1992), result.getYear());
+        assertEquals("Wrong track number.", Integer.valueOf(1), result.getTrackNumber());
+        assertEquals("Wrong duration.", Integer.valueOf(231), result.getDurationSeconds());
+        assertEquals("Wrong file size.", Long.valueOf(5555555L), result.getFileSize());
+        assertEquals("Wrong bit rate.", Integer.valueOf(192), result.getBitRate());
+        assertEquals("Wrong play count.", 3, result.getPlayCount());
+        assertEquals("Wrong last played.", song.getLastPlayed().getTime(), result.getLastPlayed().getTime());
+        assertEquals("Wrong created.", song.getCreated().getTime(), result.getCreated().getTime());
+
+        List<Album> albums = search("gold", SearchService.IndexType.ALBUM_ID3).getAlbums();
+        assertEquals("Wrong number of albums.", 1, albums.size());
+        assertEquals("Wrong ID.", album.getId(), albums.get(0).getId());
+        assertEquals("Wrong path.", album.getPath(), albums.get(0).getPath());
+        assertEquals("Wrong cover art.", album.getCoverArtPath(), albums.get(0).getCoverArtPath());
+        assertEquals("Wrong song count.", 1, albums.get(0).getSongCount());
+        assertEquals("Wrong play count.", 5, albums.get(0).getPlayCount());
+
+        List<Artist> artists = search("abba", SearchService.IndexType.ARTIST_ID3).getArtists();
+        assertEquals("Wrong number of artists.", 1, artists.size());
+        assertEquals("Wrong ID.", artist.getId(), artists.get(0).getId());
+        assertEquals("Wrong album count.", 1, artists.get(0).getAlbumCount());
+    }
+
+    public void testReindexedPlayCountIsProjected() throws Exception {
+        MediaFile song = createSong(new File(MUSIC_FOLDER, "Abba/Gold/01 Dancing Queen.mp3"), "Dancing Queen");
+        mediaFileDao.createOrUpdateMediaFile(song);
+        index(song);
+        assertEquals("Wrong play count.", 0, search("dancing", SearchService.IndexType.SONG).getMediaFiles().get(0).getPlayCount());
+
+        song.setPlayCount(1);
+        searchService.updateIndex(Arrays.asList(song), Collections.<Integer>emptyList(),
+                Collections.<Album>emptyList(), Collections.<Artist>emptyList());
+        assertEquals("Wrong play count.", 1, search("dancing", SearchService.IndexType.SONG).getMediaFiles().get(0).getPlayCount());
+    }
+
+    public void testSearchResultsOutsideMusicFoldersAreSkipped() throws Exception {
+        MediaFile allowed = createSong(new File(MUSIC_FOLDER, "Abba/Gold/01 Dancing Queen.mp3"), "Dancing Queen");
+        MediaFile denied = createSong(new File("/tmp/subsonic-search-other/Dancing Queen.mp3"), "Dancing Queen (Live)");
+        mediaFileDao.createOrUpdateMediaFile(allowed);
+        mediaFileDao.createOrUpdateMediaFile(denied);
+        index(allowed, denied);
+
+        for (boolean fullDetail : new boolean[]{false, true}) {
+            List<MediaFile> songs = search("dancing", SearchService.IndexType.SONG, fullDetail).getMediaFiles();
+            assertEquals("Wrong number of songs.", 1, songs.size());
+            assertEquals("Wrong path.", allowed.getPath(), songs.get(0).getPath());
+        }
+    }
+
+    public void testCachedSearchResultsAreCurrent() throws Exception {
+        MediaFile song = createSong(new File(MUSIC_FOLDER, "Abba/Gold/01 Dancing Queen.mp3"), "Dancing Queen");
+        mediaFileDao.createOrUpdateMediaFile(song);
+        index(song);
+
+        assertEquals("Wrong play count.", 0, search("dancing", SearchService.IndexType.SONG, true).getMediaFiles().get(0).getPlayCount());
+
+        song.setPlayCount(3);
+        mediaFileDao.createOrUpdateMediaFile(song);
+        mediaFileCache.remove(song.getPath());
+
+        SearchResult result = search("dancing", SearchService.IndexType.SONG, true);
+        assertEquals("Wrong total hits.", 1, result.getTotalHits());
+        assertEquals("Wrong play count.", 3, result.getMediaFiles().get(0).getPlayCount());
+    }
+
+    public void testSearchResultCacheIsKeyedByGeneration() throws Exception {
+        MediaFile song1 = createSong(new File(MUSIC_FOLDER, "Abba/Gold/01 Dancing Queen.mp3"), "Dancing Queen");
+        mediaFileDao.createOrUpdateMediaFile(song1);
+        index(song1);
+        assertEquals("Wrong number of songs.", 1, search("dancing", SearchService.IndexType.SONG).getMediaFiles().size());
+        assertEquals("Wrong number of songs.", 1, search("dancing", SearchService.IndexType.SONG).getMediaFiles().size());
+
+        MediaFile song2 = createSong(new File(MUSIC_FOLDER, "Abba/Gold/02 Dancing on the Ceiling.mp3"), "Dancing on the Ceiling");
+        mediaFileDao.createOrUpdateMediaFile(song2);
+        index(song2);
+
+        SearchResult result = search("dancing", SearchService.IndexType.SONG);
+        assertEquals("Wrong total hits.", 2, result.getTotalHits());
+        assertEquals("Wrong number of songs.", 2, result.getMediaFiles().size());
+    }
+
+    private SearchResult search(String query, SearchService.IndexType indexType) {
+        return search(query, indexType, false);
+    }
+
+    private SearchResult search(String query, SearchService.IndexType indexType, boolean fullDetail) {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.setQuery(query);
+        criteria.setCount(10);
+        criteria.setFullDetail(fullDetail);
+        return searchService.search(criteria, indexType);
+    }
+
+    private void index(Object... items) throws Exception {
+        searchService.startIndexing();
+        for (Object item : items) {
+            if (item instanceof MediaFile) {
+                searchService.index((MediaFile) item);
+            } else if (item instanceof Album) {
+                searchService.index((Album) item);
+            } else {
+                searchService.index((Artist) item);
+            }
+        }
+        searchService.stopIndexing();
+    }
+
+    private static MediaFile createSong(File file, String title) {
+        Date now = new Date();
+        MediaFile song = new MediaFile();
+        song.setPath(file.getPath());
+        song.setParentPath(file.getParent());
+        song.setFolder(MUSIC_FOLDER.getPath());
+        song.setMediaType(MediaFile.MediaType.MUSIC);
+        song.setFormat("mp3");
+        song.setTitle(title);
+        song.setArtist("Abba");
+        song.setAlbumName("Gold");
+        song.setCreated(now);
+        song.setChanged(now);
+        song.setLastScanned(now);
+        song.setChildrenLastUpdated(new Date(0L));
+        song.setPresent(true);
+        return song;
+    }
+
+    private static Album createAlbum(String name) {
+        Album album = new Album();
+        album.setPath(new File(MUSIC_FOLDER, "Abba/" + name).getPath());
+        album.setName(name);
+        album.setArtist("Abba");
+        album.setSongCount(1);
+        album.setCreated(new Date());
+        album.setLastScanned(new Date());
+        album.setPresent(true);
+        return album;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.subsonic.domain.Suggestion;
+
+/**
+ * Unit test of {@link SuggestionIndex}.
+ *
+ * @author Sindre Mehus
+ */
+public class SuggestionIndexTestCase extends TestCase {
+
+    private SuggestionIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        index = new SuggestionIndex(Arrays.asList(
+                new Suggestion(Suggestion.Type.ARTIST, 1, "The Beatles", 100),
+                new Suggestion(Suggestion.Type.ALBUM, 2, "Beatles for Sale", 10),
+                new Suggestion(Suggestion.Type.SONG, 3, "Love Me Do", 50),
+                new Suggestion(Suggestion.Type.SONG, 4, "Love, Love Me Do", 5),
+                new Suggestion(Suggestion.Type.SONG, 5, "Bsame Mucho", 1),
+                new Suggestion(Suggestion.Type.SONG, 6, null, 1000),
+                new Suggestion(Suggestion.Type.ARTIST, 7, "Beat Happening", 20)));
+    }
+
+    public void testNormalize() {
+        assertEquals("Error in normalize().", "love love me do", SuggestionIndex.normalize(" Love,  Love Me Do! "));
+        assertEquals("Error in normalize().", "besame mucho", SuggestionIndex.normalize("Bsame Mucho"));
+        assertEquals("Error in normalize().", "", SuggestionIndex.normalize("--"));
+    }
+
+    public void testSuggest() {
+        assertEquals("Error in suggest().", Arrays.asList(1, 7, 2), getIds("beat", 10));
+        assertEquals("Error in suggest().", Arrays.asList(1, 7), getIds("BEAT", 2));
+        assertEquals("Error in suggest().", Arrays.asList(1, 2), getIds("beatles", 10));
+        assertEquals("Error in suggest().", Arrays.asList(3, 4), getIds("love me", 10));
+        assertEquals("Error in suggest().", Arrays.asList(3, 4), getIds("me d", 10));
+        assertEquals("Error in suggest().", Arrays.asList(5), getIds("besa", 10));
+        assertEquals("Error in suggest().", Arrays.asList(5), getIds("bsa", 10));
+        assertTrue("Error in suggest().", getIds("beatles x", 10).isEmpty());
+        assertTrue("Error in suggest().", getIds("zzz", 10).isEmpty());
+        assertTrue("Error in suggest().", getIds("", 10).isEmpty());
+        assertEquals("Error in size().", 6, index.size());
+    }
+
+    private List<Integer> getIds(String prefix, int count) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (Suggestion suggestion : index.suggest(prefix, count)) {
+            result.add(suggestion.getId());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.service.metadata;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.TestCase;
+import net.sf.ehcache.Cache;
+
+/**
+ * Unit test of {@link MetaDataCache}.
+ *
+ * @author Sindre Mehus
+ */
+public class MetaDataCacheTestCase extends TestCase {
+
+    private MetaDataCache metaDataCache;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        Cache cache = new Cache("metaDataCacheTest", 100, false, true, 0, 0);
+        cache.initialise();
+        metaDataCache = new MetaDataCache();
+        metaDataCache.setMetaDataCache(cache);
+
+        file = File.createTempFile("subsonic", ".mp3");
+        file.deleteOnExit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testMetaData() throws Exception {
+        assertNull("Expected cache miss.", metaDataCache.getRawMetaData(file));
+
+        MetaData metaData = new MetaData();
+        metaData.setArtist("Artist");
+        metaData.setDurationSeconds(123);
+        metaDataCache.putRawMetaData(file, metaData);
+        metaData.setArtist("Modified");
+
+        MetaData cached = metaDataCache.getRawMetaData(file);
+        assertEquals("Wrong artist.", "Artist", cached.getArtist());
+        assertEquals("Wrong duration.", Integer.valueOf(123), cached.getDurationSeconds());
+
+        cached.setArtist("Modified");
+        assertEquals("Cached entry was modified.", "Artist", metaDataCache.getRawMetaData(file).getArtist());
+    }
+
+    public void testImageAvailable() throws Exception {
+        assertNull("Expected cache miss.", metaDataCache.isImageAvailable(file));
+
+        metaDataCache.putRawMetaData(file, new MetaData());
+        metaDataCache.setImageAvailable(file, true);
+        assertEquals("Wrong image availability.", Boolean.TRUE, metaDataCache.isImageAvailable(file));
+        assertNotNull("Meta data was lost.", metaDataCache.getRawMetaData(file));
+    }
+
+    public void testInvalidatedByFileChange() throws Exception {
+        metaDataCache.putRawMetaData(file, new MetaData());
+        metaDataCache.setImageAvailable(file, false);
+
+        FileWriter writer = new FileWriter(file);
+        writer.write("changed");
+        writer.close();
+
+        assertNull("Expected cache miss.", metaDataCache.getRawMetaData(file));
+        assertNull("Expected cache miss.", metaDataCache.isImageAvailable(file));
+    }
+}
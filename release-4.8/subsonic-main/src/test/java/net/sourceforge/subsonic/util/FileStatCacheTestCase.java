@@ -0,0 +1,113 @@
+/*
+ This file is part of Subsonic.
+
+ Subsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Subsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Subsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2009 (C) Sindre Mehus
+ */
+package net.sourceforge.subsonic.util;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test of {@link FileStatCache}.
+ *
+ * @author Sindre Mehus
+ */
+public class FileStatCacheTestCase extends TestCase {
+
+    private FileStatCache cache;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        cache = new FileStatCache(60000L, 100);
+        file = File.createTempFile("subsonic", ".mp3");
+        file.deleteOnExit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testAttributes() throws Exception {
+        write("abc");
+        DirectorySnapshot.Entry entry = cache.get(file, true);
+        assertTrue("Wrong existence.", entry.exists());
+        assertTrue("Wrong type.", entry.isFile());
+        assertFalse("Wrong type.", entry.isDirectory());
+        assertEquals("Wrong size.", 3L, entry.getSize());
+        assertEquals("Wrong modification time.", file.lastModified(), entry.getLastModified());
+
+        DirectorySnapshot.Entry dir = cache.get(file.getParentFile(), true);
+        assertTrue("Wrong existence.", dir.exists());
+        assertTrue("Wrong type.", dir.isDirectory());
+    }
+
+    public void testCachedUntilBypassed() throws Exception {
+        write("abc");
+        assertEquals("Wrong size.", 3L, cache.get(file, true).getSize());
+        write("abcdef");
+        assertEquals("Expected cached size.", 3L, cache.get(file, true).getSize());
+        assertEquals("Cache not bypassed.", 6L, cache.get(file, false).getSize());
+        assertEquals("Cache not refreshed by bypass.", 6L, cache.get(file, true).getSize());
+
+        assertEquals("Wrong hit count.", 2L, cache.getHitCount());
+        assertEquals("Wrong miss count.", 1L, cache.getMissCount());
+        assertEquals("Wrong bypass count.", 1L, cache.getBypassCount());
+    }
+
+    public void testNegativeEntries() throws Exception {
+        file.delete();
+        assertFalse("Wrong existence.", cache.get(file, true).exists());
+        write("abc");
+        assertFalse("Expected cached non-existence.", cache.get(file, true).exists());
+        assertTrue("Cache not bypassed.", cache.get(file, false).exists());
+    }
+
+    public void testExpiry() throws Exception {
+        cache.setTimeToLive(1L);
+        write("abc");
+        assertEquals("Wrong size.", 3L, cache.get(file, true).getSize());
+        write("abcdef");
+        Thread.sleep(10L);
+        assertEquals("Entry not expired.", 6L, cache.get(file, true).getSize());
+        assertEquals("Wrong miss count.", 2L, cache.getMissCount());
+
+        cache.setTimeToLive(0L);
+        assertFalse("Cache not disabled.", cache.isEnabled());
+        assertEquals("Cache not emptied.", 0, cache.size());
+    }
+
+    public void testMaxSize() throws Exception {
+        cache.setMaxSize(2);
+        cache.get(new File(file.getPath() + ".1"), true);
+        cache.get(new File(file.getPath() + ".2"), true);
+        cache.get(new File(file.getPath() + ".3"), true);
+        assertEquals("Wrong size.", 2, cache.size());
+    }
+
+    private void write(String s) throws Exception {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(s);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -6,7 +6,8 @@
 </p>
 
 <p>
-    Returns all genres.
+    Returns all genres.  Since <a href="#versions">1.11.0</a>, each genre also includes the number of songs
+    of that genre, for clients requesting API version 1.11.0 or later.
 </p>
 
 <p>
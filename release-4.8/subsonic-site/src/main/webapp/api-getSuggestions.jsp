@@ -0,0 +1,36 @@
+<h2 class="div"><a name="getSuggestions"></a>getSuggestions</h2>
+
+<p>
+    <code>http://your-server/rest/getSuggestions.view</code>
+    <br>Since <a href="#versions">1.10.0</a>
+</p>
+
+<p>
+    Returns the most frequently played artist, album and song names starting with the given query. Much faster than
+    <code>search3</code>, and meant for search-as-you-type. Artist and album IDs refer to the media collection
+    organized according to ID3 tags.
+</p>
+<table width="100%" class="bottomspace">
+    <tr>
+        <th class="param-heading">Parameter</th>
+        <th class="param-heading">Required</th>
+        <th class="param-heading">Default</th>
+        <th class="param-heading">Comment</th>
+    </tr>
+    <tr class="table-altrow">
+        <td><code>query</code></td>
+        <td>Yes</td>
+        <td></td>
+        <td>The beginning of the names to return.</td>
+    </tr>
+    <tr>
+        <td><code>count</code></td>
+        <td>No</td>
+        <td>10</td>
+        <td>The maximum number of suggestions to return. Max 100.</td>
+    </tr>
+</table>
+<p>
+    Returns a <code>&lt;subsonic-response&gt;</code> element with a nested <code>&lt;suggestions&gt;</code>
+    element on success. <a href="https://sourceforge.net/p/subsonic/code/HEAD/tree/trunk/subsonic-main/src/main/webapp/xsd/suggestions_example_1.xml">Example</a>.
+</p>
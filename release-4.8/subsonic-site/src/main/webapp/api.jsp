@@ -281,7 +281,8 @@
         <td>
             <code><a href="#search">search</a></code>,
             <code><a href="#search2">search2</a></code>,
-            <code><a href="#search3">search3</a></code>
+            <code><a href="#search3">search3</a></code>,
+            <code><a href="#getSuggestions">getSuggestions</a></code>
         </td>
     </tr>
     <tr class="table-altrow">
@@ -397,6 +398,7 @@
 <%@ include file="api-search.jsp" %>
 <%@ include file="api-search2.jsp" %>
 <%@ include file="api-search3.jsp" %>
+<%@ include file="api-getSuggestions.jsp" %>
 
 <%@ include file="api-getPlaylists.jsp" %>
 <%@ include file="api-getPlaylist.jsp" %>